@@ -0,0 +1,138 @@
+package org.gtio.jlask;
+
+import org.gtio.Main;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// 建连压测: 每个请求都新建连接 (Connection: close), 测量每秒能建立并完成的连接数随 accept 线程数的变化
+// 每个 accept 线程数启动一个新的 Jlask 实例 (端口 0), 客户端线程数不变, 先预热再计数; 连接由服务端先关闭, 客户端不积累 TIME_WAIT
+// java -cp benchmarks.jar org.gtio.jlask.ConnectLoad [BIO|NIO] [acceptors,...] [clients] [warmupSeconds] [seconds]
+public class ConnectLoad {
+
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static class Level {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final long measureStart;
+        final long measureEnd;
+
+        Level(long measureStart, long measureEnd) {
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        Engine engine = Engine.valueOf(args.length > 0 ? args[0] : "NIO");
+        String acceptors = args.length > 1 ? args[1] : defaultAcceptors(cpus);
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(16, cpus * 4);
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        System.out.printf("engine %s, %d cpus, %d clients, java %s, warmup %ds, measure %ds%n", engine, cpus, clients,
+                System.getProperty("java.version"), warmup, seconds);
+        System.out.printf("%9s %10s %9s %9s %9s %9s %8s %8s%n",
+                "acceptors", "conn/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "errors", "503");
+        for (String value : acceptors.split(",")) {
+            int count = Integer.parseInt(value.trim());
+            Config config = new Config();
+            config.engine = engine;
+            config.acceptors = count;
+            // NIO 模式下负责 accept 的事件循环数不超过事件循环数
+            config.ioThreads = Math.max(config.ioThreads, count);
+            config.consoleLog = false;
+            Jlask jlask = new Jlask("127.0.0.1", 0, config, new Main());
+            jlask.start();
+            InetSocketAddress address = jlask.getLocalAddress();
+
+            long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup);
+            Level level = new Level(start, start + TimeUnit.SECONDS.toNanos(seconds));
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Thread thread = new Thread(() -> run(address, level), "connect-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            LatencyHistogram latency = level.latency;
+            long n = latency.count();
+            System.out.printf("%9d %10.0f %9.3f %9.3f %9.3f %9.3f %8d %8d%n", count, n / (double) seconds,
+                    n == 0 ? 0 : latency.sumSeconds() * 1000 / n, latency.quantileSeconds(0.5) * 1000,
+                    latency.quantileSeconds(0.99) * 1000, latency.quantileSeconds(0.999) * 1000,
+                    level.errors.sum(), level.rejected.sum());
+            // 上一个实例不再收到连接, 留在进程里空闲
+            Thread.sleep(1000);
+        }
+        System.exit(0);
+    }
+
+    // 1, 2, 4 ... 直到 CPU 核数
+    private static String defaultAcceptors(int cpus) {
+        StringBuilder sb = new StringBuilder("1");
+        for (int n = 2; n <= cpus; n *= 2) {
+            sb.append(',').append(n);
+        }
+        if (Integer.highestOneBit(cpus) != cpus) {
+            sb.append(',').append(cpus);
+        }
+        return sb.toString();
+    }
+
+    // 建连、发请求、读到服务端关闭连接为止算一次
+    private static void run(InetSocketAddress address, Level level) {
+        byte[] buf = new byte[8192];
+        while (true) {
+            long sent = System.nanoTime();
+            if (sent - level.measureEnd >= 0) {
+                break;
+            }
+            try (Socket socket = new Socket()) {
+                socket.setTcpNoDelay(true);
+                socket.connect(address);
+                OutputStream out = socket.getOutputStream();
+                out.write(REQUEST);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                int length = 0;
+                int n;
+                while (length < 12 && (n = in.read(buf, length, 12 - length)) > 0) {
+                    length += n;
+                }
+                if (length < 12) {
+                    throw new IOException("incomplete response");
+                }
+                int status = Integer.parseInt(new String(buf, 9, 3, StandardCharsets.US_ASCII));
+                while (in.read(buf) != -1) {
+                    // 读到服务端关闭
+                }
+                if (sent - level.measureStart >= 0) {
+                    level.latency.record(System.nanoTime() - sent);
+                    if (status == 503) {
+                        level.rejected.increment();
+                    } else if (status >= 400) {
+                        level.errors.increment();
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                if (sent - level.measureStart >= 0) {
+                    level.errors.increment();
+                }
+            }
+        }
+    }
+}
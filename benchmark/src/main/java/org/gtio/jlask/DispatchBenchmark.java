@@ -0,0 +1,59 @@
+package org.gtio.jlask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// 调用 @Route 方法的开销: 旧版 Method.invoke vs Handlers.bind 生成的直接调用
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    public static class App {
+        private final Response response = new Response("ok");
+
+        @Route(url = "/")
+        public Response index(Request req) {
+            return response;
+        }
+    }
+
+    private Request request;
+    private Handler reflective;
+    private Handler bound;
+
+    @Setup
+    public void setup() throws Exception {
+        request = new Request(new ByteArrayInputStream(Requests.SIMPLE.getBytes(StandardCharsets.UTF_8)));
+        App app = new App();
+        Method method = App.class.getMethod("index", Request.class);
+        reflective = req -> (Response) method.invoke(app, req);
+        bound = Handlers.bind(method, app);
+    }
+
+    @Benchmark
+    public Response reflective() throws Exception {
+        return reflective.handle(request);
+    }
+
+    @Benchmark
+    public Response bound() throws Exception {
+        return bound.handle(request);
+    }
+}
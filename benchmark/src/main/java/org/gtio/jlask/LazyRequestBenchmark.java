@@ -0,0 +1,64 @@
+package org.gtio.jlask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// 请求头、查询参数和请求体按需解析: 只用路径的路由 vs 访问全部内容 (相当于改造前构造时全部解析)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyRequestBenchmark {
+
+    @Param({"browser", "postJson"})
+    public String kind;
+
+    private byte[] raw;
+
+    @Setup
+    public void setup() {
+        raw = Requests.get(kind).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 处理器只看路径和路径参数, 请求头、查询串和请求体都不解码
+    @Benchmark
+    public void pathOnly(Blackhole bh) throws IOException {
+        Request req = new Request(new ByteArrayInputStream(raw));
+        bh.consume(req.getUrl());
+    }
+
+    // 只取一个请求头, 在原始字节上查找
+    @Benchmark
+    public void singleHeader(Blackhole bh) throws IOException {
+        Request req = new Request(new ByteArrayInputStream(raw));
+        bh.consume(req.getUrl());
+        bh.consume(req.getHeader("Accept-Encoding"));
+    }
+
+    // 访问全部请求头、查询参数和 JSON 请求体
+    @Benchmark
+    public void everything(Blackhole bh) throws IOException {
+        Request req = new Request(new ByteArrayInputStream(raw));
+        bh.consume(req.getUrl());
+        bh.consume(req.getHeaders());
+        bh.consume(req.getParams());
+        bh.consume(req.getJsonBody());
+    }
+}
@@ -0,0 +1,195 @@
+package org.gtio.jlask;
+
+import org.gtio.Main;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// 回环压测: 用 Main 的示例路由在本进程内启动 Jlask (或连接一个已经运行的实例), 在几个并发级别下测量吞吐量和延迟分位数
+// 每个并发级别使用同样数量的保持连接, 每个连接一个线程, 收到响应后立即发送下一个请求 (闭环), 请求按固定顺序轮换
+// 每个级别先预热再计数, 只统计在测量窗口内发出的请求, 同样的参数多次运行的结果可以直接比较
+// java -cp benchmarks.jar org.gtio.jlask.LoadGenerator [BIO|NIO|host:port] [concurrency,...] [warmupSeconds] [seconds]
+public class LoadGenerator {
+
+    private static final String ITEM = "{\"name\":\"jlask\",\"tags\":[\"http\",\"server\",\"java\"]}";
+
+    // 覆盖 Main 中静态内容、查询参数和 JSON 请求体三类路由
+    private static final String[] MIX = {
+            "GET / HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n",
+            "GET /showJson?name=jlask&id=42 HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n",
+            "POST /items/42 HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Type: application/json\r\nContent-Length: "
+                    + ITEM.length() + "\r\n\r\n" + ITEM,
+    };
+
+    private static class Level {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final long measureStart;
+        final long measureEnd;
+
+        Level(long measureStart, long measureEnd) {
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : "NIO";
+        String concurrency = args.length > 1 ? args[1] : "1,16,64,256";
+        int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 15;
+
+        InetSocketAddress address;
+        if (target.contains(":")) {
+            int colon = target.lastIndexOf(':');
+            address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+        } else {
+            Config config = new Config();
+            config.engine = Engine.valueOf(target);
+            config.consoleLog = false;
+            Jlask jlask = new Jlask("127.0.0.1", 0, config, new Main());
+            jlask.start();
+            address = jlask.getLocalAddress();
+        }
+
+        byte[][] requests = new byte[MIX.length][];
+        for (int i = 0; i < MIX.length; i++) {
+            requests[i] = MIX[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        System.out.printf("target %s, %d cpus, java %s, warmup %ds, measure %ds%n", address,
+                Runtime.getRuntime().availableProcessors(), System.getProperty("java.version"), warmup, seconds);
+        System.out.printf("%11s %10s %9s %9s %9s %9s %9s %8s %8s%n",
+                "connections", "req/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "errors", "503");
+        for (String value : concurrency.split(",")) {
+            int connections = Integer.parseInt(value.trim());
+            long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup);
+            Level level = new Level(start, start + TimeUnit.SECONDS.toNanos(seconds));
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                int offset = i;
+                Thread thread = new Thread(() -> run(address, requests, offset, level), "load-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            LatencyHistogram latency = level.latency;
+            long count = latency.count();
+            System.out.printf("%11d %10.0f %9.3f %9.3f %9.3f %9.3f %9.3f %8d %8d%n", connections, count / (double) seconds,
+                    count == 0 ? 0 : latency.sumSeconds() * 1000 / count, latency.quantileSeconds(0.5) * 1000,
+                    latency.quantileSeconds(0.9) * 1000, latency.quantileSeconds(0.99) * 1000,
+                    latency.quantileSeconds(0.999) * 1000, level.errors.sum(), level.rejected.sum());
+            // 等服务端关闭上一轮的连接
+            Thread.sleep(1000);
+        }
+        System.exit(0);
+    }
+
+    // 一个连接上循环发送请求; 服务端关闭连接 (达到 maxKeepAliveRequests 等) 时重新连接
+    private static void run(InetSocketAddress address, byte[][] requests, int offset, Level level) {
+        byte[] head = new byte[16 * 1024];
+        Socket socket = null;
+        InputStream in = null;
+        OutputStream out = null;
+        long n = offset;
+        while (true) {
+            long sent = System.nanoTime();
+            if (sent - level.measureEnd >= 0) {
+                break;
+            }
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.connect(address);
+                    in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                    out = socket.getOutputStream();
+                }
+                out.write(requests[(int) (n++ % requests.length)]);
+                int status = readResponse(in, head);
+                long elapsed = System.nanoTime() - sent;
+                if (sent - level.measureStart >= 0) {
+                    level.latency.record(elapsed);
+                    if (Math.abs(status) == 503) {
+                        level.rejected.increment();
+                    } else if (Math.abs(status) >= 400) {
+                        level.errors.increment();
+                    }
+                }
+                if (status < 0) {
+                    socket.close();
+                    socket = null;
+                }
+            } catch (IOException e) {
+                if (sent - level.measureStart >= 0) {
+                    level.errors.increment();
+                }
+                close(socket);
+                socket = null;
+            }
+        }
+        close(socket);
+    }
+
+    // 读取一个带 Content-Length 的响应, 返回状态码; 服务端要求关闭连接时返回负的状态码
+    private static int readResponse(InputStream in, byte[] head) throws IOException {
+        int length = 0;
+        while (length < 4 || head[length - 4] != '\r' || head[length - 3] != '\n' || head[length - 2] != '\r' || head[length - 1] != '\n') {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            if (length == head.length) {
+                throw new IOException("response head too large");
+            }
+            head[length++] = (byte) b;
+        }
+        String text = new String(head, 0, length, StandardCharsets.ISO_8859_1);
+        int status = Integer.parseInt(text.substring(9, 12));
+        long contentLength = -1;
+        boolean close = false;
+        for (String line : text.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon);
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Connection")) {
+                close = value.equalsIgnoreCase("close");
+            }
+        }
+        if (contentLength < 0) {
+            throw new IOException("response without Content-Length");
+        }
+        in.skipNBytes(contentLength);
+        return close ? -status : status;
+    }
+
+    private static void close(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 已经断开
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.gtio.jlask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 请求体解码: 按 Content-Type 取出 JSON / 表单 / multipart 各部分, 包括读取请求头
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBodyBenchmark {
+
+    // typedJson: 同样的 JSON 请求体直接绑定为 record, 对应 @Route 方法声明了请求体参数的情况
+    @Param({"postJson", "typedJson", "postForm", "multipart"})
+    public String kind;
+
+    private byte[] raw;
+
+    @Setup
+    public void setup() {
+        raw = Requests.get("typedJson".equals(kind) ? "postJson" : kind).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws IOException {
+        Request req = new Request(new ByteArrayInputStream(raw));
+        switch (kind) {
+            case "postJson" -> bh.consume(req.getJsonBody());
+            case "typedJson" -> bh.consume(req.getJsonBody(Payload.class));
+            case "postForm" -> bh.consume(req.getFromBody());
+            default -> bh.consume(req.getFormDataBody());
+        }
+        req.release();
+    }
+
+    public record Owner(String login, boolean admin) {
+    }
+
+    public record Payload(long id, String name, List<String> tags, Owner owner, String description) {
+    }
+}
@@ -0,0 +1,110 @@
+package org.gtio.jlask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 请求头解析: 旧版逐字节读取 + split 的实现 vs RequestParser
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParseBenchmark {
+
+    @Param({"simple", "browser", "largeHeaders", "postJson", "postForm", "multipart"})
+    public String kind;
+
+    private byte[] raw;
+    private final RequestParser parser = new RequestParser();
+
+    @Setup
+    public void setup() {
+        raw = Requests.get(kind).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 改造前 Request(InputStream) 的请求头处理流程
+    @Benchmark
+    public void legacy(Blackhole bh) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(raw), StandardCharsets.ISO_8859_1));
+        ArrayList<Byte> arrBytes = new ArrayList<>();
+        byte[] breakLine = new byte[4];
+        while (true) {
+            int b = reader.read();
+            if (b == -1) {
+                break;
+            }
+            arrBytes.add((byte) b);
+            if (arrBytes.size() >= 4) {
+                System.arraycopy(breakLine, 1, breakLine, 0, 3);
+                breakLine[3] = (byte) b;
+                if (breakLine[0] == 13 && breakLine[1] == 10 && breakLine[2] == 13 && breakLine[3] == 10) {
+                    break;
+                }
+            }
+        }
+        byte[] bytes = new byte[arrBytes.size()];
+        for (int i = 0; i < arrBytes.size(); i++) {
+            bytes[i] = arrBytes.get(i);
+        }
+        String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\n");
+        String[] firstLine = lines[0].split(" ");
+        String url = URLDecoder.decode(firstLine[1], StandardCharsets.UTF_8);
+        String[] params = url.split("\\?");
+        Map<String, String> query = new HashMap<>();
+        if (params.length > 1) {
+            for (String kv : params[1].split("&")) {
+                String[] kv2 = kv.split("=");
+                if (kv2.length == 2) {
+                    query.put(kv2[0], kv2[1]);
+                }
+            }
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            String[] header = lines[i].split(":");
+            if (header.length == 2) {
+                headers.put(header[0].trim(), header[1].trim());
+            }
+        }
+        bh.consume(firstLine[0]);
+        bh.consume(params[0]);
+        bh.consume(query);
+        bh.consume(headers);
+    }
+
+    // 只定位各部分的下标, 路由需要的 method 不产生新对象
+    @Benchmark
+    public void parserOnly(Blackhole bh) {
+        bh.consume(parser.parse(raw, 0, raw.length));
+        bh.consume(parser.method());
+        bh.consume(parser.contentLength());
+    }
+
+    // 完整构造 Request, 包括请求头 Map 和查询参数
+    @Benchmark
+    public Request request() throws IOException {
+        return new Request(new ByteArrayInputStream(raw));
+    }
+}
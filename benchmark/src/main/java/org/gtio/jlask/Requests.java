@@ -0,0 +1,116 @@
+package org.gtio.jlask;
+
+// 基准测试共用的原始请求报文
+final class Requests {
+
+    static final String SIMPLE = "GET /showJson?name=jlask&id=42 HTTP/1.1\r\n"
+            + "Host: 127.0.0.1:8080\r\n"
+            + "Accept: */*\r\n"
+            + "\r\n";
+
+    static final String BROWSER = "GET /assets/index.6d77e5fe.js?v=20220812 HTTP/1.1\r\n"
+            + "Host: 127.0.0.1:8080\r\n"
+            + "Connection: keep-alive\r\n"
+            + "sec-ch-ua: \"Chromium\";v=\"104\", \" Not A;Brand\";v=\"99\", \"Google Chrome\";v=\"104\"\r\n"
+            + "sec-ch-ua-mobile: ?0\r\n"
+            + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/104.0.0.0 Safari/537.36\r\n"
+            + "sec-ch-ua-platform: \"Windows\"\r\n"
+            + "Accept: */*\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "Sec-Fetch-Mode: no-cors\r\n"
+            + "Sec-Fetch-Dest: script\r\n"
+            + "Referer: http://127.0.0.1:8080/web\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n"
+            + "Cookie: name=jlask; session=3f9a1c0d8e7b6a5f4e3d2c1b0a9f8e7d; theme=dark; _ga=GA1.1.1234567890.1660000000\r\n"
+            + "If-None-Match: \"6d77e5fe\"\r\n"
+            + "\r\n";
+
+    static final String JSON_BODY = "{\"id\":42,\"name\":\"jlask\",\"tags\":[\"http\",\"server\",\"java\"],"
+            + "\"owner\":{\"login\":\"gtio\",\"admin\":true},\"description\":\"A tiny Flask-like web framework for Java\"}";
+
+    static final String POST_JSON = "POST /api/items/42?trace=1&lang=zh-CN HTTP/1.1\r\n"
+            + "Host: 127.0.0.1:8080\r\n"
+            + "Connection: keep-alive\r\n"
+            + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/104.0.0.0 Safari/537.36\r\n"
+            + "Accept: application/json\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: " + JSON_BODY.length() + "\r\n"
+            + "\r\n"
+            + JSON_BODY;
+
+    // 代理和网关追加的大量请求头, 以及一个很长的 Cookie
+    static final String LARGE_HEADERS = "GET /showJson?name=jlask&id=42 HTTP/1.1\r\n"
+            + "Host: 127.0.0.1:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/104.0.0.0 Safari/537.36\r\n"
+            + "Accept: application/json\r\n"
+            + "X-Forwarded-For: 203.0.113.7, 198.51.100.23, 192.0.2.41\r\n"
+            + "X-Forwarded-Proto: https\r\n"
+            + "X-Request-Id: 5f0c6a1e-3b7d-4c2a-9e8f-1d2c3b4a5e6f\r\n"
+            + "Traceparent: 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01\r\n"
+            + "Authorization: Bearer " + "eyJhbGciOiJIUzI1NiJ9".repeat(16) + "\r\n"
+            + headers("X-Custom-Header-", 30)
+            + "Cookie: " + "session=3f9a1c0d8e7b6a5f4e3d2c1b0a9f8e7d; ".repeat(60) + "theme=dark\r\n"
+            + "\r\n";
+
+    static final String FORM_BODY = "name=jlask&id=42&tags=http%2Cserver%2Cjava&description=A+tiny+Flask-like+web+framework+for+Java&admin=true";
+
+    static final String POST_FORM = "POST /postFromExample HTTP/1.1\r\n"
+            + "Host: 127.0.0.1:8080\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Content-Type: application/x-www-form-urlencoded\r\n"
+            + "Content-Length: " + FORM_BODY.length() + "\r\n"
+            + "\r\n"
+            + FORM_BODY;
+
+    static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxkTrZu0gW";
+
+    // 两个文本字段和一个 4KB 的文件
+    static final String MULTIPART_BODY = "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"name\"\r\n"
+            + "\r\n"
+            + "jlask\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"id\"\r\n"
+            + "\r\n"
+            + "42\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"notes.txt\"\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "0123456789abcdef".repeat(256) + "\r\n"
+            + "--" + BOUNDARY + "--\r\n";
+
+    static final String MULTIPART = "POST /upload HTTP/1.1\r\n"
+            + "Host: 127.0.0.1:8080\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n"
+            + "Content-Length: " + MULTIPART_BODY.length() + "\r\n"
+            + "\r\n"
+            + MULTIPART_BODY;
+
+    private Requests() {
+    }
+
+    static String get(String kind) {
+        return switch (kind) {
+            case "simple" -> SIMPLE;
+            case "browser" -> BROWSER;
+            case "largeHeaders" -> LARGE_HEADERS;
+            case "postJson" -> POST_JSON;
+            case "postForm" -> POST_FORM;
+            case "multipart" -> MULTIPART;
+            default -> throw new IllegalArgumentException(kind);
+        };
+    }
+
+    private static String headers(String prefix, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(prefix).append(i).append(": value-").append(i).append("-").append("x".repeat(24)).append("\r\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package org.gtio.jlask;
+
+import org.gtio.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 响应序列化: 旧版 StringBuilder 拼接响应头再 getBytes, 响应体再编码一次 vs ResponseEncoder, 以及返回对象时的 JSON 序列化
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseEncodeBenchmark {
+
+    @Param({"32", "4096"})
+    public int bodySize;
+
+    private String body;
+    private Main.Item item;
+
+    @Setup
+    public void setup() {
+        body = "<p>" + "x".repeat(Math.max(0, bodySize - 7)) + "</p>";
+        // 标签数量随 bodySize 增长, 序列化结果和 body 大小相近
+        List<String> tags = new ArrayList<>();
+        for (int i = 0; tags.size() * 12 < bodySize; i++) {
+            tags.add("tag-" + i);
+        }
+        item = new Main.Item(42, "jlask", tags);
+    }
+
+    private Response response() {
+        Response res = new Response(body);
+        res.getHeaders().put("Connection", "keep-alive");
+        res.getHeaders().put("Keep-Alive", "timeout=5, max=99");
+        return res;
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        Response res = response();
+        StringBuilder head = new StringBuilder();
+        head.append(res.getVersion()).append(res.getStatus()).append("\r\n");
+        for (Map.Entry<String, String> entry : res.getHeaders().entrySet()) {
+            head.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        bh.consume(head.toString().getBytes(StandardCharsets.UTF_8));
+        bh.consume(res.getBody().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void encoder(Blackhole bh) {
+        encode(bh, response());
+    }
+
+    // 处理器返回对象时: 对象直接序列化为 JSON 字节再编码响应
+    @Benchmark
+    public void json(Blackhole bh) {
+        encode(bh, Response.Json(item));
+    }
+
+    private static void encode(Blackhole bh, Response res) {
+        ByteBuffer head = ResponseEncoder.encodeHead(res);
+        bh.consume(ResponseEncoder.encodeBody(res));
+        bh.consume(head);
+        ResponseEncoder.release(head);
+    }
+}
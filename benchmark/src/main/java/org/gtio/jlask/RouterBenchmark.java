@@ -0,0 +1,68 @@
+package org.gtio.jlask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 路由查找: 旧版 (url + method).hashCode() 的 HashMap vs Router
+// 每个资源注册 静态列表 / {id} 详情 / {id}/items 三条路由
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    @Param({"400", "1000"})
+    public int resources;
+
+    private final Map<Integer, Handler> legacy = new HashMap<>();
+    private final Router router = new Router();
+    private String staticPath;
+    private String paramPath;
+
+    @Setup
+    public void setup() {
+        Handler handler = req -> null;
+        for (int i = 0; i < resources; i++) {
+            String base = "/api/v1/resource" + i;
+            legacy.put((base + "GET").hashCode(), handler);
+            router.add(base, "GET", handler);
+            router.add(base + "/{id}", "GET", handler);
+            router.add(base + "/{id}/items", "GET", handler);
+        }
+        int last = resources - 1;
+        staticPath = "/api/v1/resource" + last;
+        paramPath = "/api/v1/resource" + last + "/42/items";
+    }
+
+    // 每次请求都要拼接字符串并计算 hashCode, 只能精确匹配
+    @Benchmark
+    public Handler legacyStatic() {
+        return legacy.get((staticPath + "GET").hashCode());
+    }
+
+    @Benchmark
+    public Handler routerStatic() {
+        return router.find(staticPath, null).handler("GET");
+    }
+
+    // 旧版无法表达, 只测 Router; 不写入 Request 时不产生参数字符串
+    @Benchmark
+    public Handler routerParam() {
+        return router.find(paramPath, null).handler("GET");
+    }
+}
@@ -0,0 +1,65 @@
+package org.gtio.jlask;
+
+import org.gtio.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// 不经过网络的完整请求处理: 解析请求头 -> 路由 -> Main 的示例处理器 -> 连接响应头 -> 序列化响应
+// 服务器只绑定一个随机端口, 不调用 start()
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+
+    @Param({"index", "showJson", "postItem", "notFound"})
+    public String route;
+
+    private Jlask jlask;
+    private byte[] raw;
+
+    @Setup
+    public void setup() throws IOException {
+        Config config = new Config();
+        config.consoleLog = false;
+        jlask = new Jlask("127.0.0.1", 0, config, new Main());
+        String body = "{\"name\":\"jlask\",\"tags\":[\"http\",\"server\"]}";
+        String request = switch (route) {
+            case "index" -> "GET / HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n";
+            case "showJson" -> Requests.SIMPLE;
+            case "postItem" -> "POST /items/42 HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+            case "notFound" -> "GET /no/such/page HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n";
+            default -> throw new IllegalArgumentException(route);
+        };
+        raw = request.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void service(Blackhole bh) throws IOException {
+        Request req = new Request(new ByteArrayInputStream(raw));
+        Response res = jlask.service(req, 1);
+        ByteBuffer head = ResponseEncoder.encodeHead(res);
+        bh.consume(ResponseEncoder.encodeBody(res));
+        bh.consume(head);
+        ResponseEncoder.release(head);
+    }
+}
@@ -0,0 +1,195 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+// WebSocket 压测: 单线程 Selector 打开大量连接, 每个连接向 echo 端点循环发送小消息, 统计每秒往返的消息数
+// java -cp benchmarks.jar org.gtio.jlask.WebSocketLoad [host] [port] [path] [connections] [seconds] [payloadBytes]
+public class WebSocketLoad {
+
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        ByteBuffer out;
+        boolean upgraded;
+        int outstanding;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        String path = args.length > 2 ? args[2] : "/ws/echo";
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        int payloadSize = args.length > 5 ? Integer.parseInt(args[5]) : 32;
+
+        byte[] payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+        for (int i = 0; i < payload.length; i++) {
+            // 保持为合法的 ASCII 文本
+            payload[i] = (byte) ('a' + (payload[i] & 0x0f));
+        }
+        byte[] frame = maskedText(payload);
+
+        Selector selector = Selector.open();
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            Client client = new Client(channel);
+            client.out = ByteBuffer.wrap(handshake(host, port, path));
+            channel.register(selector, SelectionKey.OP_WRITE, client);
+        }
+
+        long upgraded = 0;
+        long messages = 0;
+        long failed = 0;
+        long start = 0;
+        long deadline = Long.MAX_VALUE;
+        while (System.nanoTime() < deadline) {
+            selector.select(100);
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                Client client = (Client) key.attachment();
+                try {
+                    if (key.isWritable()) {
+                        client.channel.write(client.out);
+                        if (!client.out.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        if (client.channel.read(client.in) == -1) {
+                            throw new IOException("连接被关闭");
+                        }
+                        client.in.flip();
+                        if (!client.upgraded) {
+                            if (!readHandshake(client.in)) {
+                                client.in.compact();
+                                continue;
+                            }
+                            client.upgraded = true;
+                            if (++upgraded == connections) {
+                                // 所有连接握手完成后开始计时
+                                start = System.nanoTime();
+                                deadline = start + seconds * 1_000_000_000L;
+                                messages = 0;
+                            }
+                        } else {
+                            int frames = readFrames(client.in);
+                            messages += frames;
+                            client.outstanding -= frames;
+                        }
+                        client.in.compact();
+                        if (client.outstanding == 0) {
+                            client.outstanding = 1;
+                            client.out = ByteBuffer.wrap(frame);
+                            client.channel.write(client.out);
+                            if (client.out.hasRemaining()) {
+                                key.interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    failed++;
+                    key.cancel();
+                    client.channel.close();
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("connections: %d (failed %d)%n", upgraded, failed);
+        System.out.printf("messages: %d in %.1f s, %.0f msg/s%n", messages, elapsed, messages / elapsed);
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+    }
+
+    private static byte[] handshake(String host, int port, String path) {
+        byte[] nonce = new byte[16];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        return ("GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + ":" + port + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(nonce) + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // 跳过 101 响应头, 不完整时不移动 position
+    private static boolean readHandshake(ByteBuffer in) throws IOException {
+        for (int i = in.position(); i + 3 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                if (in.get(in.position() + 9) != '1' || in.get(in.position() + 10) != '0' || in.get(in.position() + 11) != '1') {
+                    throw new IOException("握手失败");
+                }
+                in.position(i + 4);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 服务端的帧不掩码, 统计完整的帧数
+    private static int readFrames(ByteBuffer in) {
+        int frames = 0;
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int length = in.get(start + 1) & 0x7f;
+            int header = 2;
+            if (length == 126) {
+                if (in.remaining() < 4) {
+                    break;
+                }
+                length = in.getShort(start + 2) & 0xffff;
+                header = 4;
+            } else if (length == 127) {
+                if (in.remaining() < 10) {
+                    break;
+                }
+                length = (int) in.getLong(start + 2);
+                header = 10;
+            }
+            if (in.remaining() < header + length) {
+                break;
+            }
+            in.position(start + header + length);
+            frames++;
+        }
+        return frames;
+    }
+
+    private static byte[] maskedText(byte[] payload) {
+        int header = payload.length < 126 ? 2 : 4;
+        byte[] frame = new byte[header + 4 + payload.length];
+        frame[0] = (byte) 0x81;
+        if (payload.length < 126) {
+            frame[1] = (byte) (0x80 | payload.length);
+        } else {
+            frame[1] = (byte) (0x80 | 126);
+            frame[2] = (byte) (payload.length >> 8);
+            frame[3] = (byte) payload.length;
+        }
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+        System.arraycopy(mask, 0, frame, header, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[header + 4 + i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+        return frame;
+    }
+}
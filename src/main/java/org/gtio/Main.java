@@ -8,8 +8,14 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 
@@ -21,6 +27,9 @@ public class Main {
     @AssetsPath
     public String assets = "/assets";
 
+    private final EventStream status = new EventStream();
+    private final Set<WebSocket> chatMembers = ConcurrentHashMap.newKeySet();
+
     @Route(url = "/web")
     public Response web(Request req) throws IOException {
         return Response.RenderTemplate("/index.html");
@@ -31,7 +40,8 @@ public class Main {
         return new Response("<h1>Welcome to Jlask Server</h1>");
     }
 
-    @Route(url = "/showJson")
+    // 同样的查询参数在 5 秒内直接返回缓存的响应
+    @Route(url = "/showJson", cacheTtl = 5000)
     public Response showJson(Request req) {
         JSONObject json = new JSONObject();
         json.putAll(req.getParams());
@@ -43,6 +53,15 @@ public class Main {
         return new Response(req.getJsonBody().toJSONString(), "application/json");
     }
 
+    public record Item(long id, String name, List<String> tags) {
+    }
+
+    // 请求体直接解析为 Item, 返回值直接序列化为 JSON
+    @Route(url = "/items/{id}", method = "POST")
+    public Item postItem(Request req, Item item) {
+        return new Item(Long.parseLong(req.getPathParam("id")), item.name(), item.tags());
+    }
+
     @Route(url = "/postFromExample", method = "POST")
     public Response postFromExample(Request req) {
         return new Response(req.getFromBody().toString(), "text/plain");
@@ -90,7 +109,81 @@ public class Main {
         return new Response("<h1>这是一个可GET可POST的请求</h1>");
     }
 
-    @Route(url = "/getVerification")
+    // {name} 匹配一段路径, 末尾的 * 或 {name*} 匹配剩余部分, 通过 getPathParam 取值
+    @Route(url = "/user/{id}")
+    public Response user(Request req) {
+        return new Response("<h1>user " + req.getPathParam("id") + "</h1>");
+    }
+
+    // SSE: 订阅后连接保持打开, /status/publish 发布的事件推送给所有订阅者
+    @Route(url = "/status")
+    public Response status(Request req) {
+        return status.subscribe(req);
+    }
+
+    @Route(url = "/status/publish")
+    public Response publishStatus(Request req) {
+        long id = status.publish("status", req.getParams().getOrDefault("msg", ""));
+        return new Response("{\"id\":" + id + "}", "application/json");
+    }
+
+    // WebSocket: 握手时返回监听器, 收到的消息原样发回
+    @WebSocketRoute(url = "/ws/echo")
+    public WebSocketListener echo(Request req) {
+        return new WebSocketListener() {
+            @Override
+            public void onText(WebSocket socket, String text) {
+                socket.send(text);
+            }
+
+            @Override
+            public void onBinary(WebSocket socket, byte[] data) {
+                socket.send(data);
+            }
+        };
+    }
+
+    // 聊天室: 每条消息广播给所有在线的连接
+    @WebSocketRoute(url = "/ws/chat")
+    public WebSocketListener chat(Request req) {
+        return new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket socket) {
+                chatMembers.add(socket);
+            }
+
+            @Override
+            public void onText(WebSocket socket, String text) {
+                WebSocket.broadcast(chatMembers, text);
+            }
+
+            @Override
+            public void onClose(WebSocket socket, int code, String reason) {
+                chatMembers.remove(socket);
+            }
+        };
+    }
+
+    // 流式响应: 边生成边发送, 不需要事先知道长度
+    @Route(url = "/export")
+    public Response export(Request req) {
+        int rows = Integer.parseInt(req.getParams().getOrDefault("rows", "100000"));
+        return Response.Stream(out -> {
+            for (int i = 0; i < rows; i++) {
+                out.write((i + ",row-" + i + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }, "text/csv; charset=UTF-8");
+    }
+
+    // 异步处理器: 等待下游时不占用工作线程, 超过 timeout 毫秒返回 504
+    @Route(url = "/slow", timeout = 2000)
+    public CompletableFuture<Response> slow(Request req) {
+        long ms = Long.parseLong(req.getParams().getOrDefault("ms", "100"));
+        return CompletableFuture.supplyAsync(() -> new Response("waited " + ms + " ms"),
+                CompletableFuture.delayedExecutor(ms, TimeUnit.MILLISECONDS));
+    }
+
+    @Route(url = "/getVerification", maxConcurrency = 4)
     public Response getVerification(Request req) throws IOException {
 
         BufferedImage img = new BufferedImage(75, 35, BufferedImage.TYPE_INT_RGB);
@@ -110,8 +203,13 @@ public class Main {
     public Response upload(Request req) {
         ArrayList<formData> formDatas = req.getFormDataBody();
         for (formData formData : formDatas) {
-            if (formData.binaryValue != null) {
-                return new Response(formData.binaryValue, formData.contentType);
+            if (formData.filename != null) {
+                // 大文件已经落盘, 通过 open() 统一读取
+                try (InputStream in = formData.open()) {
+                    return new Response(in.readAllBytes(), formData.contentType);
+                } catch (IOException e) {
+                    return Response.ErrorStatus(ErrorType.Err_500);
+                }
             }
         }
         return null;
@@ -0,0 +1,238 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// 访问日志: 工作线程把一行日志格式化成字节后放进无锁环形队列, 单个后台线程批量写入文件
+// 文件超过大小上限时轮转为 access.log.1, access.log.2 ...; 队列满时按配置丢弃或等待
+class AccessLog {
+    private static final DateTimeFormatter CLF_TIME = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+    private static final int BATCH_SIZE = 64 * 1024;
+    // 队列空时后台线程休眠的时间, 也是日志落盘的最大延迟
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private final Path path;
+    private final AccessLogFormat format;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final boolean blocking;
+    private final RingBuffer<byte[]> ring;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+    private FileChannel channel;
+    private long fileSize;
+    // 同一秒内的日志共用格式化好的时间
+    private volatile CachedTime cachedTime = new CachedTime(0, "");
+
+    private record CachedTime(long second, String text) {
+    }
+
+    AccessLog(Config config) throws IOException {
+        path = Paths.get(config.accessLog);
+        format = config.accessLogFormat;
+        maxFileSize = config.accessLogMaxFileSize;
+        maxFiles = config.accessLogMaxFiles;
+        blocking = config.accessLogBlocking;
+        ring = new RingBuffer<>(config.accessLogQueueSize);
+        open();
+        Thread writer = new Thread(this::drain, "jlask-access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void log(Request req, Response res, long nanos) {
+        byte[] line = format(req, res, nanos);
+        if (ring.offer(line)) {
+            return;
+        }
+        if (!blocking) {
+            dropped.increment();
+            return;
+        }
+        // 等后台线程腾出空间; 只在磁盘跟不上时发生
+        while (!ring.offer(line)) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    long written() {
+        return written.sum();
+    }
+
+    private byte[] format(Request req, Response res, long nanos) {
+        String remoteAddress = req.getRemoteAddress();
+        StringBuilder sb = new StringBuilder(256);
+        String length = res.getHeaders().get("Content-Length");
+        if (format == AccessLogFormat.JSON) {
+            sb.append("{\"time\":\"").append(ZonedDateTime.now().toOffsetDateTime()).append('"');
+            jsonField(sb, "remote", remoteAddress);
+            jsonField(sb, "method", req.getMethod());
+            jsonField(sb, "path", req.getUrlParams());
+            jsonField(sb, "protocol", req.getVersion());
+            sb.append(",\"status\":").append(res.getStatus());
+            sb.append(",\"bytes\":").append(length == null ? "null" : length);
+            sb.append(",\"duration_ms\":").append(nanos / 1000 / 1000.0);
+            jsonField(sb, "route", req.getRoute());
+            jsonField(sb, "referer", req.getHeader("Referer"));
+            jsonField(sb, "user_agent", req.getHeader("User-Agent"));
+            sb.append("}\n");
+        } else {
+            sb.append(remoteAddress == null ? "-" : remoteAddress).append(" - - [").append(now()).append("] \"");
+            quoted(sb, req.getMethod() + " " + req.getUrlParams() + " " + req.getVersion());
+            sb.append("\" ").append(res.getStatus()).append(' ').append(length == null ? "-" : length);
+            if (format == AccessLogFormat.COMBINED) {
+                sb.append(" \"");
+                String referer = req.getHeader("Referer");
+                String userAgent = req.getHeader("User-Agent");
+                quoted(sb, referer == null ? "-" : referer);
+                sb.append("\" \"");
+                quoted(sb, userAgent == null ? "-" : userAgent);
+                sb.append('"');
+            }
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String now() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedTime cached = cachedTime;
+        if (cached.second != second) {
+            cached = new CachedTime(second, CLF_TIME.format(ZonedDateTime.now()));
+            cachedTime = cached;
+        }
+        return cached.text;
+    }
+
+    private static void quoted(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c < 0x20 ? ' ' : c);
+        }
+    }
+
+    private static void jsonField(StringBuilder sb, String name, String value) {
+        sb.append(",\"").append(name).append("\":");
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    // 后台线程: 把队列中已有的日志攒进一块缓冲, 一次 write 写入文件
+    private void drain() {
+        while (true) {
+            byte[] line = ring.poll();
+            if (line == null) {
+                flush();
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            do {
+                if (batch.remaining() < line.length) {
+                    flush();
+                }
+                if (line.length > batch.capacity()) {
+                    write(ByteBuffer.wrap(line));
+                } else {
+                    batch.put(line);
+                }
+                written.increment();
+            } while ((line = ring.poll()) != null);
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        write(batch);
+        batch.clear();
+    }
+
+    private void write(ByteBuffer data) {
+        try {
+            if (maxFileSize > 0 && fileSize + data.remaining() > maxFileSize && fileSize > 0) {
+                rotate();
+            }
+            while (data.hasRemaining()) {
+                fileSize += channel.write(data);
+            }
+        } catch (IOException e) {
+            // 写日志失败不影响请求处理, 这一批丢弃
+            e.printStackTrace();
+            data.position(data.limit());
+        }
+    }
+
+    // access.log.N-1 -> access.log.N, ..., access.log -> access.log.1, 超出 maxFiles 的最旧文件被覆盖
+    private void rotate() throws IOException {
+        channel.close();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = sibling(i);
+            if (Files.exists(from)) {
+                Files.move(from, sibling(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(path, sibling(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+        open();
+    }
+
+    private Path sibling(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private void open() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+}
@@ -0,0 +1,10 @@
+package org.gtio.jlask;
+
+public enum AccessLogFormat {
+    // NCSA Common Log Format
+    COMMON,
+    // Common 加上 Referer 和 User-Agent
+    COMBINED,
+    // 每行一个 JSON 对象, 额外包含路由模板和耗时
+    JSON
+}
@@ -0,0 +1,152 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 准入控制: 排队的请求数有上限, 按路由限制并发, 并按处理耗时自适应调整全局并发上限
+// 超出时立即返回 503 和 Retry-After, 让过载时的延迟保持在可控范围内, 而不是让所有请求一起变慢
+class Admission {
+    // 自适应上限的平滑系数: 短期均值跟随当前负载, 长期均值作为空载时的基准
+    private static final double SHORT_ALPHA = 0.1;
+    private static final double LONG_ALPHA = 0.005;
+    private static final double SMOOTHING = 0.2;
+    private final ThreadPoolExecutor pool;
+    private final Semaphore limiter;
+    private final AtomicInteger inFlight;
+    private final int maxQueued;
+    private final int retryAfter;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongAdder shed = new LongAdder();
+    // 只有拿到锁的线程更新估计值, 拿不到的直接跳过这次采样, 记录路径上不等待
+    private final ReentrantLock sampleLock = new ReentrantLock();
+    private volatile int limit;
+    private double estimatedLimit;
+    private double shortNanos;
+    private double longNanos;
+
+    // pool 为固定线程池 (虚拟线程模式下为 null), limiter 为 maxConcurrency 的信号量 (未设置时为 null)
+    Admission(Config config, ThreadPoolExecutor pool, Semaphore limiter, AtomicInteger inFlight) {
+        this.pool = pool;
+        this.limiter = limiter;
+        this.inFlight = inFlight;
+        maxQueued = config.maxQueuedRequests;
+        retryAfter = config.retryAfter;
+        adaptive = config.adaptiveConcurrency;
+        minLimit = Math.max(1, config.adaptiveMinConcurrency);
+        maxLimit = Math.max(minLimit, config.adaptiveMaxConcurrency);
+        estimatedLimit = Math.min(maxLimit, Math.max(minLimit, config.poolSize));
+        limit = (int) estimatedLimit;
+    }
+
+    // 连接或请求排队等待线程的数量已达上限, 或正在处理的请求数已达自适应上限
+    boolean saturated() {
+        if (maxQueued > 0) {
+            if (pool != null && pool.getQueue().size() >= maxQueued) {
+                return true;
+            }
+            if (limiter != null && limiter.getQueueLength() >= maxQueued) {
+                return true;
+            }
+        }
+        return adaptive && inFlight.get() >= limit;
+    }
+
+    // 工作线程执行处理器之前调用; 这里只做检查不占用名额, 多个线程同时通过时可能略微超出上限
+    boolean admit() {
+        if (adaptive && inFlight.get() >= limit) {
+            return false;
+        }
+        return maxQueued <= 0 || limiter == null || limiter.getQueueLength() < maxQueued;
+    }
+
+    // 处理器执行耗时 (不含排队), 延迟相对基准升高时收缩上限, 持平时按 sqrt(limit) 的余量放大
+    void sample(long nanos) {
+        if (!adaptive || !sampleLock.tryLock()) {
+            return;
+        }
+        try {
+            if (longNanos == 0) {
+                shortNanos = nanos;
+                longNanos = nanos;
+                return;
+            }
+            shortNanos += (nanos - shortNanos) * SHORT_ALPHA;
+            longNanos += (shortNanos - longNanos) * LONG_ALPHA;
+            // 负载下降后延迟回落, 基准也要尽快跟着回落, 否则上限会长期偏低
+            if (longNanos > shortNanos * 2) {
+                longNanos = longNanos * 0.95 + shortNanos * 0.05;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, longNanos / shortNanos));
+            // 并发远没用满时延迟低不能说明还能承受更多, 不放大上限
+            if (gradient >= 1.0 && inFlight.get() * 2 < limit) {
+                return;
+            }
+            double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING));
+            limit = (int) estimatedLimit;
+        } finally {
+            sampleLock.unlock();
+        }
+    }
+
+    // 过载时返回的响应, 不关闭连接, 客户端可以在同一连接上稍后重试
+    Response overloaded() {
+        shed.increment();
+        Response res = Response.ErrorStatus(ErrorType.Err_503);
+        res.getHeaders().put("Retry-After", String.valueOf(retryAfter));
+        return res;
+    }
+
+    // 由 accept 线程直接写出 503 并关闭连接, 不占用工作线程; 响应很小, 一次写入 socket 发送缓冲区即可
+    void reject(SocketChannel channel) {
+        Response res = overloaded();
+        res.getHeaders().put("Connection", "close");
+        ByteBuffer head = ResponseEncoder.encodeHead(res);
+        try (channel) {
+            channel.write(new ByteBuffer[]{head, ResponseEncoder.encodeBody(res)});
+        } catch (IOException ignored) {
+            // 客户端已断开
+        } finally {
+            ResponseEncoder.release(head);
+        }
+    }
+
+    // 将请求交给线程池处理的路由, 超过 max 个同时执行时返回 503; 异步处理器的名额在结果完成时才归还
+    Handler limit(Handler handler, int max) {
+        Semaphore permits = new Semaphore(max);
+        return req -> {
+            if (!permits.tryAcquire()) {
+                return overloaded();
+            }
+            boolean deferred = false;
+            try {
+                Response res = handler.handle(req);
+                if (res.getPending() != null) {
+                    deferred = true;
+                    res.getPending().whenComplete((result, e) -> permits.release());
+                }
+                return res;
+            } finally {
+                if (!deferred) {
+                    permits.release();
+                }
+            }
+        };
+    }
+
+    int getLimit() {
+        return adaptive ? limit : 0;
+    }
+
+    long getShed() {
+        return shed.sum();
+    }
+}
@@ -0,0 +1,121 @@
+package org.gtio.jlask;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 静态资源缓存: 按路径保存内容、MIME、ETag 和修改时间, 总大小超过上限时淘汰最久未使用的资源
+public class AssetCache {
+    private final long capacity;
+    private final boolean offHeap;
+    // accessOrder = true, 迭代顺序即最久未使用在前
+    private final LinkedHashMap<String, Asset> assets = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    AssetCache(long capacity, boolean offHeap) {
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+    }
+
+    Asset get(String path) {
+        Asset asset;
+        synchronized (this) {
+            asset = assets.get(path);
+        }
+        (asset != null ? hits : misses).incrementAndGet();
+        return asset;
+    }
+
+    void put(String path, Asset asset) {
+        synchronized (this) {
+            Asset old = assets.put(path, asset);
+            if (old != null) {
+                size -= old.weight();
+            }
+            size += asset.weight();
+            Iterator<Map.Entry<String, Asset>> it = assets.entrySet().iterator();
+            while (size > capacity && it.hasNext()) {
+                Asset eldest = it.next().getValue();
+                it.remove();
+                size -= eldest.weight();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    synchronized void remove(String path) {
+        Asset old = assets.remove(path);
+        if (old != null) {
+            size -= old.weight();
+        }
+    }
+
+    // 读入的内容按配置放在堆内或堆外
+    ByteBuffer store(byte[] content) {
+        if (!offHeap) {
+            return ByteBuffer.wrap(content);
+        }
+        return ByteBuffer.allocateDirect(content.length).put(content).flip();
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    // 当前缓存的字节数 (包含预压缩版本)
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return assets.size();
+    }
+
+    static class Asset {
+        final ByteBuffer content;
+        final String contentType;
+        // 内容摘要生成的强 ETag
+        final String etag;
+        // 毫秒, 已截断到秒, 与 HTTP 日期的精度一致
+        final long lastModified;
+        final String lastModifiedHeader;
+        // 来自文件系统时用于检查文件是否被修改, 来自 jar 时为 null
+        final Path source;
+        // 同目录下的 .br / .gz 预压缩版本, 没有时为 null
+        Asset brotli;
+        Asset gzip;
+        volatile long checkedAt;
+
+        Asset(ByteBuffer content, String contentType, String etag, long lastModified, String lastModifiedHeader, Path source) {
+            this.content = content;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.lastModifiedHeader = lastModifiedHeader;
+            this.source = source;
+            this.checkedAt = System.currentTimeMillis();
+        }
+
+        long weight() {
+            return content.capacity() + (brotli == null ? 0 : brotli.weight()) + (gzip == null ? 0 : gzip.weight());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// NIO 模式下的大请求体: 事件循环边收边写入, 处理器线程边读, 队列满时事件循环暂停读取
+class BodyPipe extends BodyStream {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private final int limit;
+    // 队列降到上限以下时通知事件循环恢复读取
+    private final Runnable onDrain;
+    // 只由事件循环访问: 还没从网络收到的字节数
+    private long unreceived;
+    private long remaining;
+    private int queued;
+    private int chunkPos;
+    private boolean aborted;
+
+    BodyPipe(long contentLength, int limit, Runnable onDrain) {
+        this.unreceived = contentLength;
+        this.remaining = contentLength;
+        this.limit = limit;
+        this.onDrain = onDrain;
+    }
+
+    // 事件循环调用, 最多取走请求体剩余长度的字节
+    void offer(ByteBuffer data) {
+        int n = (int) Math.min(data.remaining(), unreceived);
+        if (n == 0) {
+            return;
+        }
+        byte[] chunk = new byte[n];
+        data.get(chunk);
+        unreceived -= n;
+        lock.lock();
+        try {
+            chunks.add(chunk);
+            queued += n;
+            readable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 请求体是否已经全部收到
+    boolean received() {
+        return unreceived == 0;
+    }
+
+    boolean full() {
+        lock.lock();
+        try {
+            return queued >= limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 连接关闭, 唤醒还在等待数据的处理器线程
+    void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    long remaining() {
+        lock.lock();
+        try {
+            return remaining;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        boolean drained;
+        int n;
+        lock.lock();
+        try {
+            if (remaining == 0) {
+                return -1;
+            }
+            while (queued == 0) {
+                if (aborted) {
+                    throw new IOException("连接已关闭, 请求体不完整");
+                }
+                readable.awaitUninterruptibly();
+            }
+            byte[] chunk = chunks.peek();
+            n = Math.min(len, chunk.length - chunkPos);
+            System.arraycopy(chunk, chunkPos, b, off, n);
+            chunkPos += n;
+            if (chunkPos == chunk.length) {
+                chunks.poll();
+                chunkPos = 0;
+            }
+            drained = queued >= limit && queued - n < limit;
+            queued -= n;
+            remaining -= n;
+        } finally {
+            lock.unlock();
+        }
+        if (drained) {
+            onDrain.run();
+        }
+        return n;
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// 直接从连接上读取的请求体, 最多读出 Content-Length 个字节
+abstract class BodyStream extends InputStream {
+
+    // 还没有被处理器读走的字节数, 不为 0 时连接上的后续数据已经无法对齐, 响应后只能关闭连接
+    abstract long remaining();
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+}
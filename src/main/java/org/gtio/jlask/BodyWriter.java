@@ -0,0 +1,10 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// 边生成边发送的响应体, 写入的数据按块发送, 客户端读得慢时 write 会阻塞
+@FunctionalInterface
+public interface BodyWriter {
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,96 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// 流式响应体的输出: 攒满一块后按 chunked 编码交给 emit, HTTP/1.0 客户端不分块, 直接发送原始字节
+abstract class ChunkedOutputStream extends OutputStream {
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private final boolean chunked;
+    private final byte[] buf = new byte[CHUNK_SIZE];
+    private int count;
+    private boolean closed;
+
+    ChunkedOutputStream(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    // 交出的 buffer 不再被复用, 写出方可以在之后的任意时刻发送
+    abstract void emit(ByteBuffer data) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("响应已结束");
+        }
+        if (count == buf.length) {
+            flushChunk();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("响应已结束");
+        }
+        while (len > 0) {
+            if (count == 0 && len >= buf.length) {
+                // 大块数据不经过缓冲, 直接成为一个 chunk
+                emitChunk(b, off, len);
+                return;
+            }
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buf.length) {
+                flushChunk();
+            }
+        }
+    }
+
+    // 处理器主动 flush 时立即发送已写入的数据, 例如逐条推送的进度
+    @Override
+    public void flush() throws IOException {
+        if (!closed) {
+            flushChunk();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flushChunk();
+        closed = true;
+        if (chunked) {
+            emit(ByteBuffer.wrap(LAST_CHUNK));
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        if (count > 0) {
+            emitChunk(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    private void emitChunk(byte[] b, int off, int len) throws IOException {
+        if (!chunked) {
+            emit(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+            return;
+        }
+        byte[] size = Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer data = ByteBuffer.allocate(size.length + len + 4);
+        data.put(size).put(CRLF).put(b, off, len).put(CRLF);
+        emit(data.flip());
+    }
+}
@@ -0,0 +1,298 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// 响应压缩: 按 Accept-Encoding 选择 gzip 或 deflate, 只压缩超过阈值的文本类响应
+// Deflater 放在池里复用, 平台线程和虚拟线程模式下都不会为每个线程各建一个
+class Compression {
+    // 每个 Deflater 都持有几百 KB 的本地内存, 池满时多出来的直接释放
+    private static final int MAX_POOLED = 64;
+    // 文件和流形式的响应体超过该大小时不压缩, 仍然零拷贝发送
+    private static final long MAX_STREAM_SIZE = 8 * 1024 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private final int level;
+    private final int minSize;
+    private final String[] types;
+    // gzip 使用不带 zlib 头的原始 deflate 流, 两种 Deflater 分开复用
+    private final BlockingQueue<Deflater> rawPool = new ArrayBlockingQueue<>(MAX_POOLED);
+    private final BlockingQueue<Deflater> zlibPool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    Compression(Config config) {
+        level = config.compressionLevel;
+        minSize = config.compressionMinSize;
+        types = config.compressibleTypes;
+    }
+
+    // 在处理器返回之后、补连接相关的响应头之前调用; 缓存的静态资源由 StaticFiles 预先压缩, 这里跳过
+    Response apply(Request req, Response res) throws IOException {
+        if (res.getBuffer() != null || res.getEvents() != null) {
+            return res;
+        }
+        if (res.getWriter() != null) {
+            return applyStream(req, res);
+        }
+        boolean streaming = res.getFile() != null || res.getStream() != null;
+        byte[] body = streaming ? null : res.encodedBody();
+        if (!streaming && body == null) {
+            return res;
+        }
+        long length = streaming ? res.getBodyLength() : body.length;
+        if (!isCompressible(res, length) || length > MAX_STREAM_SIZE) {
+            return res;
+        }
+        addVary(res);
+        String coding = negotiate(req);
+        if (coding == null) {
+            return res;
+        }
+        boolean gzip = coding.equals("gzip");
+        byte[] compressed;
+        if (res.getFile() != null) {
+            try (InputStream in = Files.newInputStream(res.getFile())) {
+                compressed = compress(in, length, gzip);
+            }
+        } else if (res.getStream() != null) {
+            try (InputStream in = res.getStream()) {
+                compressed = compress(in, length, gzip);
+            }
+        } else {
+            compressed = compress(body, gzip);
+            if (compressed.length >= body.length) {
+                return res;
+            }
+        }
+        res.setEncodedBody(compressed);
+        markEncoded(res, coding);
+        return res;
+    }
+
+    // 流式响应体长度未知, 只看类型; 压缩流开启 syncFlush, 处理器 flush 时已写的数据能立即发出
+    private Response applyStream(Request req, Response res) {
+        if (!isCompressible(res, minSize)) {
+            return res;
+        }
+        addVary(res);
+        String coding = negotiate(req);
+        if (coding == null) {
+            return res;
+        }
+        BodyWriter writer = res.getWriter();
+        boolean gzip = coding.equals("gzip");
+        res.setWriter(out -> {
+            // 默认 Deflater 在 close 时释放, 生成失败时交给 Cleaner 回收
+            DeflaterOutputStream z = gzip
+                    ? new GZIPOutputStream(out, 8192, true) {{ def.setLevel(level); }}
+                    : new DeflaterOutputStream(out, true) {{ def.setLevel(level); }};
+            writer.writeTo(z);
+            z.close();
+        });
+        markEncoded(res, coding);
+        return res;
+    }
+
+    private String negotiate(Request req) {
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return null;
+        }
+        if (accepts(acceptEncoding, "gzip")) {
+            return "gzip";
+        }
+        return accepts(acceptEncoding, "deflate") ? "deflate" : null;
+    }
+
+    static void markEncoded(Response res, String coding) {
+        res.getHeaders().put("Content-Encoding", coding);
+        String etag = res.getHeaders().get("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            // 压缩后的字节和原始内容不同, 强 ETag 降为弱 ETag
+            res.getHeaders().put("ETag", "W/" + etag);
+        }
+    }
+
+    int minSize() {
+        return minSize;
+    }
+
+    boolean isCompressible(Response res, long length) {
+        int status = res.getStatus();
+        if (length < minSize || status < 200 || status == 204 || status == 206 || status == 304) {
+            return false;
+        }
+        if (res.getHeaders().containsKey("Content-Encoding")) {
+            return false;
+        }
+        return isCompressibleType(res.getHeaders().get("Content-Type"));
+    }
+
+    boolean isCompressibleType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        for (String type : types) {
+            if (contentType.startsWith(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void addVary(Response res) {
+        String vary = res.getHeaders().get("Vary");
+        if (vary == null) {
+            res.getHeaders().put("Vary", "Accept-Encoding");
+        } else if (!vary.contains("Accept-Encoding")) {
+            res.getHeaders().put("Vary", vary + ", Accept-Encoding");
+        }
+    }
+
+    byte[] compress(byte[] input, boolean gzip) {
+        try {
+            return deflate(null, input, input.length, gzip);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 边读边压缩, 只在内存中保留压缩后的结果
+    byte[] compress(InputStream in, long length, boolean gzip) throws IOException {
+        return deflate(in, null, (int) length, gzip);
+    }
+
+    // input 和 in 二选一, 输出直接写进结果数组, 不经过中间流
+    private byte[] deflate(InputStream in, byte[] input, int sizeHint, boolean gzip) throws IOException {
+        BlockingQueue<Deflater> pool = gzip ? rawPool : zlibPool;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, gzip);
+        }
+        try {
+            CRC32 crc = new CRC32();
+            long total = 0;
+            byte[] chunk = null;
+            boolean eof = false;
+            if (input != null) {
+                deflater.setInput(input);
+                deflater.finish();
+                crc.update(input);
+                total = input.length;
+                eof = true;
+            } else {
+                chunk = new byte[16 * 1024];
+            }
+
+            byte[] out = new byte[Math.max(64, sizeHint / 2)];
+            int pos = 0;
+            if (gzip) {
+                System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+                pos = GZIP_HEADER.length;
+            }
+            while (!deflater.finished()) {
+                if (!eof && deflater.needsInput()) {
+                    int n = in.read(chunk);
+                    if (n == -1) {
+                        eof = true;
+                        deflater.finish();
+                    } else {
+                        deflater.setInput(chunk, 0, n);
+                        crc.update(chunk, 0, n);
+                        total += n;
+                    }
+                    continue;
+                }
+                if (pos == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                pos += deflater.deflate(out, pos, out.length - pos);
+            }
+            if (gzip) {
+                out = Arrays.copyOf(out, pos + 8);
+                writeIntLE(out, pos, (int) crc.getValue());
+                writeIntLE(out, pos + 4, (int) total);
+                return out;
+            }
+            return Arrays.copyOf(out, pos);
+        } finally {
+            deflater.reset();
+            if (!pool.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    private static void writeIntLE(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) value;
+        buf[pos + 1] = (byte) (value >> 8);
+        buf[pos + 2] = (byte) (value >> 16);
+        buf[pos + 3] = (byte) (value >> 24);
+    }
+
+    // Accept-Encoding 中包含该编码且 q 不为 0; 每个请求都会调用, 直接在原字符串上按下标切分, 不生成子串
+    static boolean accepts(String acceptEncoding, String coding) {
+        int length = acceptEncoding.length();
+        int pos = 0;
+        while (pos < length) {
+            int end = acceptEncoding.indexOf(',', pos);
+            if (end == -1) {
+                end = length;
+            }
+            int semicolon = acceptEncoding.indexOf(';', pos);
+            int nameEnd = semicolon != -1 && semicolon < end ? semicolon : end;
+            int from = skipSpaces(acceptEncoding, pos, nameEnd);
+            int to = nameEnd;
+            while (to > from && isSpace(acceptEncoding.charAt(to - 1))) {
+                to--;
+            }
+            if (to - from == coding.length() && acceptEncoding.regionMatches(true, from, coding, 0, to - from)) {
+                return nameEnd == end || !isZeroQuality(acceptEncoding, nameEnd + 1, end);
+            }
+            pos = end + 1;
+        }
+        return false;
+    }
+
+    // 参数为 q=0 或 q=0.000 (允许空格)
+    private static boolean isZeroQuality(String value, int from, int to) {
+        from = skipSpaces(value, from, to);
+        if (from == to || value.charAt(from) != 'q') {
+            return false;
+        }
+        from = skipSpaces(value, from + 1, to);
+        if (from == to || value.charAt(from) != '=') {
+            return false;
+        }
+        from = skipSpaces(value, from + 1, to);
+        if (from == to || value.charAt(from) != '0') {
+            return false;
+        }
+        from++;
+        if (from < to && value.charAt(from) == '.') {
+            from++;
+            while (from < to && value.charAt(from) == '0') {
+                from++;
+            }
+        }
+        return skipSpaces(value, from, to) == to;
+    }
+
+    private static int skipSpaces(String value, int from, int to) {
+        while (from < to && isSpace(value.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t';
+    }
+}
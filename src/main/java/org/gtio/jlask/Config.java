@@ -0,0 +1,104 @@
+package org.gtio.jlask;
+
+public class Config {
+
+    public int poolSize = Runtime.getRuntime().availableProcessors() * 2 + 1;
+
+    public ExecutorMode executor = ExecutorMode.PLATFORM;
+    // 同时执行的处理器上限, 超出的请求排队等待, 0 为不限制 (虚拟线程模式下用来保护下游)
+    public int maxConcurrency = 0;
+    // 等待工作线程 (或 maxConcurrency 名额) 的请求数上限, 超出时直接返回 503, 0 为不限制
+    public int maxQueuedRequests = 1024;
+    // 过载时 503 响应中 Retry-After 的秒数
+    public int retryAfter = 1;
+    // 按处理耗时自适应调整同时执行的请求数上限: 延迟相对空载时升高就收缩, 超出上限的请求返回 503
+    public boolean adaptiveConcurrency = false;
+    public int adaptiveMinConcurrency = 4;
+    public int adaptiveMaxConcurrency = 1000;
+    // 异步处理器 (返回 CompletableFuture) 的默认超时 (毫秒), 超时返回 504, 0 为不限制; 可以用 @Route(timeout) 单独设置
+    public long asyncTimeout = 30000;
+
+    public Engine engine = Engine.BIO;
+    // NIO 模式下事件循环线程数
+    public int ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    // accept 线程数; NIO 模式下为负责 accept 的事件循环数, 每个只把连接分给自己那一组事件循环
+    public int acceptors = 1;
+    // acceptors > 1 时每个 accept 线程用 SO_REUSEPORT 绑定自己的监听 socket, 系统不支持或关闭时共用一个
+    public boolean reusePort = true;
+    // 监听 socket 的积压队列长度 (受系统 somaxconn 限制)
+    public int backlog = 1024;
+    public boolean tcpNoDelay = true;
+    // 连接的 SO_RCVBUF / SO_SNDBUF 字节数, 0 为系统默认
+    public int receiveBufferSize = 0;
+    public int sendBufferSize = 0;
+    // 请求头最大字节数, 超出直接返回 400
+    public int maxHeaderSize = 64 * 1024;
+    // 请求体最大字节数, Content-Length 超出时不读取请求体, 直接返回 413
+    public long maxBodySize = 64L * 1024 * 1024;
+    // NIO 模式下不超过该大小的请求体先收齐再交给处理器, 更大的边收边读, 同时也是接收队列的上限
+    public int bodyBufferSize = 64 * 1024;
+    // multipart 中超过该大小的部分写入临时文件
+    public int fileSizeThreshold = 1024 * 1024;
+
+    // 静态资源所在目录, 设置后 @AssetsPath 下的请求直接发送该目录中的文件 (sendfile), 为 null 时从 classpath 读取
+    public String staticDir = null;
+    // 静态资源缓存的总字节数上限, 超出时淘汰最久未使用的资源, 0 为不缓存
+    public long assetCacheSize = 32L * 1024 * 1024;
+    // 超过该大小的资源不进缓存, 仍按文件或流发送
+    public int assetCacheMaxFileSize = 1024 * 1024;
+    // 缓存内容放在堆外, 减少大缓存对 GC 的压力
+    public boolean assetCacheOffHeap = false;
+
+    // 按 Accept-Encoding 对响应做 gzip / deflate 压缩
+    public boolean compression = true;
+    // 小于该字节数的响应不压缩
+    public int compressionMinSize = 1024;
+    // 压缩级别 1-9, -1 为 Deflater 默认级别
+    public int compressionLevel = -1;
+    // Content-Type 以这些前缀开头的响应才压缩
+    public String[] compressibleTypes = {"text/", "application/json", "application/javascript", "application/xml", "image/svg+xml"};
+
+    // 接受 HTTP/2 明文连接 (prior knowledge 和 Upgrade: h2c), 同一连接上的请求并发处理
+    public boolean http2 = true;
+    // 单个 HTTP/2 连接上同时处理的流数上限, 超出的流被拒绝 (REFUSED_STREAM)
+    public int http2MaxConcurrentStreams = 256;
+    // HTTP/2 每个流 (以及整个连接) 的接收窗口字节数, 决定客户端不等确认能发多少请求体
+    public int http2InitialWindowSize = 1024 * 1024;
+    // HTTP/2 请求体收齐后才交给处理器, 一个连接上所有流缓存的请求体合计不超过该字节数,
+    // 超出时新数据所在的流返回 503 (单个请求体超出时返回 413)
+    public long http2MaxBufferedBodySize = 16L * 1024 * 1024;
+
+    // WebSocket 单条消息 (含所有分片) 的最大字节数, 超出时以 1009 关闭连接
+    public int maxWebSocketMessageSize = 1024 * 1024;
+
+    // 内置指标的 Prometheus 抓取路径, 为 null 时不注册
+    public String metricsPath = "/metrics";
+    // 在控制台输出每个请求的日志 (后台线程批量输出, 不阻塞工作线程)
+    public boolean consoleLog = true;
+    // 访问日志文件路径, 为 null 时不写; 由后台线程批量写入
+    public String accessLog = null;
+    public AccessLogFormat accessLogFormat = AccessLogFormat.COMBINED;
+    // 文件超过该字节数时轮转为 .1, .2 ..., 0 为不轮转
+    public long accessLogMaxFileSize = 100L * 1024 * 1024;
+    // 保留的轮转文件个数
+    public int accessLogMaxFiles = 5;
+    // 待写入日志的队列容量 (向上取 2 的幂)
+    public int accessLogQueueSize = 16 * 1024;
+    // 队列满时等待写入而不是丢弃该条日志
+    public boolean accessLogBlocking = false;
+
+    // 是否开启 HTTP/1.1 长连接, 关闭后每个连接只处理一个请求
+    public boolean keepAlive = true;
+    // 连接空闲多久 (毫秒) 没有新请求就关闭, 也适用于建立后迟迟不发数据的连接 (浏览器预连接)
+    public int keepAliveTimeout = 5000;
+    // 收到请求的第一个字节后, 请求头 (以及不大的请求体) 必须在该时间 (毫秒) 内收完, 按 minDataRate 收到的数据可以延长
+    public int headerTimeout = 10000;
+    // 等待请求体数据的时间额度 (毫秒), 处理器执行的时间不计入
+    public int bodyTimeout = 30000;
+    // 写响应时等待客户端接收的时间额度 (毫秒)
+    public int writeTimeout = 30000;
+    // 读请求和写响应的最低速率 (字节/秒), 每传输一个字节补充 1/minDataRate 秒额度, 额度用完即断开; 0 为不检查速率
+    public int minDataRate = 240;
+    // 单个连接最多处理的请求数, 达到后返回 Connection: close
+    public int maxKeepAliveRequests = 100;
+}
@@ -0,0 +1,47 @@
+package org.gtio.jlask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// 控制台请求日志: 工作线程只把记录放进有界队列, 格式化和输出由后台线程批量完成, 队列满时丢弃
+class ConsoleLog {
+    private static final int CAPACITY = 8192;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+    private record Entry(String method, String url, String version, int status, long nanos) {
+    }
+
+    ConsoleLog() {
+        Thread writer = new Thread(this::drain, "jlask-console-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void log(Request req, Response res, long nanos) {
+        queue.offer(new Entry(req.getMethod(), req.getUrlParams(), res.getVersion(), res.getStatus(), nanos));
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(CAPACITY);
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            for (Entry entry : batch) {
+                sb.append(' ').append(entry.method).append(' ').append(entry.url).append(' ').append(entry.version)
+                        .append(entry.status).append(' ').append(String.format("%.2f", entry.nanos / 1000000f)).append(" ms\n");
+            }
+            // 一批只调用一次 System.out, 不和工作线程争抢 stdout 的锁
+            System.out.print(sb);
+            System.out.flush();
+            sb.setLength(0);
+            batch.clear();
+        }
+    }
+}
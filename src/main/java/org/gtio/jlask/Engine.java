@@ -0,0 +1,8 @@
+package org.gtio.jlask;
+
+public enum Engine {
+    // 阻塞 ServerSocket, 每个连接占用一个线程池线程
+    BIO,
+    // Selector 事件循环负责收发, 只有解析完整的请求才交给线程池
+    NIO
+}
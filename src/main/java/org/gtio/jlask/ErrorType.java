@@ -1,5 +1,5 @@
 package org.gtio.jlask;
 
 public enum ErrorType {
-    Err_400, Err_403, Err_404, Err_501, Err_500
+    Err_400, Err_403, Err_404, Err_405, Err_413, Err_501, Err_500, Err_503, Err_504
 }
@@ -0,0 +1,177 @@
+package org.gtio.jlask;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Server-Sent Events 频道: 处理器返回 subscribe(req) 订阅, 应用调用 publish 广播给所有订阅者
+// 每条事件只编码一次, 所有连接共享同一份字节; 发送不阻塞发布方, 积压过多的慢连接直接断开
+// 最近的事件保存在历史中, 客户端带 Last-Event-ID 重连时补发错过的事件
+public class EventStream {
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    // 所有频道共用一个心跳线程
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "jlask-sse-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int historySize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<Sink> sinks = new LinkedHashSet<>();
+    private final ArrayDeque<Event> history = new ArrayDeque<>();
+    private final ScheduledFuture<?> heartbeat;
+    private long lastId;
+    private boolean closed;
+
+    private record Event(long id, byte[] bytes) {
+    }
+
+    public EventStream() {
+        this(100, 15000);
+    }
+
+    // historySize 条历史事件用于断线补发, 每 heartbeatMillis 毫秒发一次注释行保持连接并清理断开的订阅者
+    public EventStream(int historySize, long heartbeatMillis) {
+        this.historySize = historySize;
+        heartbeat = timer.scheduleAtFixedRate(() -> broadcast(HEARTBEAT), heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // 处理器直接返回该响应, 连接保持打开直到客户端断开或频道关闭
+    public Response subscribe(Request req) {
+        long lastEventId = -1;
+        String header = req.getHeader("Last-Event-ID");
+        if (header != null) {
+            try {
+                lastEventId = Long.parseLong(header.trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return Response.Events(this, lastEventId);
+    }
+
+    public long publish(String data) {
+        return publish(null, data);
+    }
+
+    // 返回事件 id, 多行 data 按 SSE 格式拆成多个 data 字段
+    public long publish(String event, String data) {
+        StringBuilder sb = new StringBuilder();
+        lock.lock();
+        try {
+            if (closed) {
+                return -1;
+            }
+            long id = ++lastId;
+            sb.append("id: ").append(id).append('\n');
+            if (event != null) {
+                sb.append("event: ").append(event).append('\n');
+            }
+            for (String line : data.split("\r\n|\r|\n", -1)) {
+                sb.append("data: ").append(line).append('\n');
+            }
+            byte[] bytes = sb.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+            history.addLast(new Event(id, bytes));
+            if (history.size() > historySize) {
+                history.removeFirst();
+            }
+            deliver(bytes);
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getSubscriberCount() {
+        lock.lock();
+        try {
+            return sinks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 断开所有订阅者, 之后的 publish 不再生效
+    public void close() {
+        heartbeat.cancel(false);
+        List<Sink> all;
+        lock.lock();
+        try {
+            closed = true;
+            all = new ArrayList<>(sinks);
+            sinks.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Sink sink : all) {
+            sink.close();
+        }
+    }
+
+    // 响应头发出后由引擎调用, 先补发 lastEventId 之后的历史事件再开始接收新事件, 两者之间不会漏掉或重复
+    void attach(Sink sink, long lastEventId) {
+        lock.lock();
+        try {
+            if (closed) {
+                sink.close();
+                return;
+            }
+            if (lastEventId >= 0) {
+                for (Event event : history) {
+                    if (event.id > lastEventId && !sink.offer(ByteBuffer.wrap(event.bytes))) {
+                        sink.close();
+                        return;
+                    }
+                }
+            }
+            sinks.add(sink);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void detach(Sink sink) {
+        lock.lock();
+        try {
+            sinks.remove(sink);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void broadcast(byte[] bytes) {
+        lock.lock();
+        try {
+            deliver(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliver(byte[] bytes) {
+        List<Sink> dropped = null;
+        for (Sink sink : sinks) {
+            if (!sink.offer(ByteBuffer.wrap(bytes))) {
+                if (dropped == null) {
+                    dropped = new ArrayList<>();
+                }
+                dropped.add(sink);
+            }
+        }
+        if (dropped != null) {
+            for (Sink sink : dropped) {
+                sinks.remove(sink);
+                sink.close();
+            }
+        }
+    }
+}
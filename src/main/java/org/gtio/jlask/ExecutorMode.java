@@ -0,0 +1,8 @@
+package org.gtio.jlask;
+
+public enum ExecutorMode {
+    // 固定大小的平台线程池, 并发上限为 poolSize
+    PLATFORM,
+    // 每个任务一个虚拟线程, 阻塞 IO 不再占住平台线程
+    VIRTUAL
+}
@@ -0,0 +1,150 @@
+package org.gtio.jlask;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+// 启动时把 @Route / @ErrorHandler / @WebSocketRoute 方法绑定成直接调用的接口实现, 请求时不再走反射
+class Handlers {
+    private static final MethodType HANDLE = MethodType.methodType(Response.class, Request.class);
+    private static final MethodType OPEN = MethodType.methodType(WebSocketListener.class, Request.class);
+
+    private Handlers() {
+    }
+
+    static Handler bind(Method method, Object instance) {
+        if (method.getReturnType() != Response.class || method.getParameterCount() != 1 || method.getParameterTypes()[0] != Request.class) {
+            return bindTyped(method, instance);
+        }
+        Handler handler = metafactory(Handler.class, "handle", HANDLE, method, instance);
+        if (handler != null) {
+            return handler;
+        }
+        // 类不是 public 等情况, 从声明类的角度取 MethodHandle, 仍然比反射调用快
+        MethodHandle bound = bindHandle(method, instance, HANDLE);
+        return req -> {
+            try {
+                return (Response) bound.invokeExact(req);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    // 参数可以是 Request 和至多一个其他类型, 后者由 JSON 请求体直接解析; 返回值不是 Response 时序列化为 JSON 响应
+    // 返回 CompletionStage 的处理器是异步的, 完成值同样按 Response 或 JSON 处理
+    private static Handler bindTyped(Method method, Object instance) {
+        Class<?>[] types = method.getParameterTypes();
+        int bodyIndex = -1;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Request.class) {
+                continue;
+            }
+            if (bodyIndex != -1) {
+                throw new IllegalArgumentException("处理器最多只能有一个请求体参数: " + method);
+            }
+            bodyIndex = i;
+        }
+        if (method.getReturnType() == void.class) {
+            throw new IllegalArgumentException("处理器必须有返回值: " + method);
+        }
+        boolean async = CompletionStage.class.isAssignableFrom(method.getReturnType());
+        int count = types.length;
+        int body = bodyIndex;
+        Type bodyType = body == -1 ? null : method.getGenericParameterTypes()[body];
+        MethodHandle spread = bindHandle(method, instance, MethodType.genericMethodType(count)).asSpreader(Object[].class, count);
+        return req -> {
+            Object[] args = new Object[count];
+            for (int i = 0; i < count; i++) {
+                args[i] = i == body ? req.getJsonBody(bodyType) : req;
+            }
+            Object result;
+            try {
+                result = (Object) spread.invokeExact(args);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            if (async) {
+                if (result == null) {
+                    throw new IllegalStateException("异步处理器返回了 null: " + method);
+                }
+                return Response.Deferred(deferred((CompletionStage<?>) result));
+            }
+            return result instanceof Response response ? response : Response.Json(result);
+        };
+    }
+
+    // 转换到新的 future 上, 超时只结束这一个, 不影响处理器返回的 (可能被多个请求共享的) future
+    private static CompletableFuture<Response> deferred(CompletionStage<?> stage) {
+        CompletableFuture<Response> pending = new CompletableFuture<>();
+        stage.whenComplete((value, e) -> {
+            if (e != null) {
+                pending.completeExceptionally(e);
+                return;
+            }
+            try {
+                pending.complete(value instanceof Response response ? response : Response.Json(value));
+            } catch (RuntimeException ex) {
+                pending.completeExceptionally(ex);
+            }
+        });
+        return pending;
+    }
+
+    static WebSocket.Endpoint bindEndpoint(Method method, Object instance) {
+        if (method.getReturnType() != WebSocketListener.class || method.getParameterCount() != 1 || method.getParameterTypes()[0] != Request.class) {
+            throw new IllegalArgumentException("WebSocket 端点签名必须是 WebSocketListener " + method.getName() + "(Request): " + method);
+        }
+        WebSocket.Endpoint endpoint = metafactory(WebSocket.Endpoint.class, "open", OPEN, method, instance);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        MethodHandle bound = bindHandle(method, instance, OPEN);
+        return req -> {
+            try {
+                return (WebSocketListener) bound.invokeExact(req);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    // 用 LambdaMetafactory 生成实现接口的类, 和手写 lambda 一样可以被 JIT 内联; 无法访问时返回 null
+    private static <T> T metafactory(Class<T> type, String name, MethodType signature, Method method, Object instance) {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle target = lookup.unreflect(method);
+            MethodType factoryType = isStatic
+                    ? MethodType.methodType(type)
+                    : MethodType.methodType(type, method.getDeclaringClass());
+            CallSite site = LambdaMetafactory.metafactory(lookup, name, factoryType, signature, target, signature);
+            return type.cast(isStatic ? site.getTarget().invoke() : site.getTarget().invoke(instance));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle bindHandle(Method method, Object instance, MethodType signature) {
+        MethodHandle target;
+        try {
+            target = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup()).unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("无法访问处理器 " + method, e);
+        }
+        return (Modifier.isStatic(method.getModifiers()) ? target : target.bindTo(instance)).asType(signature);
+    }
+}
@@ -0,0 +1,513 @@
+package org.gtio.jlask;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// HPACK (RFC 7541) 头部压缩: 静态表、动态表和 Huffman 编码
+// 每个连接的每个方向各有一个动态表, Decoder 只在读数据的线程中使用, Encoder 由 Http2Connection 加锁后使用
+// 格式错误时抛出 IllegalArgumentException, 由连接以 COMPRESSION_ERROR 关闭
+class Hpack {
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""},
+    };
+
+    // RFC 7541 附录 B, 下标为字节值
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+    };
+
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+    };
+
+    // Huffman 解码树: 每个节点占两个位置 (0 / 1 分支), 正数为子节点下标, 负数为 -(字节值 + 1), 0 为无效编码
+    private static final int[] HUFFMAN_TREE = buildTree();
+    // 完整匹配和只匹配名称时在静态表中的下标
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    private static int[] buildTree() {
+        int[] tree = new int[2 * 512];
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int slot = node * 2 + (code >>> bit & 1);
+                if (bit == 0) {
+                    tree[slot] = -(symbol + 1);
+                } else {
+                    if (tree[slot] == 0) {
+                        tree[slot] = nodes++;
+                    }
+                    node = tree[slot];
+                }
+            }
+        }
+        return tree;
+    }
+
+    // 动态表: 环形数组, 下标 0 为最新加入的条目; 每个条目按名称和值的长度加 32 计算大小
+    private static class Table {
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int head;
+        private int count;
+        private int size;
+        private int maxSize;
+
+        Table(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        int count() {
+            return count;
+        }
+
+        String name(int index) {
+            return names[slot(index)];
+        }
+
+        String value(int index) {
+            return values[slot(index)];
+        }
+
+        private int slot(int index) {
+            return (head - 1 - index) & (names.length - 1);
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(0);
+        }
+
+        // 比整个表还大的条目清空表且不加入
+        void add(String name, String value) {
+            int entry = entrySize(name, value);
+            evict(entry);
+            if (entry > maxSize) {
+                return;
+            }
+            if (count == names.length) {
+                String[] newNames = new String[names.length * 2];
+                String[] newValues = new String[values.length * 2];
+                for (int i = 0; i < count; i++) {
+                    newNames[count - 1 - i] = name(i);
+                    newValues[count - 1 - i] = value(i);
+                }
+                names = newNames;
+                values = newValues;
+                head = count;
+            }
+            names[head & (names.length - 1)] = name;
+            values[head & (values.length - 1)] = value;
+            head = (head + 1) & (names.length - 1);
+            count++;
+            size += entry;
+        }
+
+        private void evict(int incoming) {
+            while (count > 0 && size + incoming > maxSize) {
+                int oldest = slot(count - 1);
+                size -= entrySize(names[oldest], values[oldest]);
+                names[oldest] = null;
+                values[oldest] = null;
+                count--;
+            }
+        }
+
+        static int entrySize(String name, String value) {
+            return name.length() + value.length() + 32;
+        }
+    }
+
+    // 解码后的请求头交给调用方, 名称已是小写
+    interface HeaderConsumer {
+        void accept(String name, String value);
+    }
+
+    static class Decoder {
+        private final Table table;
+        // 本端在 SETTINGS_HEADER_TABLE_SIZE 中声明的上限, 对端的大小更新不能超过它
+        private final int maxTableSize;
+        private final int maxHeaderListSize;
+
+        Decoder(int maxTableSize, int maxHeaderListSize) {
+            this.table = new Table(maxTableSize);
+            this.maxTableSize = maxTableSize;
+            this.maxHeaderListSize = maxHeaderListSize;
+        }
+
+        // 解码一个完整的头部块 (HEADERS 加上所有 CONTINUATION)
+        void decode(ByteBuffer block, HeaderConsumer consumer) {
+            int listSize = 0;
+            boolean first = true;
+            while (block.hasRemaining()) {
+                int b = block.get(block.position()) & 0xff;
+                String name;
+                String value;
+                if ((b & 0x80) != 0) {
+                    int index = readInt(block, 7);
+                    name = name(index);
+                    value = value(index);
+                } else if ((b & 0x40) != 0) {
+                    int index = readInt(block, 6);
+                    name = index == 0 ? readString(block) : name(index);
+                    value = readString(block);
+                    table.add(name, value);
+                } else if ((b & 0x20) != 0) {
+                    // 动态表大小更新只能出现在头部块的开头
+                    if (!first) {
+                        throw new IllegalArgumentException("动态表大小更新的位置不合法");
+                    }
+                    int size = readInt(block, 5);
+                    if (size > maxTableSize) {
+                        throw new IllegalArgumentException("动态表大小超出上限");
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // 不加入动态表 (0000) 和永不加入 (0001) 的格式相同
+                    int index = readInt(block, 4);
+                    name = index == 0 ? readString(block) : name(index);
+                    value = readString(block);
+                }
+                first = false;
+                listSize += Table.entrySize(name, value);
+                if (listSize > maxHeaderListSize) {
+                    throw new IllegalArgumentException("请求头过大");
+                }
+                consumer.accept(name, value);
+            }
+        }
+
+        private String name(int index) {
+            if (index <= 0) {
+                throw new IllegalArgumentException("下标不合法");
+            }
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][0];
+            }
+            index -= STATIC_TABLE.length + 1;
+            if (index >= table.count()) {
+                throw new IllegalArgumentException("下标超出动态表");
+            }
+            return table.name(index);
+        }
+
+        private String value(int index) {
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][1];
+            }
+            return table.value(index - STATIC_TABLE.length - 1);
+        }
+    }
+
+    static class Encoder {
+        // 每次请求都不同的值, 加入动态表只会挤掉有用的条目; 敏感的值不加入, 也不让中间节点加入
+        private static final Set<String> NOT_INDEXED = Set.of("content-length", "date", "age", "etag", "last-modified",
+                "content-range", "location", "retry-after");
+        private static final Set<String> NEVER_INDEXED = Set.of("set-cookie", "authorization");
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+        // 对端 SETTINGS_HEADER_TABLE_SIZE 改变后, 下一个头部块开头要发出的大小更新, -1 表示没有
+        private int pendingSizeUpdate = -1;
+
+        // 不超过默认大小, 只在对端要求更小时缩小
+        void setMaxTableSize(int size) {
+            int effective = Math.min(size, DEFAULT_TABLE_SIZE);
+            table.setMaxSize(effective);
+            pendingSizeUpdate = effective;
+        }
+
+        // 开始一个新的头部块
+        void begin(ByteArrayOutputStream out) {
+            if (pendingSizeUpdate >= 0) {
+                writeInt(out, 0x20, 5, pendingSizeUpdate);
+                pendingSizeUpdate = -1;
+            }
+        }
+
+        // name 必须是小写
+        void encode(ByteArrayOutputStream out, String name, String value) {
+            Integer index = STATIC_FIELDS.get(name + '\0' + value);
+            if (index == null) {
+                index = findField(name, value);
+            }
+            if (index != null) {
+                writeInt(out, 0x80, 7, index);
+                return;
+            }
+            Integer nameIndex = STATIC_NAMES.get(name);
+            if (nameIndex == null) {
+                nameIndex = findName(name);
+            }
+            boolean never = NEVER_INDEXED.contains(name);
+            if (never || NOT_INDEXED.contains(name)) {
+                writeInt(out, never ? 0x10 : 0x00, 4, nameIndex == null ? 0 : nameIndex);
+            } else {
+                writeInt(out, 0x40, 6, nameIndex == null ? 0 : nameIndex);
+                table.add(name, value);
+            }
+            if (nameIndex == null) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+
+        private Integer findField(String name, String value) {
+            for (int i = 0; i < table.count(); i++) {
+                if (table.name(i).equals(name) && table.value(i).equals(value)) {
+                    return STATIC_TABLE.length + 1 + i;
+                }
+            }
+            return null;
+        }
+
+        private Integer findName(String name) {
+            for (int i = 0; i < table.count(); i++) {
+                if (table.name(i).equals(name)) {
+                    return STATIC_TABLE.length + 1 + i;
+                }
+            }
+            return null;
+        }
+    }
+
+    static int readInt(ByteBuffer buf, int prefixBits) {
+        int max = (1 << prefixBits) - 1;
+        int value = buf.get() & max;
+        if (value < max) {
+            return value;
+        }
+        int shift = 0;
+        while (true) {
+            if (!buf.hasRemaining()) {
+                throw new IllegalArgumentException("整数不完整");
+            }
+            int b = buf.get() & 0xff;
+            if (shift > 21) {
+                throw new IllegalArgumentException("整数过大");
+            }
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // 字符串按 ISO-8859-1 逐字节对应, 不丢失任何字节
+    static String readString(ByteBuffer buf) {
+        if (!buf.hasRemaining()) {
+            throw new IllegalArgumentException("字符串不完整");
+        }
+        boolean huffman = (buf.get(buf.position()) & 0x80) != 0;
+        int length = readInt(buf, 7);
+        if (length > buf.remaining()) {
+            throw new IllegalArgumentException("字符串不完整");
+        }
+        if (!huffman) {
+            String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.ISO_8859_1);
+            buf.position(buf.position() + length);
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        // 当前符号已读的位数和是否全为 1, 用于检查结尾的填充
+        int bits = 0;
+        boolean ones = true;
+        for (int i = 0; i < length; i++) {
+            int b = buf.get() & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                int one = b >>> bit & 1;
+                int next = HUFFMAN_TREE[node * 2 + one];
+                bits++;
+                ones &= one == 1;
+                if (next < 0) {
+                    sb.append((char) (-next - 1));
+                    node = 0;
+                    bits = 0;
+                    ones = true;
+                } else if (next == 0) {
+                    throw new IllegalArgumentException("Huffman 编码不合法");
+                } else {
+                    node = next;
+                }
+            }
+        }
+        // 填充必须是 EOS 的前缀 (全 1) 且少于 8 位
+        if (bits > 7 || !ones) {
+            throw new IllegalArgumentException("Huffman 填充不合法");
+        }
+        return sb.toString();
+    }
+
+    // Huffman 编码更短时使用 Huffman, 否则原样写出
+    static void writeString(ByteArrayOutputStream out, String s) {
+        long bits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            bits += HUFFMAN_LENGTHS[s.charAt(i) & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= s.length()) {
+            writeInt(out, 0x00, 7, s.length());
+            for (int i = 0; i < s.length(); i++) {
+                out.write(s.charAt(i));
+            }
+            return;
+        }
+        writeInt(out, 0x80, 7, huffmanLength);
+        long current = 0;
+        int pending = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i) & 0xff;
+            current = current << HUFFMAN_LENGTHS[c] | HUFFMAN_CODES[c] & 0xffffffffL;
+            pending += HUFFMAN_LENGTHS[c];
+            while (pending >= 8) {
+                pending -= 8;
+                out.write((int) (current >>> pending));
+            }
+        }
+        if (pending > 0) {
+            // 用 EOS 的高位 (全 1) 填满最后一个字节
+            out.write((int) (current << (8 - pending) | 0xff >>> pending));
+        }
+    }
+}
@@ -0,0 +1,1148 @@
+package org.gtio.jlask;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// HTTP/2 明文连接 (h2c): 以 prior knowledge 或 Upgrade: h2c 建立, 同一连接上的多个流并发交给线程池处理
+// 帧在读数据的线程 (NIO 事件循环或 BIO 连接线程) 中解析, 请求体收齐后拼成 HTTP/1.1 格式的请求头交给 RequestParser,
+// 路由和处理器与 HTTP/1.1 完全相同; 响应头用 HPACK 压缩, 响应体按连接和流的发送窗口分帧发送
+// 读数据的线程不能阻塞: 不等待发送窗口, 编码器的锁只 tryLock
+class Http2Connection {
+    // 客户端连接前言; prior knowledge 时前 18 字节已经被当作 "PRI * HTTP/2.0" 请求解析
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int PRI_LENGTH = 18;
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int CANCEL = 0x8;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+    private static final int HTTP_1_1_REQUIRED = 0xd;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int DEFAULT_WINDOW = 65535;
+    // 本端接收的帧大小上限, 使用协议默认值
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // 只属于 HTTP/1.1 连接的头, HTTP/2 中不允许出现
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    private final Jlask app;
+    private final Config config;
+    private final Executor executor;
+    private final Admission admission;
+    private final TimerWheel timer;
+    private final String remoteAddress;
+    private final long writeTimeout;
+    // 活动的流: 请求还在接收或响应还没发完
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private Sink sink;
+    private volatile boolean closed;
+    private volatile int lastStreamId;
+    private volatile boolean goAwayReceived;
+    private final AtomicBoolean goAwaySent = new AtomicBoolean();
+    // 最近一次没有活动流的时刻, 有活动流时为 0
+    private volatile long idleSince;
+
+    // HPACK 编码和 HEADERS 帧的发出在同一把锁内, 动态表的变化顺序和帧在连接上的顺序一致
+    private final ReentrantLock encoderLock = new ReentrantLock();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    // 对端新设置的动态表大小, 下一个头部块生效, -1 表示没有变化
+    private final AtomicInteger peerTableSize = new AtomicInteger(-1);
+    // 发送窗口由 flowLock 保护, 窗口增大时唤醒等待的工作线程
+    private final ReentrantLock flowLock = new ReentrantLock();
+    private final Condition windowOpened = flowLock.newCondition();
+    private long connectionWindow = DEFAULT_WINDOW;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private volatile int peerMaxFrameSize = MAX_FRAME_SIZE;
+
+    // 以下只在读数据的线程中访问
+    private final Hpack.Decoder decoder;
+    private final RequestParser parser = new RequestParser();
+    // 还没凑够一帧的字节, 处于写模式
+    private ByteBuffer partial;
+    private int prefaceRead;
+    private boolean settingsReceived;
+    private boolean inputClosed;
+    private int receiveWindow = DEFAULT_WINDOW;
+    // 所有还没交给处理器的流已经收到的请求体字节数之和, 受 http2MaxBufferedBodySize 限制
+    private long buffered;
+    // 还没收到 END_HEADERS 的头部块
+    private ByteArrayOutputStream headerBlock;
+    private int headerStreamId;
+    private int headerFlags;
+
+    private static class Stream {
+        final int id;
+        final long startTime = System.nanoTime();
+        // 以下只在读数据的线程中访问, 请求收齐交给线程池后 head 和 body 置为 null
+        RequestHead head;
+        ByteArrayOutputStream body;
+        int receiveWindow;
+        boolean dispatched;
+        // 由 flowLock 保护
+        long sendWindow;
+        // 对端重置了流或连接已关闭, 响应不再发送
+        volatile boolean reset;
+        // 订阅的 SSE 频道, 流被重置时退订
+        volatile EventStream events;
+        volatile Sink eventSink;
+
+        Stream(int id, int receiveWindow, long sendWindow) {
+            this.id = id;
+            this.receiveWindow = receiveWindow;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    // 连接级错误, 发送 GOAWAY 后关闭连接
+    private static class ConnectionError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ConnectionError(int code) {
+            super(null, null, false, false);
+            this.code = code;
+        }
+    }
+
+    Http2Connection(Jlask app, Config config, Executor executor, Admission admission, TimerWheel timer, String remoteAddress) {
+        this.app = app;
+        this.config = config;
+        this.executor = executor;
+        this.admission = admission;
+        this.timer = timer;
+        this.remoteAddress = remoteAddress;
+        writeTimeout = TimeUnit.MILLISECONDS.toNanos(config.writeTimeout);
+        decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, config.maxHeaderSize);
+    }
+
+    // 引擎把连接交给 HTTP/2 后在读数据的线程中调用; upgrade 为 Upgrade: h2c 的请求, 作为流 1 处理, prior knowledge 时为 null
+    void open(Sink sink, Request upgrade) {
+        this.sink = sink;
+        if (upgrade != null) {
+            try {
+                applySettings(ByteBuffer.wrap(Base64.getUrlDecoder().decode(upgrade.getHeader("HTTP2-Settings").trim())));
+            } catch (IllegalArgumentException | BufferUnderflowException | ConnectionError e) {
+                fail(PROTOCOL_ERROR);
+                return;
+            }
+        }
+        ByteBuffer settings = frame(SETTINGS, 0, 0, 18);
+        settings.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(config.http2MaxConcurrentStreams);
+        settings.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(config.http2InitialWindowSize);
+        settings.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(config.maxHeaderSize);
+        send(settings);
+        // 连接的接收窗口不能通过 SETTINGS 修改, 直接补到和流的初始窗口一样大
+        if (config.http2InitialWindowSize > DEFAULT_WINDOW) {
+            windowUpdate(0, config.http2InitialWindowSize - DEFAULT_WINDOW);
+            receiveWindow = config.http2InitialWindowSize;
+        }
+        if (upgrade == null) {
+            prefaceRead = PRI_LENGTH;
+            onIdle();
+            return;
+        }
+        lastStreamId = 1;
+        Stream stream = new Stream(1, config.http2InitialWindowSize, peerInitialWindow);
+        stream.dispatched = true;
+        streams.put(1, stream);
+        executor.execute(() -> handle(stream, upgrade));
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    // 连接断开时由引擎调用, 唤醒等待发送窗口的工作线程并退订 SSE 频道
+    void closed() {
+        inputClosed = true;
+        closed = true;
+        flowLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+        for (Stream stream : streams.values()) {
+            cancel(stream);
+        }
+        streams.clear();
+    }
+
+    // 解析连接上新到的字节, 不完整的帧留到下次
+    void feed(ByteBuffer data) {
+        if (inputClosed) {
+            return;
+        }
+        ByteBuffer buf = data;
+        if (partial != null) {
+            if (partial.remaining() < data.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(partial.capacity() * 2, partial.position() + data.remaining()));
+                partial.flip();
+                bigger.put(partial);
+                partial = bigger;
+            }
+            partial.put(data);
+            buf = partial.flip();
+        }
+        while (!inputClosed && readFrame(buf)) {
+        }
+        if (inputClosed || !buf.hasRemaining()) {
+            partial = null;
+        } else if (buf == partial) {
+            partial.compact();
+        } else {
+            partial = ByteBuffer.allocate(Math.max(buf.remaining() * 2, 1024));
+            partial.put(buf);
+        }
+    }
+
+    // 读出一个完整的帧并处理, 数据不够时不移动 position 并返回 false
+    private boolean readFrame(ByteBuffer buf) {
+        while (prefaceRead < PREFACE.length) {
+            if (!buf.hasRemaining()) {
+                return false;
+            }
+            if (buf.get() != PREFACE[prefaceRead++]) {
+                fail(PROTOCOL_ERROR);
+                return false;
+            }
+        }
+        int start = buf.position();
+        if (buf.remaining() < 9) {
+            return false;
+        }
+        int length = (buf.get(start) & 0xff) << 16 | (buf.get(start + 1) & 0xff) << 8 | buf.get(start + 2) & 0xff;
+        if (length > MAX_FRAME_SIZE) {
+            fail(FRAME_SIZE_ERROR);
+            return false;
+        }
+        if (buf.remaining() < 9 + length) {
+            return false;
+        }
+        int type = buf.get(start + 3) & 0xff;
+        int flags = buf.get(start + 4) & 0xff;
+        int streamId = buf.getInt(start + 5) & 0x7fffffff;
+        ByteBuffer payload = buf.slice(start + 9, length);
+        buf.position(start + 9 + length);
+        try {
+            onFrame(type, flags, streamId, payload);
+        } catch (ConnectionError e) {
+            fail(e.code);
+        } catch (BufferUnderflowException e) {
+            fail(FRAME_SIZE_ERROR);
+        } catch (IllegalArgumentException e) {
+            fail(PROTOCOL_ERROR);
+        }
+        return true;
+    }
+
+    private void onFrame(int type, int flags, int streamId, ByteBuffer payload) {
+        // 头部块必须由连续的 CONTINUATION 帧收完, 第一个帧必须是 SETTINGS
+        if (headerBlock != null && (type != CONTINUATION || streamId != headerStreamId)) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        if (!settingsReceived && type != SETTINGS) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        switch (type) {
+            case DATA -> onData(flags, streamId, payload);
+            case HEADERS -> onHeaders(flags, streamId, payload);
+            case PRIORITY -> {
+                // 优先级只是建议, 不影响处理顺序
+                if (streamId == 0) {
+                    throw new ConnectionError(PROTOCOL_ERROR);
+                }
+            }
+            case RST_STREAM -> onReset(streamId, payload);
+            case SETTINGS -> onSettings(flags, streamId, payload);
+            case PUSH_PROMISE -> throw new ConnectionError(PROTOCOL_ERROR);
+            case PING -> onPing(flags, streamId, payload);
+            case GOAWAY -> onGoAway(streamId);
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+            case CONTINUATION -> onContinuation(flags, streamId, payload);
+            default -> {
+                // 未知类型的帧直接忽略
+            }
+        }
+    }
+
+    private void onData(int flags, int streamId, ByteBuffer payload) {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        int length = payload.remaining();
+        // 丢弃的数据 (包括填充) 同样占用连接窗口
+        receiveWindow -= length;
+        if (receiveWindow < 0) {
+            throw new ConnectionError(FLOW_CONTROL_ERROR);
+        }
+        if (receiveWindow <= config.http2InitialWindowSize / 2) {
+            windowUpdate(0, config.http2InitialWindowSize - receiveWindow);
+            receiveWindow = config.http2InitialWindowSize;
+        }
+        ByteBuffer data = unpad(flags, payload);
+        Stream stream = streams.get(streamId);
+        if (stream == null || stream.dispatched) {
+            if (streamId > lastStreamId) {
+                throw new ConnectionError(PROTOCOL_ERROR);
+            }
+            // 已经重置或回复过的流, 对端可能还有在途的数据
+            return;
+        }
+        stream.receiveWindow -= length;
+        if (stream.receiveWindow < 0) {
+            abandon(stream, FLOW_CONTROL_ERROR);
+            return;
+        }
+        long size = stream.body.size() + data.remaining();
+        if (size > config.maxBodySize || size > config.http2MaxBufferedBodySize) {
+            refuse(stream, Response.ErrorStatus(ErrorType.Err_413));
+            return;
+        }
+        if (buffered + data.remaining() > config.http2MaxBufferedBodySize) {
+            // 请求体收齐才交给处理器, 整个连接缓存的请求体有上限, 否则多个流可以各自占满 maxBodySize
+            refuse(stream, admission.overloaded());
+            return;
+        }
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        stream.body.write(bytes, 0, bytes.length);
+        buffered += bytes.length;
+        if ((flags & FLAG_END_STREAM) != 0) {
+            dispatch(stream);
+        } else if (stream.receiveWindow <= config.http2InitialWindowSize / 2) {
+            windowUpdate(streamId, config.http2InitialWindowSize - stream.receiveWindow);
+            stream.receiveWindow = config.http2InitialWindowSize;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, ByteBuffer payload) {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        ByteBuffer fragment = unpad(flags, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            fragment.position(fragment.position() + 5);
+        }
+        headerStreamId = streamId;
+        headerFlags = flags;
+        headerBlock = new ByteArrayOutputStream(fragment.remaining());
+        appendFragment(fragment);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaders();
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, ByteBuffer payload) {
+        if (headerBlock == null) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        appendFragment(payload);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaders();
+        }
+    }
+
+    private void appendFragment(ByteBuffer fragment) {
+        if (headerBlock.size() + fragment.remaining() > config.maxHeaderSize) {
+            throw new ConnectionError(ENHANCE_YOUR_CALM);
+        }
+        byte[] bytes = new byte[fragment.remaining()];
+        fragment.get(bytes);
+        headerBlock.write(bytes, 0, bytes.length);
+    }
+
+    // 头部块收齐: 即使随后拒绝这个流也要先解码, 保持与对端的动态表一致
+    private void endHeaders() {
+        int streamId = headerStreamId;
+        boolean endStream = (headerFlags & FLAG_END_STREAM) != 0;
+        ByteBuffer block = ByteBuffer.wrap(headerBlock.toByteArray());
+        headerBlock = null;
+        RequestHead head = new RequestHead();
+        try {
+            decoder.decode(block, head);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new ConnectionError(COMPRESSION_ERROR);
+        }
+        if (streamId <= lastStreamId) {
+            // 请求体之后的 trailers, 内容忽略; 已经重置的流直接丢弃
+            Stream stream = streams.get(streamId);
+            if (stream != null && !stream.dispatched) {
+                if (endStream) {
+                    dispatch(stream);
+                } else {
+                    abandon(stream, PROTOCOL_ERROR);
+                }
+            }
+            return;
+        }
+        if (streamId % 2 == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        lastStreamId = streamId;
+        if (goAwaySent.get()) {
+            return;
+        }
+        if (streams.size() >= config.http2MaxConcurrentStreams) {
+            resetStream(streamId, REFUSED_STREAM);
+            return;
+        }
+        if (!head.isValid()) {
+            resetStream(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        Stream stream = new Stream(streamId, config.http2InitialWindowSize, peerInitialWindow);
+        stream.head = head;
+        streams.put(streamId, stream);
+        idleSince = 0;
+        if (head.contentLength > config.maxBodySize || head.contentLength > config.http2MaxBufferedBodySize) {
+            refuse(stream, Response.ErrorStatus(ErrorType.Err_413));
+        } else if (endStream) {
+            dispatch(stream);
+        } else {
+            stream.body = new ByteArrayOutputStream();
+        }
+    }
+
+    // 请求收齐, 按 HTTP/1.1 格式解析后交给线程池
+    private void dispatch(Stream stream) {
+        stream.dispatched = true;
+        RequestHead head = stream.head;
+        byte[] body = stream.body == null ? new byte[0] : stream.body.toByteArray();
+        stream.head = null;
+        releaseBody(stream);
+        if (head.contentLength >= 0 && head.contentLength != body.length) {
+            abandon(stream, PROTOCOL_ERROR);
+            return;
+        }
+        if (admission.saturated()) {
+            refuse(stream, admission.overloaded());
+            return;
+        }
+        Request req;
+        try {
+            byte[] bytes = head.toHttp1(body.length);
+            if (parser.parse(bytes, 0, bytes.length) != bytes.length) {
+                throw new IllegalArgumentException("请求头不完整");
+            }
+            req = new Request(parser);
+        } catch (RuntimeException e) {
+            abandon(stream, PROTOCOL_ERROR);
+            return;
+        }
+        req._firstGetByteTime = stream.startTime;
+        req.setRemoteAddress(remoteAddress);
+        req.setBody(new ByteArrayInputStream(body));
+        executor.execute(() -> handle(stream, req));
+    }
+
+    private void onReset(int streamId, ByteBuffer payload) {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        if (payload.remaining() != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR);
+        }
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            releaseBody(stream);
+            cancel(stream);
+            if (streams.isEmpty()) {
+                onIdle();
+            }
+        }
+    }
+
+    private void onSettings(int flags, int streamId, ByteBuffer payload) {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.hasRemaining()) {
+                throw new ConnectionError(FRAME_SIZE_ERROR);
+            }
+            return;
+        }
+        if (payload.remaining() % 6 != 0) {
+            throw new ConnectionError(FRAME_SIZE_ERROR);
+        }
+        applySettings(payload);
+        settingsReceived = true;
+        send(frame(SETTINGS, FLAG_ACK, 0, 0));
+    }
+
+    // MAX_CONCURRENT_STREAMS 只限制服务端推送, MAX_HEADER_LIST_SIZE 是建议值, 和未知的设置一样忽略
+    private void applySettings(ByteBuffer payload) {
+        while (payload.hasRemaining()) {
+            int id = payload.getShort() & 0xffff;
+            int value = payload.getInt();
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE -> peerTableSize.set(value < 0 ? Integer.MAX_VALUE : value);
+                case SETTINGS_ENABLE_PUSH -> {
+                    if (value != 0 && value != 1) {
+                        throw new ConnectionError(PROTOCOL_ERROR);
+                    }
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if (value < 0) {
+                        throw new ConnectionError(FLOW_CONTROL_ERROR);
+                    }
+                    setPeerInitialWindow(value);
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    if (value < MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new ConnectionError(PROTOCOL_ERROR);
+                    }
+                    peerMaxFrameSize = value;
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    // 初始窗口的变化同样作用于所有已打开的流
+    private void setPeerInitialWindow(int value) {
+        flowLock.lock();
+        try {
+            int delta = value - peerInitialWindow;
+            peerInitialWindow = value;
+            for (Stream stream : streams.values()) {
+                stream.sendWindow += delta;
+                if (stream.sendWindow > Integer.MAX_VALUE) {
+                    throw new ConnectionError(FLOW_CONTROL_ERROR);
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void onPing(int flags, int streamId, ByteBuffer payload) {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        if (payload.remaining() != 8) {
+            throw new ConnectionError(FRAME_SIZE_ERROR);
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            send(frame(PING, FLAG_ACK, 0, 8).put(payload));
+        }
+    }
+
+    // 对端不再发起新的流, 已有的流处理完后关闭连接
+    private void onGoAway(int streamId) {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        goAwayReceived = true;
+        if (streams.isEmpty()) {
+            shutdown();
+        }
+    }
+
+    private void onWindowUpdate(int streamId, ByteBuffer payload) {
+        if (payload.remaining() != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR);
+        }
+        int increment = payload.getInt() & 0x7fffffff;
+        Stream stream = streamId == 0 ? null : streams.get(streamId);
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw new ConnectionError(PROTOCOL_ERROR);
+            }
+            if (stream != null) {
+                abandon(stream, PROTOCOL_ERROR);
+            }
+            return;
+        }
+        if (streamId != 0 && stream == null) {
+            // 已经结束的流
+            return;
+        }
+        boolean overflow;
+        flowLock.lock();
+        try {
+            if (stream == null) {
+                connectionWindow += increment;
+                if (connectionWindow > Integer.MAX_VALUE) {
+                    throw new ConnectionError(FLOW_CONTROL_ERROR);
+                }
+            } else {
+                stream.sendWindow += increment;
+            }
+            overflow = stream != null && stream.sendWindow > Integer.MAX_VALUE;
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+        if (overflow) {
+            abandon(stream, FLOW_CONTROL_ERROR);
+        }
+    }
+
+    private static ByteBuffer unpad(int flags, ByteBuffer payload) {
+        if ((flags & FLAG_PADDED) == 0) {
+            return payload;
+        }
+        int padding = payload.get() & 0xff;
+        if (padding > payload.remaining()) {
+            throw new ConnectionError(PROTOCOL_ERROR);
+        }
+        return payload.limit(payload.limit() - padding);
+    }
+
+    // 在工作线程中执行处理器并发送响应; 流被重置或连接关闭后放弃剩余的响应体
+    private void handle(Stream stream, Request req) {
+        Response res;
+        try {
+            res = app.service(req, 1);
+        } catch (Throwable e) {
+            abort(stream, req, e);
+            return;
+        }
+        if (res.getPending() != null) {
+            // 异步处理器: 工作线程直接返回, 结果在线程池中就绪后再发送
+            res.getPending().whenComplete((result, e) -> {
+                if (e != null) {
+                    abort(stream, req, e);
+                } else {
+                    reply(stream, req, result);
+                }
+            });
+            return;
+        }
+        reply(stream, req, res);
+    }
+
+    private void reply(Stream stream, Request req, Response res) {
+        try {
+            respond(stream, req, res);
+        } catch (IOException e) {
+            if (!stream.reset && !closed) {
+                resetStream(stream.id, CANCEL);
+            }
+            finish(stream);
+        } catch (Throwable e) {
+            abort(stream, req, e);
+            return;
+        }
+        app.complete(req, res);
+    }
+
+    // 处理或发送响应时出现未预料的异常 (包括 Error): 以 INTERNAL_ERROR 重置该流, 按 500 记录, 连接上的其他流不受影响
+    private void abort(Stream stream, Request req, Throwable e) {
+        e.printStackTrace();
+        if (!stream.reset && !closed) {
+            resetStream(stream.id, INTERNAL_ERROR);
+        }
+        finish(stream);
+        app.complete(req, Response.ErrorStatus(ErrorType.Err_500));
+    }
+
+    private void respond(Stream stream, Request req, Response res) throws IOException {
+        if (res.getWebSocket() != null) {
+            // WebSocket 握手依赖 HTTP/1.1 的 Upgrade, 让客户端改用 HTTP/1.1 重试
+            resetStream(stream.id, HTTP_1_1_REQUIRED);
+            finish(stream);
+            return;
+        }
+        InputStream streamBody = res.getStream();
+        boolean noBody = "HEAD".equals(req.getMethod()) || res.getStatus() == 204 || res.getStatus() == 304
+                || (res.getFile() != null || streamBody != null) && res.getBodyLength() == 0;
+        if (noBody) {
+            if (streamBody != null) {
+                streamBody.close();
+            }
+            sendHeaders(stream, res, true);
+        } else if (res.getFile() != null) {
+            sendHeaders(stream, res, false);
+            try (FileChannel file = FileChannel.open(res.getFile())) {
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                long position = res.getBodyOffset();
+                long end = position + res.getBodyLength();
+                while (position < end) {
+                    chunk.clear().limit((int) Math.min(chunk.capacity(), end - position));
+                    int n = file.read(chunk, position);
+                    if (n == -1) {
+                        throw new EOFException("文件长度不足");
+                    }
+                    position += n;
+                    sendData(stream, chunk.flip(), position == end);
+                }
+            }
+        } else if (streamBody != null) {
+            sendHeaders(stream, res, false);
+            try (streamBody) {
+                streamBody.skipNBytes(res.getBodyOffset());
+                byte[] chunk = new byte[CHUNK_SIZE];
+                long remaining = res.getBodyLength();
+                while (remaining > 0) {
+                    int n = streamBody.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                    if (n == -1) {
+                        throw new EOFException("资源长度不足");
+                    }
+                    remaining -= n;
+                    sendData(stream, ByteBuffer.wrap(chunk, 0, n), remaining == 0);
+                }
+            }
+        } else if (res.getEvents() != null) {
+            // 流一直保持打开, 频道关闭或对端重置时结束
+            sendHeaders(stream, res, false);
+            Sink eventSink = new StreamSink(stream);
+            stream.events = res.getEvents();
+            stream.eventSink = eventSink;
+            res.getEvents().attach(eventSink, res.getLastEventId());
+            if (stream.reset) {
+                res.getEvents().detach(eventSink);
+            }
+            return;
+        } else if (res.getWriter() != null) {
+            sendHeaders(stream, res, false);
+            // 每块数据就是一个 DATA 帧, 不需要 chunked 编码
+            ChunkedOutputStream body = new ChunkedOutputStream(false) {
+                @Override
+                void emit(ByteBuffer data) throws IOException {
+                    sendData(stream, data, false);
+                }
+            };
+            try {
+                res.getWriter().writeTo(body);
+            } catch (RuntimeException e) {
+                throw new IOException("流式响应体生成失败", e);
+            }
+            body.close();
+            sendData(stream, ByteBuffer.allocate(0), true);
+        } else {
+            ByteBuffer body = ResponseEncoder.encodeBody(res);
+            sendHeaders(stream, res, !body.hasRemaining());
+            if (body.hasRemaining()) {
+                sendData(stream, body, true);
+            }
+        }
+        finish(stream);
+    }
+
+    private void sendHeaders(Stream stream, Response res, boolean endStream) throws IOException {
+        encoderLock.lock();
+        try {
+            if (stream.reset) {
+                throw new IOException("流已被重置");
+            }
+            if (!writeHeaders(stream.id, res, endStream)) {
+                throw new IOException("连接已关闭");
+            }
+        } finally {
+            encoderLock.unlock();
+        }
+    }
+
+    // 调用方持有 encoderLock; 头部块超过对端的帧大小时拆成 HEADERS + CONTINUATION, 作为一个整体交给连接
+    private boolean writeHeaders(int streamId, Response res, boolean endStream) {
+        int tableSize = peerTableSize.getAndSet(-1);
+        if (tableSize >= 0) {
+            encoder.setMaxTableSize(tableSize);
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+        encoder.begin(block);
+        encoder.encode(block, ":status", String.valueOf(res.getStatus()));
+        for (Map.Entry<String, String> header : res.getHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (header.getValue() == null || CONNECTION_HEADERS.contains(name)) {
+                continue;
+            }
+            encoder.encode(block, name, latin1(header.getValue()));
+        }
+        byte[] bytes = block.toByteArray();
+        int maxFrame = peerMaxFrameSize;
+        int frames = Math.max(1, (bytes.length + maxFrame - 1) / maxFrame);
+        ByteBuffer out = ByteBuffer.allocate(bytes.length + frames * 9);
+        int offset = 0;
+        for (int i = 0; i < frames; i++) {
+            int n = Math.min(maxFrame, bytes.length - offset);
+            int flags = (i == frames - 1 ? FLAG_END_HEADERS : 0) | (i == 0 && endStream ? FLAG_END_STREAM : 0);
+            putFrameHeader(out, n, i == 0 ? HEADERS : CONTINUATION, flags, streamId);
+            out.put(bytes, offset, n);
+            offset += n;
+        }
+        return send(out);
+    }
+
+    // 和 HTTP/1.1 一样, 含非 ASCII 字符的值按 UTF-8 字节发送
+    private static String latin1(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+            }
+        }
+        return value;
+    }
+
+    // 按发送窗口分帧, 窗口用完时等待对端的 WINDOW_UPDATE
+    private void sendData(Stream stream, ByteBuffer data, boolean endStream) throws IOException {
+        do {
+            int n = reserve(stream, data.remaining());
+            boolean last = n == data.remaining();
+            ByteBuffer frame = frame(DATA, last && endStream ? FLAG_END_STREAM : 0, stream.id, n);
+            frame.put(data.slice(data.position(), n));
+            data.position(data.position() + n);
+            if (!send(frame)) {
+                throw new IOException("连接已关闭");
+            }
+        } while (data.hasRemaining());
+    }
+
+    // 从连接和流的窗口中扣除本帧的字节数并返回, 最多一个帧; 空帧 (只带 END_STREAM) 不占窗口
+    private int reserve(Stream stream, int wanted) throws IOException {
+        long deadline = System.nanoTime() + writeTimeout;
+        flowLock.lock();
+        try {
+            while (true) {
+                if (stream.reset || closed) {
+                    throw new IOException("流已关闭");
+                }
+                int n = (int) Math.min(Math.min(wanted, peerMaxFrameSize), Math.min(connectionWindow, stream.sendWindow));
+                if (n > 0 || wanted == 0) {
+                    connectionWindow -= n;
+                    stream.sendWindow -= n;
+                    return n;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new IOException("等待发送窗口超时");
+                }
+                windowOpened.awaitNanos(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    // SSE 事件的发送端, 由发布事件的线程调用, 不等待窗口; 窗口不够时返回 false, 频道随即断开这个订阅者
+    private class StreamSink implements Sink {
+        private final Stream stream;
+
+        StreamSink(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public boolean offer(ByteBuffer data) {
+            int length = data.remaining();
+            flowLock.lock();
+            try {
+                if (stream.reset || closed || length > Math.min(connectionWindow, stream.sendWindow)) {
+                    return false;
+                }
+                connectionWindow -= length;
+                stream.sendWindow -= length;
+            } finally {
+                flowLock.unlock();
+            }
+            int maxFrame = peerMaxFrameSize;
+            ByteBuffer frames = ByteBuffer.allocate(length + (length + maxFrame - 1) / maxFrame * 9);
+            while (data.hasRemaining()) {
+                int n = Math.min(maxFrame, data.remaining());
+                putFrameHeader(frames, n, DATA, 0, stream.id);
+                frames.put(data.slice(data.position(), n));
+                data.position(data.position() + n);
+            }
+            return send(frames);
+        }
+
+        // 频道关闭或订阅被断开, 结束这个流
+        @Override
+        public void close() {
+            if (!stream.reset && !closed) {
+                send(frame(DATA, FLAG_END_STREAM, stream.id, 0));
+            }
+            finish(stream);
+        }
+    }
+
+    // 流的响应发完或被放弃
+    private void finish(Stream stream) {
+        if (streams.remove(stream.id) != null && streams.isEmpty()) {
+            onIdle();
+        }
+    }
+
+    // 丢弃还没交给处理器的请求体, 在读数据的线程中调用
+    private void releaseBody(Stream stream) {
+        if (stream.body != null) {
+            buffered -= stream.body.size();
+            stream.body = null;
+        }
+    }
+
+    // 重置流并不再处理它, 在读数据的线程中调用
+    private void abandon(Stream stream, int error) {
+        resetStream(stream.id, error);
+        stream.dispatched = true;
+        stream.head = null;
+        releaseBody(stream);
+        finish(stream);
+    }
+
+    // 在读数据的线程中直接回复 (请求体过大、过载), 只发送响应头后重置流;
+    // 编码器正被工作线程占用时改为 REFUSED_STREAM, 告诉客户端请求没有处理过, 可以安全重试
+    private void refuse(Stream stream, Response res) {
+        res.getHeaders().put("Content-Length", "0");
+        if (encoderLock.tryLock()) {
+            try {
+                writeHeaders(stream.id, res, true);
+            } finally {
+                encoderLock.unlock();
+            }
+            if (!stream.dispatched) {
+                // 请求体还没收完, 让客户端停止发送
+                resetStream(stream.id, NO_ERROR);
+            }
+        } else {
+            resetStream(stream.id, REFUSED_STREAM);
+        }
+        stream.dispatched = true;
+        stream.head = null;
+        releaseBody(stream);
+        finish(stream);
+    }
+
+    // 流被对端重置或连接关闭: 唤醒等待窗口的工作线程, 退订 SSE 频道
+    private void cancel(Stream stream) {
+        stream.reset = true;
+        flowLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+        EventStream events = stream.events;
+        if (events != null) {
+            events.detach(stream.eventSink);
+        }
+    }
+
+    // 没有活动的流: 对端已经发过 GOAWAY 就关闭连接, 否则空闲 keepAliveTimeout 之后发 GOAWAY 关闭
+    private void onIdle() {
+        if (goAwayReceived) {
+            shutdown();
+            return;
+        }
+        long since = System.nanoTime();
+        idleSince = since;
+        timer.schedule(() -> {
+            if (idleSince == since && streams.isEmpty() && !closed) {
+                goAway(NO_ERROR);
+                shutdown();
+            }
+        }, TimeUnit.MILLISECONDS.toNanos(config.keepAliveTimeout));
+    }
+
+    // 连接级错误: 发送 GOAWAY 后关闭, 不再解析后续的帧
+    private void fail(int error) {
+        inputClosed = true;
+        goAway(error);
+        shutdown();
+    }
+
+    private void goAway(int error) {
+        if (goAwaySent.compareAndSet(false, true)) {
+            send(frame(GOAWAY, 0, 0, 8).putInt(lastStreamId).putInt(error));
+        }
+    }
+
+    // 已排队的帧写完后关闭连接
+    private void shutdown() {
+        closed = true;
+        flowLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+        sink.close();
+    }
+
+    private void windowUpdate(int streamId, int increment) {
+        send(frame(WINDOW_UPDATE, 0, streamId, 4).putInt(increment));
+    }
+
+    private void resetStream(int streamId, int error) {
+        send(frame(RST_STREAM, 0, streamId, 4).putInt(error));
+    }
+
+    private static ByteBuffer frame(int type, int flags, int streamId, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(9 + length);
+        putFrameHeader(frame, length, type, flags, streamId);
+        return frame;
+    }
+
+    private static void putFrameHeader(ByteBuffer buf, int length, int type, int flags, int streamId) {
+        buf.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        buf.put((byte) type).put((byte) flags).putInt(streamId);
+    }
+
+    // 每个帧 (或一组 HEADERS + CONTINUATION) 作为一个整体交给连接, 不会和其他线程的帧交错
+    private boolean send(ByteBuffer frame) {
+        return sink.offer(frame.flip());
+    }
+
+    // 收集一个头部块中的请求头, 拼成 HTTP/1.1 格式交给 RequestParser; 伪头部必须在普通请求头之前
+    private static class RequestHead implements Hpack.HeaderConsumer {
+        private String method;
+        private String path;
+        private String scheme;
+        private String authority;
+        private String cookie;
+        private final StringBuilder headers = new StringBuilder();
+        private long contentLength = -1;
+        private boolean regular;
+        private boolean malformed;
+
+        @Override
+        public void accept(String name, String value) {
+            if (invalid(value)) {
+                malformed = true;
+                return;
+            }
+            if (name.startsWith(":")) {
+                if (regular) {
+                    malformed = true;
+                    return;
+                }
+                switch (name) {
+                    case ":method" -> method = value;
+                    case ":path" -> path = value;
+                    case ":scheme" -> scheme = value;
+                    case ":authority" -> authority = value;
+                    default -> malformed = true;
+                }
+                return;
+            }
+            regular = true;
+            if (CONNECTION_HEADERS.contains(name) || name.equals("te") && !value.equals("trailers") || !validName(name)) {
+                malformed = true;
+                return;
+            }
+            switch (name) {
+                // 多个 cookie 头按 HTTP/1.1 的格式合并成一个
+                case "cookie" -> cookie = cookie == null ? value : cookie + "; " + value;
+                case "content-length" -> {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        malformed = true;
+                    }
+                }
+                case "host" -> {
+                    if (authority == null) {
+                        authority = value;
+                    }
+                }
+                // 请求体总是收齐后才交给处理器, 不需要 100 Continue
+                case "expect" -> {
+                }
+                default -> headers.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+
+        boolean isValid() {
+            return !malformed && method != null && scheme != null && path != null && !path.isEmpty()
+                    && (path.charAt(0) == '/' || path.equals("*")) && path.indexOf(' ') == -1 && method.indexOf(' ') == -1;
+        }
+
+        byte[] toHttp1(long bodyLength) {
+            StringBuilder sb = new StringBuilder(headers.length() + 128);
+            sb.append(method).append(' ').append(path).append(" HTTP/2.0\r\n");
+            if (authority != null) {
+                sb.append("host: ").append(authority).append("\r\n");
+            }
+            sb.append(headers);
+            if (cookie != null) {
+                sb.append("cookie: ").append(cookie).append("\r\n");
+            }
+            if (bodyLength > 0 || contentLength >= 0) {
+                sb.append("content-length: ").append(bodyLength).append("\r\n");
+            }
+            sb.append("\r\n");
+            return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        private static boolean invalid(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\r' || c == '\n' || c == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // 名称必须是小写
+        private static boolean validName(String name) {
+            if (name.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c >= 'A' && c <= 'Z' || c <= ' ' || c == ':') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -2,63 +2,176 @@ package org.gtio.jlask;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 interface Handler {
-    Response handle(Request request) throws InvocationTargetException, IllegalAccessException;
+    Response handle(Request request) throws Exception;
 }
 
 public class Jlask {
-    private final ServerSocket serverSocket;
+    private final ServerSocketChannel[] listeners;
+    private final NioServer nioServer;
+    private final InetSocketAddress localAddress;
     private final ExecutorService executor;
-    private final Map<Integer, Handler> handlers = new HashMap<>();
+    private final Semaphore limiter;
+    private final Admission admission;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Router router = new Router();
     private final Map<Integer, Handler> errorHandlers = new HashMap<>();
-    private int PoolSize = Runtime.getRuntime().availableProcessors() * 2 + 1;
+    private final Config config;
+    private final StaticFiles staticFiles;
+    private final Compression compression;
+    private final Metrics metrics = new Metrics();
+    // 所有连接的读写超时共用一个计时线程
+    private final TimerWheel timer = new TimerWheel(100, 512, "jlask-timer");
+    private final ConsoleLog consoleLog;
+    private final AccessLog accessLog;
+    private final int PoolSize;
     private String assetsPath;
 
-    public Jlask(String ip, int port, int poolSize, Object instanceObject) throws IOException {
-        serverSocket = new ServerSocket(port, poolSize * 4, InetAddress.getByName(ip));
-        PoolSize = poolSize;
-        executor = Executors.newFixedThreadPool(PoolSize);
+    public Jlask(String ip, int port, Config config, Object instanceObject) throws IOException {
+        this.config = config;
+        compression = config.compression ? new Compression(config) : null;
+        staticFiles = new StaticFiles(config, compression);
+        PoolSize = config.poolSize;
+        if (config.executor == ExecutorMode.VIRTUAL) {
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jlask-vt-", 0).factory());
+        } else {
+            executor = Executors.newFixedThreadPool(PoolSize);
+        }
+        limiter = config.maxConcurrency > 0 ? new Semaphore(config.maxConcurrency) : null;
+        admission = new Admission(config, executor instanceof ThreadPoolExecutor pool ? pool : null, limiter, inFlight);
+        consoleLog = config.consoleLog ? new ConsoleLog() : null;
+        accessLog = config.accessLog != null ? new AccessLog(config) : null;
+        registerGauges();
+        // 通过 ServerSocketChannel 创建, BIO 模式下 accept 得到的 Socket 带有 SocketChannel, 静态文件可以用 transferTo 发送
+        listeners = Listeners.open(new InetSocketAddress(InetAddress.getByName(ip), port), config);
+        localAddress = (InetSocketAddress) listeners[0].getLocalAddress();
+        nioServer = config.engine == Engine.NIO ? new NioServer(listeners, config, executor, admission, timer, this) : null;
         registerAllHandlers(instanceObject);
+        if (config.metricsPath != null) {
+            registerHandler(config.metricsPath, "GET", req -> new Response(metrics.scrape(), "text/plain; version=0.0.4; charset=utf-8"));
+        }
         startPrint(instanceObject.getClass().getName());
     }
 
+    public Jlask(String ip, int port, int poolSize, Object instanceObject) throws IOException {
+        this(ip, port, withPoolSize(poolSize), instanceObject);
+    }
+
     public Jlask(String ip, int port, Object instanceObject) throws IOException {
-        serverSocket = new ServerSocket(port, PoolSize * 4, InetAddress.getByName(ip));
-        executor = Executors.newFixedThreadPool(PoolSize);
-        registerAllHandlers(instanceObject);
-        startPrint(instanceObject.getClass().getName());
+        this(ip, port, new Config(), instanceObject);
+    }
+
+    private static Config withPoolSize(int poolSize) {
+        Config config = new Config();
+        config.poolSize = poolSize;
+        return config;
     }
 
     private void startPrint(String instanceName) {
         System.out.println(" * Jlask Server Started");
         System.out.println(" * Started at " + new Date());
         System.out.println(" * PoolSize: " + PoolSize);
+        System.out.println(" * Executor: " + config.executor + (limiter != null ? " (max concurrency " + config.maxConcurrency + ")" : ""));
+        System.out.println(" * Admission: " + (config.maxQueuedRequests > 0 ? "max " + config.maxQueuedRequests + " queued" : "unbounded queue")
+                + (config.adaptiveConcurrency ? ", adaptive concurrency " + config.adaptiveMinConcurrency + "-" + config.adaptiveMaxConcurrency : ""));
+        System.out.println(" * Engine: " + config.engine + (config.engine == Engine.NIO ? " (" + config.ioThreads + " event loops)" : ""));
+        System.out.println(" * Acceptors: " + Math.max(1, config.acceptors) + (listeners.length > 1 ? " (SO_REUSEPORT, " + listeners.length + " listeners)" : "")
+                + ", backlog " + config.backlog);
+        System.out.println(" * HTTP/2: " + (config.http2 ? "h2c (max " + config.http2MaxConcurrentStreams + " streams per connection)" : "off"));
+        System.out.println(" * Keep-Alive: " + (config.keepAlive ? "on (timeout " + config.keepAliveTimeout + " ms, max " + config.maxKeepAliveRequests + " requests)" : "off"));
+        if (config.staticDir != null) {
+            System.out.println(" * Static files: " + config.staticDir);
+        }
+        if (config.metricsPath != null) {
+            System.out.println(" * Metrics: " + config.metricsPath);
+        }
+        if (accessLog != null) {
+            System.out.println(" * Access log: " + config.accessLog + " (" + config.accessLogFormat + ")");
+        }
         System.out.println(" * Serving Jlask app to '" + instanceName + "' (lazy loading)");
-        System.out.println(" * Running on http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort());
+        System.out.println(" * Running on http://" + localAddress.getAddress().getHostAddress() + ":" + localAddress.getPort());
         System.out.println(" * Press Ctrl+C to stop\n");
     }
 
+    private void registerGauges() {
+        metrics.gauge("jlask_requests_in_flight", "Requests currently executing a handler.", inFlight::get);
+        // 在构造器中调用, 不引用 this, 直接取 limiter
+        Semaphore queue = limiter;
+        metrics.gauge("jlask_requests_queued", "Requests waiting for a maxConcurrency permit.", () -> queue == null ? 0 : queue.getQueueLength());
+        metrics.counter("jlask_requests_shed_total", "Requests answered with 503 by admission control.", admission::getShed);
+        if (config.adaptiveConcurrency) {
+            metrics.gauge("jlask_concurrency_limit", "Current adaptive concurrency limit.", admission::getLimit);
+        }
+        if (executor instanceof ThreadPoolExecutor pool) {
+            metrics.gauge("jlask_executor_queue_depth", "Tasks waiting for a worker thread.", () -> pool.getQueue().size());
+            metrics.gauge("jlask_executor_active_threads", "Worker threads currently running a task.", pool::getActiveCount);
+        }
+        if (accessLog != null) {
+            metrics.counter("jlask_access_log_written_total", "Access log lines written to the file.", accessLog::written);
+            metrics.counter("jlask_access_log_dropped_total", "Access log lines dropped because the queue was full.", accessLog::dropped);
+        }
+    }
+
+    private void registerCacheGauges(String route, ResponseCache cache) {
+        metrics.counter("jlask_response_cache_hits_total", "Requests answered from the route response cache.", "GET", route, cache::getHits);
+        metrics.counter("jlask_response_cache_misses_total", "Requests that missed the route response cache.", "GET", route, cache::getMisses);
+        metrics.counter("jlask_response_cache_coalesced_total", "Misses that waited for a concurrent miss of the same key instead of running the handler.", "GET", route, cache::getCoalesced);
+        metrics.gauge("jlask_response_cache_entries", "Entries currently in the route response cache.", "GET", route, cache::size);
+    }
+
     private void registerAllHandlers(Object instanceObject) {
         for (Method clazz : instanceObject.getClass().getMethods()) {
             Route route = clazz.getAnnotation(Route.class);
             ErrorHandler errorHandler = clazz.getAnnotation(ErrorHandler.class);
-            if (route != null) {
+            WebSocketRoute webSocketRoute = clazz.getAnnotation(WebSocketRoute.class);
+            if (webSocketRoute != null) {
+                WebSocket.Endpoint endpoint = Handlers.bindEndpoint(clazz, instanceObject);
+                registerHandler(webSocketRoute.url(), "GET", WebSocket.handshake(endpoint, config.maxWebSocketMessageSize));
+            } else if (route != null) {
+                Handler handler = Handlers.bind(clazz, instanceObject);
+                long timeout = route.timeout() > 0 ? route.timeout() : config.asyncTimeout;
+                if (CompletionStage.class.isAssignableFrom(clazz.getReturnType()) && timeout > 0) {
+                    handler = withTimeout(handler, timeout);
+                }
+                if (route.maxConcurrency() > 0) {
+                    handler = admission.limit(handler, route.maxConcurrency());
+                }
+                if (route.cacheTtl() > 0) {
+                    // 命中缓存的请求不占用该路由的并发名额
+                    ResponseCache cache = new ResponseCache(route, compression, executor);
+                    handler = cache.wrap(handler);
+                    if (timeout > 0) {
+                        // 合并等待的请求同样受超时限制, 执行处理器的请求卡住时不会让它们一直等下去
+                        handler = withTimeout(handler, timeout);
+                    }
+                    registerCacheGauges(route.url(), cache);
+                }
                 for (String reqType : route.method()) {
-                    registerHandler(route.url(), reqType, clazz, instanceObject);
+                    registerHandler(route.url(), reqType, handler);
                 }
             } else if (errorHandler != null) {
                 registerErrorHandler(errorHandler.value(), clazz, instanceObject);
@@ -77,102 +190,613 @@ public class Jlask {
         }
     }
 
-    private void registerHandler(String target, String reqType, Method method, Object instanceObject) {
-        handlers.put((target + reqType).hashCode(), req -> (Response) method.invoke(instanceObject, req));
+    // 异步处理器的结果超过 timeoutMillis 仍未完成时以 TimeoutException 结束 (返回 504); 处理器自己的 future 不受影响
+    // 计时任务只通过 holder 引用结果, 提前完成的请求不会被时间轮留到超时
+    private Handler withTimeout(Handler handler, long timeoutMillis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        return req -> {
+            Response res = handler.handle(req);
+            CompletableFuture<Response> pending = res.getPending();
+            if (pending == null || pending.isDone()) {
+                return res;
+            }
+            AtomicReference<CompletableFuture<Response>> holder = new AtomicReference<>(pending);
+            pending.whenComplete((result, e) -> holder.set(null));
+            timer.schedule(() -> {
+                CompletableFuture<Response> expired = holder.getAndSet(null);
+                if (expired != null) {
+                    expired.completeExceptionally(new TimeoutException());
+                }
+            }, nanos);
+            return res;
+        };
+    }
+
+    private void registerHandler(String target, String reqType, Handler handler) {
+        router.add(target, reqType, handler);
     }
 
     private void registerErrorHandler(int status, Method method, Object instanceObject) {
-        errorHandlers.put(status, req -> (Response) method.invoke(instanceObject, req));
+        errorHandlers.put(status, Handlers.bind(method, instanceObject));
     }
 
     public void start() {
-        new Thread(() -> {
+        if (nioServer != null) {
+            nioServer.start();
+            return;
+        }
+        // 没有用 SO_REUSEPORT 时多个 accept 线程在同一个监听 socket 上等待; 连接都交给同一个线程池, 过载判断才是全局的
+        int acceptors = Math.max(1, config.acceptors);
+        for (int i = 0; i < acceptors; i++) {
+            String name = "jlask-acceptor-" + i;
+            ServerSocketChannel listener = listeners[i % listeners.length];
+            new Thread(() -> accept(listener), name).start();
+        }
+    }
+
+    private void accept(ServerSocketChannel listener) {
+        try {
+            while (true) {
+                SocketChannel channel = listener.accept();
+                if (admission.saturated()) {
+                    // 过载时在 accept 线程直接拒绝, 不再让连接排队等待工作线程
+                    admission.reject(channel);
+                    continue;
+                }
+                try {
+                    Listeners.configure(channel, config);
+                } catch (IOException e) {
+                    channel.close();
+                    continue;
+                }
+                Socket socket = channel.socket();
+                executor.execute(() -> handleConnection(socket));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // BIO 连接在请求之间保留的状态; 异步处理器未完成时连接不占用线程, 结果就绪后由线程池中的线程接着处理
+    private static class BioConnection {
+        final Socket socket;
+        final Watchdog watchdog;
+        final RequestReader reader;
+        final ResponseWriter out;
+        final String remoteAddress;
+        int served;
+
+        BioConnection(Socket socket, Watchdog watchdog, RequestReader reader, ResponseWriter out) {
+            this.socket = socket;
+            this.watchdog = watchdog;
+            this.reader = reader;
+            this.out = out;
+            this.remoteAddress = socket.getInetAddress().getHostAddress();
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        // 超时由计时线程直接关闭 socket, 阻塞中的读写随即抛出异常, 连接线程得以释放
+        Watchdog watchdog = new Watchdog(timer, config, () -> {
             try {
-                while (true) {
-                    Socket socket = serverSocket.accept();
-                    executor.execute(() -> {
-                        try {
-                            InputStream in = socket.getInputStream();
-                            OutputStream out = socket.getOutputStream();
-
-                            try {
-                                Request req = new Request(in);
-                                socket.shutdownInput();
-
-                                if (req.error) {
-                                    System.out.println(" * Error: 网络异常 | 傻逼Chrome预加载的第二次加载 导致的请求丢失");
-                                    socket.close();
-                                    return;
-                                }
-
-                                Response res;
-                                Integer urlMethodHash = (req.getUrl() + req.getMethod()).hashCode();
-                                // 如果请求的路径不存在，则返回404错误
-                                if (handlers.containsKey(urlMethodHash)) {
-                                    res = handlers.get(urlMethodHash).handle(req);
-                                } else if (assetsPath != null && req.getUrl().startsWith(assetsPath)) {
-                                    res = Response.RenderTemplate(req.getUrl());
-                                } else {
-                                    if (errorHandlers.containsKey(404)) {
-                                        res = errorHandlers.get(404).handle(req);
-                                    } else {
-                                        res = Response.ErrorStatus(ErrorType.Err_404);
-                                    }
-                                }
-
-                                // 如果存在错误处理器，则返回错误处理器的结果
-                                if (res.getStatus() != 200) {
-                                    if (errorHandlers.containsKey(res.getStatus())) {
-                                        res = errorHandlers.get(res.getStatus()).handle(req);
-                                    }
-                                }
-
-                                writerResponse(res, out);
-                                socket.shutdownOutput();
-
-                                String time = String.format("%.2f", (System.nanoTime() - req._firstGetByteTime) / 1000000f);
-                                System.out.println(" " + req.getMethod() + " " + req.getUrlParams() + " " + res.getVersion() + " " + res.getStatus() + " " + time + " ms");
-
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                                writerResponse(Response.ErrorStatus(ErrorType.Err_500), out);
-                            } finally {
-                                socket.close();
-                                // 目前占用的内存
-                                System.out.println(" * Memory: " + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024 + " MB / " + Runtime.getRuntime().totalMemory() / 1024 / 1024 + " MB");
-                            }
-
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        });
+        metrics.connectionOpened();
+        BioConnection conn;
+        try {
+            conn = new BioConnection(socket, watchdog, new RequestReader(socket.getInputStream(), config.maxHeaderSize, metrics, watchdog),
+                    new ResponseWriter(socket.getChannel(), metrics, watchdog));
+        } catch (IOException e) {
+            closeConnection(socket, watchdog);
+            return;
+        }
+        serve(conn, null, null);
+    }
+
+    // 依次处理连接上的请求; deferredReq 不为 null 时先写出该请求的异步结果 deferredRes
+    // 遇到未完成的异步处理器时返回但不关闭连接, 由结果的回调继续调用
+    private void serve(BioConnection conn, Request deferredReq, Response deferredRes) {
+        Socket socket = conn.socket;
+        Watchdog watchdog = conn.watchdog;
+        RequestReader reader = conn.reader;
+        ResponseWriter out = conn.out;
+        boolean detached = false;
+        // 正在处理的请求, 出现未预料的异常时按 500 记录
+        Request current = deferredReq;
+        try {
+            if (deferredReq != null) {
+                if (isLongLived(deferredRes)) {
+                    detached = detach(conn, () -> respond(conn, deferredReq, deferredRes));
+                    return;
+                }
+                if (!respond(conn, deferredReq, deferredRes)) {
+                    return;
+                }
+                current = null;
+            }
+            while (true) {
+                // 等待下一个请求的空闲超时, 第一个请求也一样, 预连接后不发数据的 socket 不会一直占着线程
+                watchdog.idle();
+
+                Request req;
+                try {
+                    req = new Request(reader);
+                } catch (RuntimeException e) {
+                    out.write(rejectHead(e));
+                    out.flush();
+                    return;
+                }
+
+                if (req.error) {
+                    if (conn.served == 0) {
+                        System.out.println(" * Error: 网络异常 | 傻逼Chrome预加载的第二次加载 导致的请求丢失");
+                    }
+                    return;
+                }
+                req.setRemoteAddress(conn.remoteAddress);
+                current = req;
+                if (config.http2 && "PRI".equals(req.getMethod()) && "HTTP/2.0".equals(req.getVersion())) {
+                    // prior knowledge: 连接前言的前半段被当作请求解析, 之后的字节交给 HTTP/2
+                    watchdog.cancel();
+                    detached = detach(conn, () -> serveHttp2(socket, reader, newHttp2(conn.remoteAddress), null));
+                    return;
+                }
+                int served = ++conn.served;
+
+                Response res;
+                if (req.getContentLength() > config.maxBodySize) {
+                    // 请求体还没读, 直接拒绝并关闭连接
+                    res = closeWith(ErrorType.Err_413);
+                } else {
+                    if ("100-continue".equalsIgnoreCase(req.getHeader("Expect"))) {
+                        out.write(ResponseEncoder.CONTINUE);
+                        out.flush();
+                    }
+                    res = upgradeHttp2(req);
+                    if (res == null) {
+                        res = service(req, served);
+                    }
+                }
+                CompletableFuture<Response> pending = res.getPending();
+                if (pending != null && !pending.isDone()) {
+                    // 异步处理器: 线程回到线程池, 期间不读后续请求; 已经完成的直接在本线程写出, 不用再切换线程
+                    detached = true;
+                    pending.whenComplete((result, e) -> {
+                        if (e != null) {
+                            abort(conn, req, e);
+                        } else {
+                            serve(conn, req, result);
                         }
                     });
+                    return;
                 }
-            } catch (IOException e) {
+                Response result = pending != null ? pending.join() : res;
+                if (isLongLived(result)) {
+                    detached = detach(conn, () -> respond(conn, req, result));
+                    return;
+                }
+                if (!respond(conn, req, result)) {
+                    return;
+                }
+                current = null;
+            }
+        } catch (IOException e) {
+            if (!watchdog.isExpired()) {
                 e.printStackTrace();
+            }
+        } catch (Throwable e) {
+            // 未预料的异常 (包括 Error): 连接随后关闭, 正在处理的请求按 500 记录
+            e.printStackTrace();
+            if (current != null) {
+                complete(current, Response.ErrorStatus(ErrorType.Err_500));
+            }
+        } finally {
+            if (!detached) {
+                closeConnection(socket, watchdog);
+            }
+        }
+    }
+
+    // 异步结果异常结束 (service 本身出错): 连接已脱离 serve, 在这里关闭并按 500 记录
+    private void abort(BioConnection conn, Request req, Throwable e) {
+        e.printStackTrace();
+        complete(req, Response.ErrorStatus(ErrorType.Err_500));
+        closeConnection(conn.socket, conn.watchdog);
+    }
+
+    // 写出一个响应; 连接随后关闭或已交给 WebSocket / HTTP/2 时返回 false
+    private boolean respond(BioConnection conn, Request req, Response res) throws IOException {
+        boolean keepAlive = isKeepAlive(res);
+
+        conn.out.write(res);
+        // 流水线请求: 缓冲区里还有后续请求时先不 flush, 攒到一起按顺序写出
+        if (!keepAlive || !conn.reader.hasBuffered()) {
+            conn.out.flush();
+        }
+        complete(req, res);
+
+        if (res.getWebSocket() != null) {
+            conn.out.flush();
+            conn.watchdog.cancel();
+            serveWebSocket(conn.socket, conn.reader, res.getWebSocket());
+            return false;
+        }
+        if (res.getHttp2() != null) {
+            conn.out.flush();
+            conn.watchdog.cancel();
+            serveHttp2(conn.socket, conn.reader, res.getHttp2(), req);
+            return false;
+        }
+        if (!keepAlive) {
+            conn.socket.shutdownOutput();
+            return false;
+        }
+        return true;
+    }
+
+    // 写出后连接会被长期占用的响应: SSE 推送、WebSocket 握手和升级到 HTTP/2
+    private static boolean isLongLived(Response res) {
+        return res.getEvents() != null || res.getWebSocket() != null || res.getHttp2() != null;
+    }
+
+    private interface ConnectionTask {
+        void run() throws IOException;
+    }
+
+    // 连接余下的生命周期交给单独的虚拟线程, 固定线程池的工作线程立即释放, 长连接再多也不会占满线程池
+    // 虚拟线程模式下本来就不占平台线程, 直接在当前线程执行; 返回 true 表示已交出, 连接由新线程关闭
+    private boolean detach(BioConnection conn, ConnectionTask task) throws IOException {
+        if (config.executor != ExecutorMode.PLATFORM) {
+            task.run();
+            return false;
+        }
+        Thread.ofVirtual().name("jlask-conn-" + conn.remoteAddress).start(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                if (!conn.watchdog.isExpired()) {
+                    e.printStackTrace();
+                }
             } finally {
+                closeConnection(conn.socket, conn.watchdog);
+            }
+        });
+        return true;
+    }
+
+    private void closeConnection(Socket socket, Watchdog watchdog) {
+        watchdog.cancel();
+        metrics.connectionClosed();
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // 连接自己的线程 (固定线程池模式下是单独的虚拟线程) 阻塞读帧, 回调直接在该线程中执行; 其他线程发送时在锁内阻塞写
+    private void serveWebSocket(Socket socket, RequestReader reader, WebSocket webSocket) throws IOException {
+        webSocket.open(blockingSink(socket.getChannel()), null);
+        try {
+            webSocket.feed(reader.takeBuffered());
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while (!webSocket.isInputClosed() && (n = in.read(buf)) != -1) {
+                metrics.bytesIn(n);
+                webSocket.feed(ByteBuffer.wrap(buf, 0, n));
+            }
+        } catch (IOException ignored) {
+            // 连接被本端关闭或客户端异常断开
+        } finally {
+            webSocket.closed();
+        }
+    }
+
+    // 同样由连接自己的线程阻塞读帧, 只有各个流的处理器使用线程池; 响应由工作线程在锁内阻塞写, 帧之间不会交错
+    private void serveHttp2(Socket socket, RequestReader reader, Http2Connection http2, Request upgrade) throws IOException {
+        http2.open(blockingSink(socket.getChannel()), upgrade);
+        try {
+            http2.feed(reader.takeBuffered());
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[16 * 1024];
+            int n;
+            while (!http2.isClosed() && (n = in.read(buf)) != -1) {
+                metrics.bytesIn(n);
+                http2.feed(ByteBuffer.wrap(buf, 0, n));
+            }
+        } catch (IOException ignored) {
+            // 连接被本端关闭或客户端异常断开
+        } finally {
+            http2.closed();
+        }
+    }
+
+    // BIO 连接的发送端: 调用线程在锁内直接阻塞写 socket
+    private Sink blockingSink(SocketChannel channel) {
+        ReentrantLock lock = new ReentrantLock();
+        return new Sink() {
+            @Override
+            public boolean offer(ByteBuffer data) {
+                lock.lock();
                 try {
-                    serverSocket.close();
+                    while (data.hasRemaining()) {
+                        metrics.bytesOut(channel.write(data));
+                    }
+                    return true;
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    return false;
+                } finally {
+                    lock.unlock();
                 }
             }
-        }).start();
+
+            @Override
+            public void close() {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+    }
+
+    Http2Connection newHttp2(String remoteAddress) {
+        return new Http2Connection(this, config, executor, admission, timer, remoteAddress);
+    }
+
+    // 不带请求体的 HTTP/1.1 请求带有 Upgrade: h2c 和 HTTP2-Settings 时返回 101, 连接随后改用 HTTP/2, 该请求作为流 1 处理
+    // 不满足条件时返回 null, 按 HTTP/1.1 处理; 带请求体的升级请求同样按 HTTP/1.1 处理, 请求体不必跨协议读取
+    Response upgradeHttp2(Request req) {
+        if (!config.http2 || !"HTTP/1.1".equals(req.getVersion()) || req.getContentLength() > 0) {
+            return null;
+        }
+        String upgrade = req.getHeader("Upgrade");
+        String connection = req.getHeader("Connection");
+        if (upgrade == null || !"h2c".equalsIgnoreCase(upgrade.trim()) || connection == null
+                || !connection.toLowerCase().contains("upgrade") || req.getHeader("HTTP2-Settings") == null) {
+            return null;
+        }
+        return Response.SwitchingToHttp2(newHttp2(req.getRemoteAddress()));
     }
 
-    private void writerResponse(Response res, OutputStream out) throws IOException {
-        PrintWriter writer = new PrintWriter(out, true);
-        writer.println(res.getVersion() + res.getStatus());
+    // 分发请求并补上连接相关的响应头, served 为当前连接已收到的请求数
+    // 处理器异步时返回占位响应 (getPending() 不为 null), 其中的 future 在线程池中得到补好响应头的最终响应, 不会异常结束
+    Response service(Request req, int served) {
+        req.setFileSizeThreshold(config.fileSizeThreshold);
+
+        Response res;
+        try {
+            res = limitedDispatch(req);
+            CompletableFuture<Response> pending = res.getPending();
+            if (pending != null) {
+                return Response.Deferred(pending
+                        .thenCompose(result -> errorPage(req, result))
+                        .handleAsync((result, e) -> e == null ? finish(req, served, result) : failed(req, served, e, true), executor));
+            }
+        } catch (Throwable e) {
+            // 处理器抛出的 Error 同样返回 500 并关闭连接, 不让连接停在处理中
+            return failed(req, served, e, false);
+        }
+        return finish(req, served, res);
+    }
 
-        for (Map.Entry<String, String> entry : res.getHeaders().entrySet()) {
-            writer.println(entry.getKey() + ": " + entry.getValue());
+    private Response finish(Request req, int served, Response res) {
+        try {
+            if (compression != null) {
+                res = compression.apply(req, res);
+            }
+        } catch (Throwable e) {
+            return failed(req, served, e, false);
         }
+        return withConnection(req, served, res, true, true);
+    }
 
-        writer.println();
-        if (res.getBody() != null) {
-            writer.print(res.getBody());
-            writer.flush();
+    // 处理器抛出异常或异步处理器 (async) 异常结束; 超时返回 504, 其他异常返回 500, 之后关闭连接
+    private Response failed(Request req, int served, Throwable e, boolean async) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (req.isMalformedBody()) {
+            // 请求体在处理器第一次访问时才解析, 格式错误仍然返回 400
+            req.release();
+            return closeWith(ErrorType.Err_400);
+        }
+        Response res;
+        if (e instanceof TimeoutException) {
+            // 处理器可能还在使用请求, 不再读取剩余的请求体, 连接随响应关闭
+            res = Response.ErrorStatus(ErrorType.Err_504);
         } else {
-            out.write(res.getBinaryBody());
+            e.printStackTrace();
+            res = Response.ErrorStatus(ErrorType.Err_500);
+        }
+        // 同步处理器的异常仍然直接返回 500 页面; 异步处理器的异常结束按状态码交给 @ErrorHandler, 错误处理器本身须是同步的
+        if (async && errorHandlers.containsKey(res.getStatus())) {
+            try {
+                Response page = errorHandlers.get(res.getStatus()).handle(req);
+                if (page.getPending() == null) {
+                    res = page;
+                }
+            } catch (Exception ignored) {
+                // 错误处理器本身失败时使用默认页面
+            }
+        }
+        return withConnection(req, served, res, false, !(e instanceof TimeoutException));
+    }
+
+    private Response withConnection(Request req, int served, Response res, boolean keepAlive, boolean skipBody) {
+        keepAlive &= config.keepAlive && req.isKeepAlive() && served < config.maxKeepAliveRequests;
+        try {
+            if (!skipBody || !req.skipBody(config.bodyBufferSize)) {
+                keepAlive = false;
+            }
+        } catch (IOException e) {
+            keepAlive = false;
+        }
+        req.release();
+
+        if (res.getWriter() != null && "HTTP/1.0".equals(req.getVersion())) {
+            // HTTP/1.0 不支持 chunked, 直接发送原始字节, 以关闭连接表示响应结束
+            res.getHeaders().remove("Transfer-Encoding");
+            keepAlive = false;
+        }
+        if (res.getEvents() != null) {
+            // 事件流以关闭连接结束, 连接不再复用
+            keepAlive = false;
+        }
+        if (res.getWebSocket() != null) {
+            // 101 响应保留 Connection: Upgrade
+            return res;
+        }
+        if (keepAlive) {
+            res.getHeaders().put("Connection", "keep-alive");
+            res.getHeaders().put("Keep-Alive", "timeout=" + config.keepAliveTimeout / 1000 + ", max=" + (config.maxKeepAliveRequests - served));
+        } else {
+            res.getHeaders().put("Connection", "close");
+        }
+        return res;
+    }
+
+    // 请求报文有问题时回复对应的错误页, 然后关闭连接
+    static Response closeWith(ErrorType type) {
+        Response res = Response.ErrorStatus(type);
+        res.getHeaders().put("Connection", "close");
+        return res;
+    }
+
+    // 请求头无法解析或请求体边界不可信 (见 RequestParser.contentLength): Transfer-Encoding 返回 501, 其余返回 400, 之后都关闭连接
+    static Response rejectHead(Exception e) {
+        return closeWith(e instanceof UnsupportedOperationException ? ErrorType.Err_501 : ErrorType.Err_400);
+    }
+
+    private Response limitedDispatch(Request req) throws Exception {
+        if (!admission.admit()) {
+            return admission.overloaded();
+        }
+        if (limiter != null) {
+            limiter.acquire();
+        }
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        boolean deferred = false;
+        try {
+            Response res = dispatch(req);
+            if (res.getPending() != null) {
+                // 异步处理器完成时才算执行结束, 名额和 inFlight 一直占到那时
+                deferred = true;
+                res.getPending().whenComplete((result, e) -> finished(start));
+            }
+            return res;
+        } finally {
+            if (!deferred) {
+                finished(start);
+            }
+        }
+    }
+
+    private void finished(long start) {
+        admission.sample(System.nanoTime() - start);
+        inFlight.decrementAndGet();
+        if (limiter != null) {
+            limiter.release();
+        }
+    }
+
+    // 异步处理器的结果同样按状态码交给错误处理器
+    private CompletableFuture<Response> errorPage(Request req, Response res) {
+        Handler handler = res.getStatus() != 200 ? errorHandlers.get(res.getStatus()) : null;
+        if (handler == null) {
+            return CompletableFuture.completedFuture(res);
+        }
+        try {
+            Response page = handler.handle(req);
+            return page.getPending() != null ? page.getPending() : CompletableFuture.completedFuture(page);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // 正在执行处理器的请求数
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    // 因达到 maxConcurrency 而排队等待的请求数
+    public int getQueued() {
+        return limiter == null ? 0 : limiter.getQueueLength();
+    }
+
+    // 实际监听的地址, 端口为 0 时由系统分配
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    // 静态资源缓存, 未开启时为 null
+    public AssetCache getAssetCache() {
+        return staticFiles.cache();
+    }
+
+    static boolean isKeepAlive(Response res) {
+        return !"close".equals(res.getHeaders().get("Connection"));
+    }
+
+    // 响应交给连接后调用: 记录指标, 开启时写控制台日志和访问日志; 内存占用改为通过指标查看
+    void complete(Request req, Response res) {
+        if (res.getHttp2() != null) {
+            // h2c 升级的 101 不记录, 同一个请求作为流 1 的响应发出后再记录, 否则会被统计两次
+            return;
+        }
+        long nanos = System.nanoTime() - req._firstGetByteTime;
+        metrics.record(req, res, nanos);
+        if (consoleLog != null) {
+            consoleLog.log(req, res, nanos);
+        }
+        if (accessLog != null) {
+            accessLog.log(req, res, nanos);
+        }
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private Response dispatch(Request req) throws Exception {
+        Response res;
+        Router.Node route = router.find(req.getRawPath(), req);
+        // 路径存在但不支持该方法返回405, 路径不存在返回404
+        if (route != null) {
+            Handler handler = route.handler(req.getMethod());
+            req.setRoute(route.pattern());
+            if (handler != null) {
+                res = handler.handle(req);
+            } else {
+                res = Response.ErrorStatus(ErrorType.Err_405);
+                res.getHeaders().put("Allow", route.allow());
+            }
+        } else if (assetsPath != null && req.getUrl().startsWith(assetsPath)) {
+            req.setRoute(assetsPath + "/*");
+            res = staticFiles.serve(req);
+        } else {
+            if (errorHandlers.containsKey(404)) {
+                res = errorHandlers.get(404).handle(req);
+            } else {
+                res = Response.ErrorStatus(ErrorType.Err_404);
+            }
+        }
+
+        // 如果存在错误处理器，则返回错误处理器的结果
+        if (res.getStatus() != 200) {
+            if (errorHandlers.containsKey(res.getStatus())) {
+                res = errorHandlers.get(res.getStatus()).handle(req);
+            }
         }
+        return res;
     }
 }
@@ -0,0 +1,71 @@
+package org.gtio.jlask;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// 无锁的对数线性直方图 (HdrHistogram 的简化版): 以微秒为单位, 每个 2 的幂区间再分 8 个桶, 相对误差不超过 12.5%
+// 记录只是一次原子自增, 分位数在抓取时按桶累加计算
+class LatencyHistogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int LINEAR = 16;
+    // 最大约 2^40 微秒, 超出的记入最后一个桶
+    private static final int BUCKETS = LINEAR + (40 - 4) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double sumSeconds() {
+        return sumMicros.sum() / 1e6;
+    }
+
+    // 返回分位数所在桶的上界, 单位秒
+    double quantileSeconds(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i) / 1e6;
+            }
+        }
+        return upperBound(BUCKETS - 1) / 1e6;
+    }
+
+    static int index(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return Math.min(LINEAR + (exponent - 4) * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index + 1;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - 3);
+    }
+}
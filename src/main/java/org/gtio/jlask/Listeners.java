@@ -0,0 +1,62 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// 监听 socket 和连接的 socket 选项
+// acceptors > 1 且系统支持 SO_REUSEPORT 时每个 accept 线程绑定自己的监听 socket, 由内核把新连接分散到各自的积压队列,
+// 不支持时 (或 reusePort = false) 所有 accept 线程共用一个监听 socket
+final class Listeners {
+
+    private Listeners() {
+    }
+
+    static ServerSocketChannel[] open(InetSocketAddress address, Config config) throws IOException {
+        int count = Math.max(1, config.acceptors);
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = count > 1 && config.reusePort && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        ServerSocketChannel[] listeners = new ServerSocketChannel[reusePort ? count : 1];
+        try {
+            listeners[0] = bind(first, address, config, reusePort);
+            // 端口为 0 时后面的 socket 绑定第一个 socket 实际拿到的端口
+            InetSocketAddress bound = (InetSocketAddress) first.getLocalAddress();
+            for (int i = 1; i < listeners.length; i++) {
+                listeners[i] = bind(ServerSocketChannel.open(), bound, config, true);
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel listener : listeners) {
+                if (listener != null) {
+                    listener.close();
+                }
+            }
+            first.close();
+            throw e;
+        }
+        return listeners;
+    }
+
+    private static ServerSocketChannel bind(ServerSocketChannel channel, InetSocketAddress address, Config config, boolean reusePort) throws IOException {
+        if (reusePort) {
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        // 接收缓冲要在 listen 之前设置, 连接建立时协商的窗口扩大因子才会按它计算
+        if (config.receiveBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize);
+        }
+        channel.bind(address, config.backlog);
+        return channel;
+    }
+
+    // accept 得到的连接
+    static void configure(SocketChannel channel, Config config) throws IOException {
+        if (config.tcpNoDelay) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        if (config.sendBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.sendBufferSize);
+        }
+    }
+}
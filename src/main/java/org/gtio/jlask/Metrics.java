@@ -0,0 +1,181 @@
+package org.gtio.jlask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// 内置指标: 按路由和状态码统计请求数与延迟, 以及收发字节、连接数和各种队列深度, 以 Prometheus 文本格式输出
+// 记录路径上只有 LongAdder 和原子数组的自增, 不加锁
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder connectionsTotal = new LongAdder();
+    private final List<Callback> callbacks = new ArrayList<>();
+
+    // labels 为 Prometheus 标签部分 (不含大括号), 没有标签时为 null; type 为 gauge 或 counter
+    private record Callback(String name, String help, String type, String labels, LongSupplier value) {
+    }
+
+    // 同一路由下各状态码的计数共用一个延迟直方图
+    private static class RouteStats {
+        final String method;
+        final String route;
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        RouteStats(String method, String route) {
+            this.method = method;
+            this.route = route;
+        }
+    }
+
+    // 启动时注册, 抓取时读取当前值
+    void gauge(String name, String help, LongSupplier value) {
+        callbacks.add(new Callback(name, help, "gauge", null, value));
+    }
+
+    // 按路由区分的指标, 同名的指标在输出时归到一组
+    void gauge(String name, String help, String method, String route, LongSupplier value) {
+        callbacks.add(new Callback(name, help, "gauge", routeLabels(method, route), value));
+    }
+
+    // 只增不减的计数 (名称以 _total 结尾), 由 value 提供累计值, 输出为 counter 才能用 rate() / increase()
+    void counter(String name, String help, LongSupplier value) {
+        callbacks.add(new Callback(name, help, "counter", null, value));
+    }
+
+    void counter(String name, String help, String method, String route, LongSupplier value) {
+        callbacks.add(new Callback(name, help, "counter", routeLabels(method, route), value));
+    }
+
+    private static String routeLabels(String method, String route) {
+        StringBuilder labels = new StringBuilder("method=\"");
+        escape(labels, method).append("\",route=\"");
+        return escape(labels, route).append('"').toString();
+    }
+
+    // route 为匹配到的路由模板, 未匹配的请求归到固定的标签下, 避免标签数量随 URL 增长
+    void record(Request req, Response res, long nanos) {
+        String route = req.getRoute() != null ? req.getRoute() : res.getStatus() == 404 ? "unmatched" : "other";
+        String method = req.getMethod() != null ? req.getMethod() : "UNKNOWN";
+        RouteStats stats = routes.computeIfAbsent(method + " " + route, key -> new RouteStats(method, route));
+        stats.statuses.computeIfAbsent(res.getStatus(), status -> new LongAdder()).increment();
+        stats.latency.record(nanos);
+    }
+
+    void bytesIn(long n) {
+        bytesIn.add(n);
+    }
+
+    void bytesOut(long n) {
+        bytesOut.add(n);
+    }
+
+    void connectionOpened() {
+        connections.increment();
+        connectionsTotal.increment();
+    }
+
+    void connectionClosed() {
+        connections.decrement();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getOpenConnections() {
+        return connections.sum();
+    }
+
+    // Prometheus text exposition format 0.0.4
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP jlask_requests_total Requests handled, by route and status.\n");
+        sb.append("# TYPE jlask_requests_total counter\n");
+        for (RouteStats stats : routes.values()) {
+            for (Map.Entry<Integer, LongAdder> entry : stats.statuses.entrySet()) {
+                sb.append("jlask_requests_total{");
+                labels(sb, stats).append(",status=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+            }
+        }
+        sb.append("# HELP jlask_request_duration_seconds Time from the first request byte to the response being handed to the connection.\n");
+        sb.append("# TYPE jlask_request_duration_seconds summary\n");
+        for (RouteStats stats : routes.values()) {
+            for (double quantile : QUANTILES) {
+                sb.append("jlask_request_duration_seconds{");
+                labels(sb, stats).append(",quantile=\"").append(quantile).append("\"} ").append(stats.latency.quantileSeconds(quantile)).append('\n');
+            }
+            sb.append("jlask_request_duration_seconds_sum{");
+            labels(sb, stats).append("} ").append(stats.latency.sumSeconds()).append('\n');
+            sb.append("jlask_request_duration_seconds_count{");
+            labels(sb, stats).append("} ").append(stats.latency.count()).append('\n');
+        }
+        counter(sb, "jlask_received_bytes_total", "Bytes read from client connections.", bytesIn.sum());
+        counter(sb, "jlask_sent_bytes_total", "Bytes written to client connections.", bytesOut.sum());
+        counter(sb, "jlask_connections_total", "Connections accepted.", connectionsTotal.sum());
+        gauge(sb, "jlask_connections_open", "Connections currently open.", connections.sum());
+        Map<String, List<Callback>> families = new LinkedHashMap<>();
+        for (Callback callback : callbacks) {
+            families.computeIfAbsent(callback.name, name -> new ArrayList<>()).add(callback);
+        }
+        for (List<Callback> family : families.values()) {
+            Callback first = family.get(0);
+            sb.append("# HELP ").append(first.name).append(' ').append(first.help).append('\n');
+            sb.append("# TYPE ").append(first.name).append(' ').append(first.type).append('\n');
+            for (Callback metric : family) {
+                sb.append(metric.name);
+                if (metric.labels != null) {
+                    sb.append('{').append(metric.labels).append('}');
+                }
+                sb.append(' ').append(metric.value.getAsLong()).append('\n');
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        gauge(sb, "jvm_memory_used_bytes", "Used heap memory.", runtime.totalMemory() - runtime.freeMemory());
+        gauge(sb, "jvm_memory_committed_bytes", "Committed heap memory.", runtime.totalMemory());
+        return sb.toString();
+    }
+
+    private static StringBuilder labels(StringBuilder sb, RouteStats stats) {
+        sb.append("method=\"");
+        escape(sb, stats.method).append("\",route=\"");
+        return escape(sb, stats.route).append('"');
+    }
+
+    private static StringBuilder escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '"' -> sb.append("\\\"");
+                case '\n' -> sb.append("\\n");
+                default -> sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
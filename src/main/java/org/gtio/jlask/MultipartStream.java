@@ -0,0 +1,229 @@
+package org.gtio.jlask;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+// 按顺序逐个读取 multipart/form-data 的各个部分, 超过阈值的部分写入临时文件,
+// 内存占用只和阈值有关, 与上传的总大小无关
+public class MultipartStream {
+    private final InputStream in;
+    // \r\n--boundary
+    private final byte[] delimiter;
+    private final int threshold;
+    private final List<Path> tempFiles;
+    private final byte[] buf;
+    private int start;
+    private int end;
+    private boolean started;
+    private boolean finished;
+
+    MultipartStream(InputStream in, String boundary, int threshold, List<Path> tempFiles) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.threshold = threshold;
+        this.tempFiles = tempFiles;
+        this.buf = new byte[Math.max(8192, delimiter.length * 4)];
+    }
+
+    // 读取下一个部分, 没有更多部分时返回 null
+    public formData next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            // 第一个分隔符前面没有 \r\n, 之前的内容是可以忽略的前导
+            started = true;
+            skipTo(2);
+        }
+        if (!readAfterDelimiter()) {
+            finished = true;
+            return null;
+        }
+
+        formData part = new formData();
+        readPartHeaders(part);
+        readPartContent(part);
+        return part;
+    }
+
+    // 跳过数据直到分隔符 (从 delimiter[from] 开始匹配)
+    private void skipTo(int from) throws IOException {
+        while (true) {
+            int index = indexOf(from);
+            if (index != -1) {
+                start = index + delimiter.length - from;
+                return;
+            }
+            start = Math.max(start, end - delimiter.length);
+            if (fill() == -1) {
+                throw new EOFException("multipart 请求体不完整");
+            }
+        }
+    }
+
+    // 分隔符后紧跟 -- 表示结束, 否则是 \r\n 和下一个部分
+    private boolean readAfterDelimiter() throws IOException {
+        require(2);
+        if (buf[start] == '-' && buf[start + 1] == '-') {
+            start += 2;
+            return false;
+        }
+        while (true) {
+            require(1);
+            byte b = buf[start++];
+            if (b == '\n') {
+                return true;
+            }
+            if (b != '\r' && b != ' ' && b != '\t') {
+                throw new IOException("multipart 分隔符格式错误");
+            }
+        }
+    }
+
+    private void readPartHeaders(formData part) throws IOException {
+        while (true) {
+            int lineEnd = RequestParser.indexOf(buf, start, end, (byte) '\n');
+            if (lineEnd == -1) {
+                if (fill() == -1) {
+                    throw new EOFException("multipart 请求体不完整");
+                }
+                continue;
+            }
+            int lineStart = start;
+            start = lineEnd + 1;
+            int to = lineEnd > lineStart && buf[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (to == lineStart) {
+                return;
+            }
+            String line = new String(buf, lineStart, to - lineStart, StandardCharsets.UTF_8);
+            int colon = line.indexOf(':');
+            if (colon == -1) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Disposition")) {
+                for (String kv : value.split(";")) {
+                    kv = kv.trim();
+                    if (kv.startsWith("name=")) {
+                        part.name = unquote(kv.substring(5));
+                    } else if (kv.startsWith("filename=")) {
+                        part.filename = unquote(kv.substring(9));
+                    }
+                }
+            } else if (name.equalsIgnoreCase("Content-Type")) {
+                part.contentType = value;
+            } else if (name.equalsIgnoreCase("Content-Transfer-Encoding")) {
+                part.contentTransferEncoding = value;
+            }
+        }
+    }
+
+    private void readPartContent(formData part) throws IOException {
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        OutputStream file = null;
+        long size = 0;
+        try {
+            while (true) {
+                int index = indexOf(0);
+                // 分隔符可能跨越缓冲区边界, 末尾不足一个分隔符长度的数据留到下一轮
+                int to = index != -1 ? index : Math.max(start, end - delimiter.length + 1);
+                int n = to - start;
+                if (n > 0) {
+                    if (file == null && size + n > threshold) {
+                        part.file = Files.createTempFile("jlask-", ".part");
+                        tempFiles.add(part.file);
+                        file = Files.newOutputStream(part.file);
+                        memory.writeTo(file);
+                        memory = null;
+                    }
+                    if (file != null) {
+                        file.write(buf, start, n);
+                    } else {
+                        memory.write(buf, start, n);
+                    }
+                    size += n;
+                    start = to;
+                }
+                if (index != -1) {
+                    start = index + delimiter.length;
+                    break;
+                }
+                if (fill() == -1) {
+                    throw new EOFException("multipart 请求体不完整");
+                }
+            }
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+
+        part.size = size;
+        if (part.file != null) {
+            return;
+        }
+        byte[] content = memory.toByteArray();
+        if ("base64".equals(part.contentTransferEncoding)) {
+            part.binaryValue = Base64.getMimeDecoder().decode(content);
+        } else if (part.filename != null) {
+            part.binaryValue = content;
+        } else {
+            part.value = new String(content, StandardCharsets.UTF_8);
+        }
+    }
+
+    private int indexOf(int from) {
+        int length = delimiter.length - from;
+        outer:
+        for (int i = start; i <= end - length; i++) {
+            for (int j = 0; j < length; j++) {
+                if (buf[i + j] != delimiter[from + j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void require(int n) throws IOException {
+        while (end - start < n) {
+            if (fill() == -1) {
+                throw new EOFException("multipart 请求体不完整");
+            }
+        }
+    }
+
+    private int fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buf.length) {
+            throw new IOException("multipart 头部过大");
+        }
+        int n = in.read(buf, end, buf.length - end);
+        if (n > 0) {
+            end += n;
+        }
+        return n;
+    }
+
+    private static String unquote(String value) {
+        value = value.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
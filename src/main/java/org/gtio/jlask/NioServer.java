@@ -0,0 +1,884 @@
+package org.gtio.jlask;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 非阻塞引擎: 少量事件循环线程负责 accept/读/写, 只有完整的请求才会交给线程池处理,
+// 空闲连接不占用线程也不持有读缓冲
+class NioServer {
+    private final ServerSocketChannel[] listeners;
+    private final EventLoop[] loops;
+    private final Config config;
+    private final ExecutorService executor;
+    private final Admission admission;
+    private final TimerWheel timer;
+    private final Jlask app;
+    private final Metrics metrics;
+
+    NioServer(ServerSocketChannel[] listeners, Config config, ExecutorService executor, Admission admission, TimerWheel timer, Jlask app) throws IOException {
+        this.listeners = listeners;
+        this.config = config;
+        this.executor = executor;
+        this.admission = admission;
+        this.timer = timer;
+        this.app = app;
+        this.metrics = app.getMetrics();
+        loops = new EventLoop[config.ioThreads];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+        }
+        // 前 acceptors 个事件循环负责 accept, 第 a 个只把连接分给下标除以 acceptors 余 a 的事件循环;
+        // 每个监听 socket 都要有事件循环接收, 共用一个监听 socket 时它注册到所有负责 accept 的事件循环
+        int acceptors = Math.min(Math.max(1, config.acceptors), loops.length);
+        for (int i = 0; i < Math.max(acceptors, listeners.length); i++) {
+            ServerSocketChannel listener = listeners[i % listeners.length];
+            listener.configureBlocking(false);
+            int first = i % acceptors;
+            EventLoop[] shard = new EventLoop[(loops.length - first + acceptors - 1) / acceptors];
+            for (int j = 0; j < shard.length; j++) {
+                shard[j] = loops[first + j * acceptors];
+            }
+            listener.register(loops[first].selector, SelectionKey.OP_ACCEPT, new Acceptor(listener, shard));
+        }
+    }
+
+    void start() {
+        for (int i = 0; i < loops.length; i++) {
+            new Thread(loops[i], "jlask-nio-" + i).start();
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // 同一个事件循环上的连接共用一块读缓冲和解析器
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        private final RequestParser parser = new RequestParser();
+        private Thread thread;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (listeners[0].isOpen()) {
+                try {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            // 单个任务出错不能让事件循环退出, 否则该循环上的所有连接都不再被处理
+                            e.printStackTrace();
+                        }
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            try {
+                                ((Acceptor) key.attachment()).accept();
+                            } catch (RuntimeException e) {
+                                e.printStackTrace();
+                            }
+                            continue;
+                        }
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                conn.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.flush();
+                            }
+                        } catch (IOException e) {
+                            conn.close();
+                        } catch (RuntimeException e) {
+                            // 只关闭出错的连接, 事件循环继续处理其余的 key
+                            e.printStackTrace();
+                            conn.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                Connection conn = new Connection(this, key, channel);
+                key.attach(conn);
+                conn.updateTimeout();
+                metrics.connectionOpened();
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+    }
+
+    // 一个监听 socket 在某个事件循环上的 accept, 新连接轮流分给 shard 中的事件循环
+    private class Acceptor {
+        private final ServerSocketChannel listener;
+        private final EventLoop[] shard;
+        private int next = 0;
+
+        Acceptor(ServerSocketChannel listener, EventLoop[] shard) {
+            this.listener = listener;
+            this.shard = shard;
+        }
+
+        void accept() throws IOException {
+            SocketChannel channel;
+            // 共用监听 socket 时其他事件循环可能已经取走了连接, 这里得到 null
+            while ((channel = listener.accept()) != null) {
+                channel.configureBlocking(false);
+                if (admission.saturated()) {
+                    // 过载时在 accept 中直接写出 503 并关闭, 新连接不进入事件循环
+                    admission.reject(channel);
+                    continue;
+                }
+                try {
+                    Listeners.configure(channel, config);
+                } catch (IOException e) {
+                    channel.close();
+                    continue;
+                }
+                EventLoop loop = shard[next];
+                next = next + 1 == shard.length ? 0 : next + 1;
+                SocketChannel accepted = channel;
+                loop.execute(() -> loop.register(accepted));
+            }
+        }
+    }
+
+    private class Connection {
+        // 流式响应在事件循环中排队等待写出的数据上限, 超过后生成响应的工作线程阻塞
+        private static final long STREAM_HIGH_WATER = 256 * 1024;
+        // SSE / WebSocket 连接积压超过该字节数时断开, 不让慢客户端拖住发送方
+        private static final long PUSH_HIGH_WATER = 1024 * 1024;
+        private final EventLoop loop;
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        // 当前响应来自池的响应头, 响应写完后归还
+        private ByteBuffer head;
+        // out 写完之后还要发送的文件区间或流
+        private FileChannel file;
+        private long filePosition;
+        private long fileEnd;
+        private InputStream stream;
+        private long streamRemaining;
+        // 流的发送块, out 写空后才读下一块, 可以复用
+        private ByteBuffer chunk;
+        // 尚未解析的请求字节, 没有数据时为 null
+        private ByteBuffer in;
+        // 正在边收边读的大请求体
+        private BodyPipe pipe;
+        // 是否有请求正在线程池中处理, 同一连接上的请求按顺序逐个处理
+        private boolean busy;
+        // 当前请求的最终响应已经放入 out
+        private boolean responded;
+        // 写完当前响应后关闭连接
+        private boolean closing;
+        private boolean continueSent;
+        // 工作线程还在生成流式响应体
+        private boolean streaming;
+        // 连接已订阅 SSE 频道或升级为 WebSocket, 数据由应用线程直接交给事件循环, 不占用工作线程
+        private Sink sink;
+        private EventStream events;
+        private WebSocket webSocket;
+        private Http2Connection http2;
+        // 流式响应或事件已交给事件循环但还没写出的字节数, 由 streamLock 保护
+        private final ReentrantLock streamLock = new ReentrantLock();
+        private final Condition drained = streamLock.newCondition();
+        private long streamQueued;
+        private boolean aborted;
+        private int served;
+        private final Watchdog watchdog;
+        private long firstByteTime;
+        private String remoteAddress;
+
+        Connection(EventLoop loop, SelectionKey key, SocketChannel channel) {
+            this.loop = loop;
+            this.key = key;
+            this.channel = channel;
+            // 计时线程只把超时交给事件循环, 由事件循环确认后关闭
+            watchdog = new Watchdog(timer, config, () -> loop.execute(this::expire));
+        }
+
+        private void expire() {
+            if (watchdog.isOverdue()) {
+                close();
+            }
+        }
+
+        // 每个连接只查一次, 长连接上的后续请求复用
+        private String remoteAddress() {
+            if (remoteAddress == null) {
+                try {
+                    remoteAddress = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+                } catch (IOException | RuntimeException e) {
+                    remoteAddress = "-";
+                }
+            }
+            return remoteAddress;
+        }
+
+        void read() throws IOException {
+            ByteBuffer buf = loop.readBuffer;
+            buf.clear();
+            int n = channel.read(buf);
+            if (n > 0) {
+                metrics.bytesIn(n);
+            }
+            if (sink != null) {
+                // WebSocket 和 HTTP/2 的帧在事件循环中解析, SSE 连接只关心客户端是否断开, 收到的数据直接丢弃
+                if (n == -1) {
+                    close();
+                } else if (webSocket != null && n > 0) {
+                    webSocket.feed(buf.flip());
+                } else if (http2 != null && n > 0) {
+                    http2.feed(buf.flip());
+                }
+                return;
+            }
+            if (n == -1) {
+                if (pipe != null) {
+                    pipe.abort();
+                    pipe = null;
+                }
+                // 客户端半关闭, 等正在处理的响应写完再关
+                if (busy) {
+                    closing = true;
+                    updateInterest();
+                } else {
+                    close();
+                }
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            watchdog.progress(n);
+            buf.flip();
+            if (pipe != null) {
+                pipe.offer(buf);
+                if (pipe.received()) {
+                    pipe = null;
+                }
+            }
+            if (buf.hasRemaining()) {
+                append(buf);
+            }
+            updateInterest();
+            process();
+        }
+
+        private void append(ByteBuffer buf) {
+            int n = buf.remaining();
+            if (in == null) {
+                firstByteTime = System.nanoTime();
+                in = ByteBuffer.allocate(Math.max(n, 1024));
+            } else if (in.remaining() < n) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(in.capacity() * 2, in.position() + n));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            in.put(buf);
+        }
+
+        // 缓冲区中凑够一个请求头 (以及不大的请求体) 就交给线程池
+        private void process() {
+            if (busy || closing || in == null) {
+                return;
+            }
+            // 流水线请求之间可能夹带多余的空行, 直接跳过
+            int start = 0;
+            while (start < in.position() && (in.get(start) == '\r' || in.get(start) == '\n')) {
+                start++;
+            }
+            if (start == in.position()) {
+                in = null;
+                return;
+            }
+            if (start > 0) {
+                in.flip().position(start);
+                in.compact();
+            }
+
+            Request req;
+            InputStream body;
+            try {
+                RequestParser parser = loop.parser;
+                int headEnd = parser.parse(in.array(), 0, in.position());
+                if (headEnd == -1) {
+                    if (in.position() > config.maxHeaderSize) {
+                        reject(ErrorType.Err_400);
+                    }
+                    return;
+                }
+                if (config.http2 && "PRI".equals(parser.method()) && "HTTP/2.0".equals(parser.version())) {
+                    // prior knowledge: 连接前言的前半段被当作请求解析, 之后的字节交给 HTTP/2
+                    startHttp2(in.flip().position(headEnd));
+                    return;
+                }
+                long contentLength = parser.contentLength();
+                if (contentLength > config.maxBodySize) {
+                    reject(ErrorType.Err_413);
+                    return;
+                }
+                if (contentLength > 0 && !continueSent && "100-continue".equalsIgnoreCase(parser.header("Expect"))) {
+                    continueSent = true;
+                    out.add(ByteBuffer.wrap(ResponseEncoder.CONTINUE));
+                    flush();
+                }
+
+                if (contentLength > config.bodyBufferSize) {
+                    req = new Request(parser);
+                    BodyPipe bodyPipe = new BodyPipe(contentLength, config.bodyBufferSize, () -> loop.execute(this::updateInterest));
+                    in.flip().position(headEnd);
+                    bodyPipe.offer(in);
+                    pipe = bodyPipe.received() ? null : bodyPipe;
+                    body = bodyPipe;
+                } else {
+                    int total = headEnd + (int) contentLength;
+                    if (in.position() < total) {
+                        return;
+                    }
+                    req = new Request(parser);
+                    body = new ByteArrayInputStream(Arrays.copyOfRange(in.array(), headEnd, total));
+                    in.flip().position(total);
+                }
+                in.compact();
+                if (in.position() == 0) {
+                    in = null;
+                }
+            } catch (IOException | RuntimeException e) {
+                reject(Jlask.rejectHead(e));
+                return;
+            }
+            req._firstGetByteTime = firstByteTime;
+            req.setRemoteAddress(remoteAddress());
+            if (admission.saturated()) {
+                // 线程池已排满, 在事件循环中直接回复 503, 不再排队
+                Response res = admission.overloaded();
+                res.getHeaders().put("Connection", "close");
+                reject(res);
+                return;
+            }
+
+            busy = true;
+            continueSent = false;
+            served++;
+            // 处理期间暂停解析, 后续流水线请求留在缓冲区里
+            updateInterest();
+            int count = served;
+            InputStream content = body;
+            firstByteTime = System.nanoTime();
+            executor.execute(() -> handle(req, content, count));
+        }
+
+        private void startHttp2(ByteBuffer rest) {
+            Http2Connection session = app.newHttp2(remoteAddress());
+            Sink frameSink = new FrameSink();
+            in = null;
+            http2 = session;
+            sink = frameSink;
+            session.open(frameSink, null);
+            session.feed(rest);
+            updateInterest();
+        }
+
+        // 在线程池中执行, 文件的打开和流的定位也在这里完成, 不阻塞事件循环
+        private void handle(Request req, InputStream body, int count) {
+            Response res;
+            try {
+                req.setBody(body);
+                Response upgrade = app.upgradeHttp2(req);
+                res = upgrade != null ? upgrade : app.service(req, count);
+            } catch (Throwable e) {
+                abort(req, e);
+                return;
+            }
+            if (res.getPending() != null) {
+                // 异步处理器: 工作线程直接返回, 结果在线程池中就绪后接着发送; 连接保持 busy, 期间不解析后续请求
+                res.getPending().whenComplete((result, e) -> {
+                    if (e != null) {
+                        abort(req, e);
+                    } else {
+                        respond(req, result);
+                    }
+                });
+                return;
+            }
+            respond(req, res);
+        }
+
+        // 处理或写响应时出现未预料的异常 (包括 Error): 连接停在 busy 状态无法继续, 直接关闭, 按 500 记录
+        private void abort(Request req, Throwable e) {
+            e.printStackTrace();
+            loop.execute(this::close);
+            app.complete(req, Response.ErrorStatus(ErrorType.Err_500));
+        }
+
+        private void respond(Request req, Response res) {
+            boolean keepAlive = Jlask.isKeepAlive(res);
+            try {
+                if (res.getFile() != null) {
+                    FileChannel fileBody = FileChannel.open(res.getFile());
+                    ByteBuffer head = ResponseEncoder.encodeHead(res);
+                    long position = res.getBodyOffset();
+                    long end = position + res.getBodyLength();
+                    loop.execute(() -> {
+                        file = fileBody;
+                        filePosition = position;
+                        fileEnd = end;
+                        send(head, null, keepAlive);
+                    });
+                } else if (res.getStream() != null) {
+                    InputStream streamBody = res.getStream();
+                    streamBody.skipNBytes(res.getBodyOffset());
+                    ByteBuffer head = ResponseEncoder.encodeHead(res);
+                    long length = res.getBodyLength();
+                    loop.execute(() -> {
+                        stream = streamBody;
+                        streamRemaining = length;
+                        send(head, null, keepAlive);
+                    });
+                } else if (res.getEvents() != null) {
+                    ByteBuffer head = ResponseEncoder.encodeHead(res);
+                    Sink eventSink = new PushSink();
+                    loop.execute(() -> {
+                        events = res.getEvents();
+                        sink = eventSink;
+                        send(head, null, keepAlive);
+                    });
+                    res.getEvents().attach(eventSink, res.getLastEventId());
+                } else if (res.getWebSocket() != null) {
+                    ByteBuffer head = ResponseEncoder.encodeHead(res);
+                    WebSocket upgraded = res.getWebSocket();
+                    Sink pushSink = new PushSink();
+                    loop.execute(() -> {
+                        sink = pushSink;
+                        webSocket = upgraded;
+                        send(head, null, true);
+                        if (!key.isValid()) {
+                            return;
+                        }
+                        // 回调在线程池中按顺序执行, 握手请求之后已经到达的帧接着解析
+                        upgraded.open(pushSink, executor);
+                        if (in != null) {
+                            upgraded.feed(in.flip());
+                            in = null;
+                        }
+                    });
+                } else if (res.getHttp2() != null) {
+                    ByteBuffer head = ResponseEncoder.encodeHead(res);
+                    Http2Connection upgraded = res.getHttp2();
+                    Sink frameSink = new FrameSink();
+                    loop.execute(() -> {
+                        sink = frameSink;
+                        http2 = upgraded;
+                        send(head, null, true);
+                        if (!key.isValid()) {
+                            return;
+                        }
+                        // 升级请求作为流 1 交给线程池, 101 之后已经到达的连接前言和帧接着解析
+                        upgraded.open(frameSink, req);
+                        if (in != null) {
+                            ByteBuffer rest = in.flip();
+                            in = null;
+                            upgraded.feed(rest);
+                        }
+                    });
+                } else if (res.getWriter() != null) {
+                    ByteBuffer head = ResponseEncoder.encodeHead(res);
+                    loop.execute(() -> {
+                        streaming = true;
+                        send(head, null, keepAlive);
+                    });
+                    writeStream(res);
+                } else {
+                    ByteBuffer head = ResponseEncoder.encodeHead(res);
+                    ByteBuffer content = ResponseEncoder.encodeBody(res);
+                    loop.execute(() -> send(head, content, keepAlive));
+                }
+            } catch (IOException e) {
+                loop.execute(this::close);
+            } catch (Throwable e) {
+                abort(req, e);
+                return;
+            }
+            app.complete(req, res);
+        }
+
+        // 在工作线程中生成响应体, 每块数据交给事件循环发送; 生成失败时不发送结束块, 直接关闭连接
+        private void writeStream(Response res) throws IOException {
+            ChunkedOutputStream body = new ChunkedOutputStream(res.getHeaders().containsKey("Transfer-Encoding")) {
+                @Override
+                void emit(ByteBuffer data) throws IOException {
+                    offer(data);
+                }
+            };
+            try {
+                res.getWriter().writeTo(body);
+            } catch (RuntimeException e) {
+                throw new IOException("流式响应体生成失败", e);
+            }
+            body.close();
+            loop.execute(() -> {
+                streaming = false;
+                flushOrClose();
+            });
+        }
+
+        // 排队的数据超过上限时等待事件循环写出, 慢客户端不会让响应体堆积在内存里
+        // 用 Condition 而不是 synchronized, 虚拟线程等待时不会占住载体线程
+        private void offer(ByteBuffer data) throws IOException {
+            streamLock.lock();
+            try {
+                while (streamQueued > STREAM_HIGH_WATER && !aborted) {
+                    drained.awaitUninterruptibly();
+                }
+                if (aborted) {
+                    throw new IOException("连接已关闭");
+                }
+                streamQueued += data.remaining();
+            } finally {
+                streamLock.unlock();
+            }
+            loop.execute(() -> {
+                if (key.isValid()) {
+                    out.add(data);
+                    flushOrClose();
+                }
+            });
+        }
+
+        // 应用线程调用, 只入队不等待
+        private class PushSink implements Sink {
+            @Override
+            public boolean offer(ByteBuffer data) {
+                streamLock.lock();
+                try {
+                    if (aborted || streamQueued > PUSH_HIGH_WATER) {
+                        return false;
+                    }
+                    streamQueued += data.remaining();
+                } finally {
+                    streamLock.unlock();
+                }
+                loop.execute(() -> {
+                    if (key.isValid()) {
+                        out.add(data);
+                        flushOrClose();
+                    }
+                });
+                return true;
+            }
+
+            // 频道关闭、WebSocket 关闭或连接积压过多, 写完已排队的数据后关闭连接
+            @Override
+            public void close() {
+                loop.execute(() -> {
+                    sink = null;
+                    events = null;
+                    webSocket = null;
+                    closing = true;
+                    flushOrClose();
+                });
+            }
+        }
+
+        // HTTP/2 连接的发送端: 工作线程积压超过上限时等待事件循环写出; 事件循环自己发送的控制帧不等待
+        // 所有帧都经由任务队列按调用顺序进入 out, HPACK 编码的顺序和帧在连接上的顺序一致
+        private class FrameSink implements Sink {
+            @Override
+            public boolean offer(ByteBuffer data) {
+                streamLock.lock();
+                try {
+                    while (streamQueued > STREAM_HIGH_WATER && !aborted && Thread.currentThread() != loop.thread) {
+                        drained.awaitUninterruptibly();
+                    }
+                    if (aborted) {
+                        return false;
+                    }
+                    streamQueued += data.remaining();
+                } finally {
+                    streamLock.unlock();
+                }
+                loop.execute(() -> {
+                    if (key.isValid()) {
+                        out.add(data);
+                        flushOrClose();
+                    }
+                });
+                return true;
+            }
+
+            // GOAWAY 或连接错误, 写完已排队的帧后关闭连接; prior knowledge 的连接上没有 HTTP/1.1 响应, 不必等待
+            @Override
+            public void close() {
+                loop.execute(() -> {
+                    sink = null;
+                    closing = true;
+                    responded = true;
+                    flushOrClose();
+                });
+            }
+        }
+
+        // 事件循环写出数据后归还额度; 写出的字节里可能含响应头, 额度最低减到 0
+        private void drain(long written) {
+            streamLock.lock();
+            try {
+                streamQueued = Math.max(0, streamQueued - written);
+                if (streamQueued <= STREAM_HIGH_WATER) {
+                    drained.signalAll();
+                }
+            } finally {
+                streamLock.unlock();
+            }
+        }
+
+        private void flushOrClose() {
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void send(ByteBuffer head, ByteBuffer body, boolean keepAlive) {
+            this.head = head;
+            if (!key.isValid()) {
+                closeBody();
+                return;
+            }
+            out.add(head);
+            if (body != null) {
+                out.add(body);
+            }
+            responded = true;
+            if (!keepAlive) {
+                closing = true;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void flush() throws IOException {
+            while (hasPending()) {
+                if (!out.isEmpty()) {
+                    long written = channel.write(out.toArray(new ByteBuffer[0]));
+                    metrics.bytesOut(written);
+                    watchdog.progress(written);
+                    if ((streaming || sink != null) && written > 0) {
+                        drain(written);
+                    }
+                    while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                        out.poll();
+                    }
+                    if (written == 0 && !out.isEmpty()) {
+                        // 内核发送缓冲区已满, 等待可写事件
+                        updateInterest();
+                        return;
+                    }
+                } else if (file != null) {
+                    long n = file.transferTo(filePosition, fileEnd - filePosition, channel);
+                    metrics.bytesOut(n);
+                    watchdog.progress(n);
+                    filePosition += n;
+                    if (filePosition == fileEnd) {
+                        closeBody();
+                    } else if (n == 0) {
+                        if (filePosition >= file.size()) {
+                            throw new EOFException("文件长度不足");
+                        }
+                        updateInterest();
+                        return;
+                    }
+                } else {
+                    // classpath 资源来自本地 jar 或目录, 每次只读一块放进发送队列
+                    if (chunk == null) {
+                        chunk = ByteBuffer.allocate(16 * 1024);
+                    }
+                    int n = stream.read(chunk.array(), 0, (int) Math.min(chunk.capacity(), streamRemaining));
+                    if (n == -1) {
+                        throw new EOFException("资源长度不足");
+                    }
+                    out.add(chunk.clear().limit(n));
+                    streamRemaining -= n;
+                    if (streamRemaining == 0) {
+                        closeBody();
+                    }
+                }
+            }
+            if (streaming || sink != null) {
+                // 已排队的数据都写完了, 等工作线程生成下一块或下一条事件
+                updateInterest();
+                return;
+            }
+            if (!responded) {
+                // 只写出了 100 Continue
+                updateInterest();
+                return;
+            }
+            if (closing) {
+                close();
+                return;
+            }
+            ResponseEncoder.release(head);
+            head = null;
+            responded = false;
+            busy = false;
+            updateInterest();
+            process();
+        }
+
+        private boolean hasPending() {
+            return !out.isEmpty() || file != null || stream != null;
+        }
+
+        private void closeBody() {
+            try {
+                if (file != null) {
+                    file.close();
+                }
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (IOException ignored) {
+            }
+            file = null;
+            stream = null;
+            chunk = null;
+            ResponseEncoder.release(head);
+            head = null;
+        }
+
+        // 空闲时读下一个请求; 处理中只为大请求体继续读, 队列满了就暂停; 有待写数据时关注可写
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = hasPending() ? SelectionKey.OP_WRITE : 0;
+            if (!closing && (!busy || pipe != null && !pipe.full()) || sink != null) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+            updateTimeout();
+        }
+
+        // 按连接当前在等什么选择超时: 空闲、请求头、请求体或写响应; 轮到服务端处理 (执行处理器) 时暂停计时
+        // SSE / WebSocket 连接只在有数据写不出去时计时
+        void updateTimeout() {
+            if (hasPending()) {
+                watchdog.awaitWrite(0);
+            } else if (sink != null) {
+                watchdog.cancel();
+            } else if (busy) {
+                if (pipe != null && !pipe.full()) {
+                    watchdog.awaitBody();
+                } else {
+                    watchdog.pause();
+                }
+            } else if (in == null) {
+                watchdog.idle();
+            } else {
+                watchdog.awaitHead();
+            }
+        }
+
+        private void reject(ErrorType type) {
+            reject(Jlask.closeWith(type));
+        }
+
+        private void reject(Response res) {
+            busy = true;
+            in = null;
+            send(ResponseEncoder.encodeHead(res), ResponseEncoder.encodeBody(res), false);
+        }
+
+        void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            metrics.connectionClosed();
+            watchdog.cancel();
+            key.cancel();
+            in = null;
+            out.clear();
+            closeBody();
+            if (pipe != null) {
+                pipe.abort();
+                pipe = null;
+            }
+            if (events != null) {
+                events.detach(sink);
+            }
+            if (webSocket != null) {
+                webSocket.closed();
+            }
+            if (http2 != null) {
+                http2.closed();
+            }
+            sink = null;
+            events = null;
+            webSocket = null;
+            http2 = null;
+            streamLock.lock();
+            try {
+                // 唤醒还在等待发送额度的工作线程
+                aborted = true;
+                drained.signalAll();
+            } finally {
+                streamLock.unlock();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,25 +1,49 @@
 package org.gtio.jlask;
 
+import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class Request {
-    private final Map<String, String> headers = new HashMap<>();
-    private final Map<String, String> params = new HashMap<>();
+    private static final String HEX = "0123456789ABCDEF";
+    // 请求行和请求头的原始字节 (从连接缓冲区复制一份), 请求头、查询参数在第一次访问时才从这里解码
+    private byte[] head;
+    private int[] headerRanges;
+    private int targetStart;
+    private int targetEnd;
+    private int queryStart = -1;
+    private Map<String, String> headers;
+    private Map<String, String> params;
+    // 路由中 {name} 和 * 匹配到的部分, 没有时为空
+    private Map<String, String> pathParams = Map.of();
+    // 匹配到的路由模板, 用作指标的标签
+    private String route;
+    // 客户端 IP, 由引擎在解析完请求头后设置
+    private String remoteAddress;
     public boolean error = false;
     // 因为 Chrome 的预加载机制，会导致在Tcp握手后很久才开始发报文，所以需要延迟读取
     public long _firstGetByteTime = 0;
     private String url;
+    // 未解码的路径, 路由按它匹配, %2F 不会被当作路径分隔符
+    private String rawPath;
     private String method;
     private String version;
     private String body;
@@ -27,184 +51,402 @@ public class Request {
     private JSONObject jsonBody;
     private String urlParams;
     private ArrayList<formData> formDataBody;
-
+    private long contentLength;
+    // 请求体只在第一次调用 getJsonBody / getFromBody / getBody 时读取和解析
+    private boolean bodyParsed;
+    private boolean malformedBody;
+    // 尚未读取的请求体; 被 JSON/表单解析读掉之后保存在 rawBody 中
+    private InputStream bodyStream;
+    private byte[] rawBody;
+    private MultipartStream multipart;
+    private int fileSizeThreshold = 1024 * 1024;
+    private final List<Path> tempFiles = new ArrayList<>();
+
+    // 只读取一个请求, 可能会多读后续字节; 长连接由 Jlask 为每个连接复用同一个 RequestReader
     public Request(InputStream in) throws IOException {
-        InputStreamReader inStream = new InputStreamReader(in, StandardCharsets.ISO_8859_1);
-        BufferedReader reader = new BufferedReader(inStream);
-        ArrayList<Byte> arrBytes = new ArrayList<>();
-        byte[] breakLine = new byte[4];
-
-        while (true) {
-            int b = reader.read();
-
-            if (_firstGetByteTime == 0) {
-                _firstGetByteTime = System.nanoTime();
-            }
-
-            if (b == -1) {
-                break;
-            }
-
-            arrBytes.add((byte) b);
-            if (arrBytes.size() >= 4) {
-                System.arraycopy(breakLine, 1, breakLine, 0, 3);
-                breakLine[3] = (byte) b;
-                if (breakLine[0] == 13 && breakLine[1] == 10 && breakLine[2] == 13 && breakLine[3] == 10) {
-                    break;
-                }
-            }
-        }
+        this(new RequestReader(in, 64 * 1024, new Metrics()));
+    }
 
-        if (arrBytes.isEmpty()) {
+    // 只解析请求头, 请求体留在连接上, 处理器需要时才读取
+    Request(RequestReader reader) throws IOException {
+        if (!reader.readHead()) {
             this.error = true;
             return;
         }
+        _firstGetByteTime = reader.firstByteTime();
+        RequestParser parser = reader.parser();
+        parseHead(parser);
+        bodyStream = reader.bodyStream(contentLength);
+    }
 
-        byte[] bytes = new byte[arrBytes.size()];
-        for (int i = 0; i < arrBytes.size(); i++) {
-            bytes[i] = arrBytes.get(i);
-        }
+    // NIO 引擎在事件循环中只解析请求头, 请求体由工作线程 setBody 交给请求
+    Request(RequestParser parser) {
+        _firstGetByteTime = System.nanoTime();
+        parseHead(parser);
+    }
+
+    void setBody(InputStream bodyStream) {
+        this.bodyStream = bodyStream;
+    }
 
-        // 已读取 header
-        String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\n");
-        String[] firstLine = lines[0].split(" ");
-        this.method = firstLine[0];
-        this.urlParams = firstLine[1];
-        parseUrlParams(urlParams);
-        this.version = firstLine[2];
-        parseHeaders(lines);
-        if (method.equals("POST") || method.equals("PUT")) {
-            parseBody(reader, Integer.parseInt(headers.get("Content-Length")));
+    // 路由需要的方法和路径立即解析, 其余只复制原始字节, 解析器的缓冲区随后会被下一个请求复用
+    private void parseHead(RequestParser parser) {
+        byte[] buf = parser.buffer();
+        int base = parser.headStart();
+        this.method = parser.method();
+        this.version = parser.version();
+        String path = new String(buf, parser.pathStart(), parser.pathEnd() - parser.pathStart(), StandardCharsets.UTF_8);
+        this.url = decodePath(path);
+        this.rawPath = normalizePath(path);
+        this.contentLength = parser.contentLength();
+        head = Arrays.copyOfRange(buf, base, parser.headEnd());
+        headerRanges = parser.headerRanges(base);
+        targetStart = parser.targetStart() - base;
+        targetEnd = parser.targetEnd() - base;
+        if (parser.queryStart() != -1) {
+            queryStart = parser.queryStart() - base;
         }
-        //reader.close();
     }
 
-    private void parseBody(BufferedReader reader, int contentLength) throws IOException {
+    void setFileSizeThreshold(int fileSizeThreshold) {
+        this.fileSizeThreshold = fileSizeThreshold;
+    }
 
-        byte[] bytes = new byte[contentLength];
-        for (int i = 0; i < contentLength; i++) {
-            bytes[i] = (byte) reader.read();
+    // JSON 和表单需要完整的请求体, 第一次访问时读入并解析; multipart 和其他类型按需从 bodyStream 读取
+    private void parseBody() {
+        if (bodyParsed) {
+            return;
         }
-
-        if (headers.get("Content-Type").startsWith("multipart/form-data")) {
-            body = new String(bytes, StandardCharsets.ISO_8859_1);
-            structFormData();
-        } else {
-            body = new String(bytes, StandardCharsets.UTF_8);
-            if (headers.get("Content-Type").startsWith("application/x-www-form-urlencoded")) {
-                this.body = URLDecoder.decode(body, StandardCharsets.UTF_8);
+        bodyParsed = true;
+        if (!method.equals("POST") && !method.equals("PUT")) {
+            return;
+        }
+        String contentType = getHeader("Content-Type");
+        if (contentType == null) {
+            return;
+        }
+        try {
+            if (contentType.startsWith("application/x-www-form-urlencoded")) {
+                this.body = URLDecoder.decode(new String(readRawBody(), StandardCharsets.UTF_8), StandardCharsets.UTF_8);
                 fromBody = new HashMap<>();
                 for (String kv : this.body.split("&")) {
                     String[] kvArray = kv.split("=");
                     if (kvArray.length == 2)
                         fromBody.put(kvArray[0], kvArray[1]);
                 }
-            } else if (headers.get("Content-Type").startsWith("application/json")) {
-                jsonBody = JSONObject.parseObject(body);
+            } else if (contentType.startsWith("application/json")) {
+                // 直接从字节解析, getBody 需要字符串时再从 rawBody 解码
+                jsonBody = JSON.parseObject(readRawBody());
             }
+        } catch (IOException e) {
+            malformedBody = true;
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            malformedBody = true;
+            throw e;
         }
-
     }
 
-    private void structFormData() {
-        formDataBody = new ArrayList<>();
-        String boundary = headers.get("Content-Type").split("boundary=")[1];
-        String[] objBlocks = body.split("--" + boundary);
-        for (String objBlock : objBlocks) {
-            if (objBlock.isEmpty() || objBlock.trim().equals("--")) continue;
-            String[] dataBlocks = objBlock.split("\r\n\r\n");
+    // 请求体读取或解析失败, 处理器因此抛出的异常按 400 处理
+    boolean isMalformedBody() {
+        return malformedBody;
+    }
 
-            String headerLines = dataBlocks[0];
-            String contentLines = dataBlocks[1];
+    private byte[] readRawBody() throws IOException {
+        if (rawBody == null) {
+            rawBody = bodyStream == null ? new byte[0] : bodyStream.readAllBytes();
+            bodyStream = null;
+        }
+        return rawBody;
+    }
 
-            String[] lines = headerLines.split("\n");
-            formData formData = new formData();
+    // 处理器没读完的请求体: 不大时读掉以便复用连接, 否则返回 false, 响应后关闭连接
+    boolean skipBody(long limit) throws IOException {
+        if (!(bodyStream instanceof BodyStream stream) || stream.remaining() == 0) {
+            return true;
+        }
+        if (stream.remaining() > limit) {
+            return false;
+        }
+        stream.skipNBytes(stream.remaining());
+        return true;
+    }
 
-            for (String line : lines) {
-                if (line.startsWith("Content-Disposition")) {
-                    String[] kv = line.replace(" ", "").split(";");
-                    for (String kvLine : kv) {
-                        if (kvLine.startsWith("name=")) {
-                            formData.name = kvLine.split("=")[1].replace("\"", "").trim();
-                        } else if (kvLine.startsWith("filename=")) {
-                            formData.filename = kvLine.split("=")[1].replace("\"", "").trim();
-                        }
-                    }
-                } else if (line.startsWith("Content-Type")) {
-                    formData.contentType = line.split(":")[1].trim().trim();
-                } else if (line.startsWith("Content-Transfer-Encoding")) {
-                    formData.contentTransferEncoding = line.split(":")[1].trim();
-                }
+    // 删除 multipart 写出的临时文件
+    void release() {
+        for (Path file : tempFiles) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+        }
+        tempFiles.clear();
+    }
 
-            if (formData.contentTransferEncoding.equals("base64")) {
-                formData.binaryValue = Base64.getDecoder().decode(contentLines);
-            } else {
-                // 是否是文件
-                if (formData.filename != null) {
-                    formData.binaryValue = contentLines.getBytes(StandardCharsets.ISO_8859_1);
-                } else {
-                    formData.value = new String(contentLines.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
-                }
+    // 按 & 和 = 切分查询串, 每一段单独解码, 避免编码后的 & 被误切
+    private void parseUrlParams(byte[] buf, int from, int to) {
+        params = new HashMap<>();
+        while (from < to) {
+            int end = RequestParser.indexOf(buf, from, to, (byte) '&');
+            if (end == -1) {
+                end = to;
             }
-
-            formDataBody.add(formData);
+            int eq = RequestParser.indexOf(buf, from, end, (byte) '=');
+            if (eq > from && eq < end - 1) {
+                params.put(decode(buf, from, eq), decode(buf, eq + 1, end));
+            }
+            from = end + 1;
         }
     }
 
-    private void parseUrlParams(String url) {
-        url = URLDecoder.decode(url, StandardCharsets.UTF_8);
-        String[] params = url.split("\\?");
-        this.url = params[0];
-        if (params.length > 1) {
-            String[] kvs = params[1].split("&");
-            for (String kv : kvs) {
-                String[] kv2 = kv.split("=");
-                if (kv2.length == 2) {
-                    this.params.put(kv2[0], kv2[1]);
-                }
+    // 不含 % 和 + 时直接按 UTF-8 生成字符串, 不走 URLDecoder
+    private static String decode(byte[] buf, int from, int to) {
+        String raw = new String(buf, from, to - from, StandardCharsets.UTF_8);
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '%' || buf[i] == '+') {
+                return URLDecoder.decode(raw, StandardCharsets.UTF_8);
             }
         }
+        return raw;
     }
 
-    private void parseHeaders(String[] lines) {
-        for (int i = 1; i < lines.length; i++) {
-            String[] header = lines[i].split(":");
-            if (header.length == 2) {
-                headers.put(header[0].trim(), header[1].trim());
+    // 按 RFC 3986 6.2.2 规范化: 编码过的字母、数字和 -._~ 还原, 其余 %XX 统一为大写, 与路由注册时的编码一致
+    static String normalizePath(String raw) {
+        int percent = raw.indexOf('%');
+        if (percent == -1) {
+            return raw;
+        }
+        StringBuilder sb = new StringBuilder(raw.length()).append(raw, 0, percent);
+        for (int i = percent; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            int hi = c == '%' && i + 2 < raw.length() ? Character.digit(raw.charAt(i + 1), 16) : -1;
+            int lo = hi == -1 ? -1 : Character.digit(raw.charAt(i + 2), 16);
+            if (lo == -1) {
+                sb.append(c);
+                continue;
             }
+            char decoded = (char) (hi << 4 | lo);
+            if (decoded < 0x80 && (Character.isLetterOrDigit(decoded) || "-._~".indexOf(decoded) != -1)) {
+                sb.append(decoded);
+            } else {
+                sb.append('%').append(HEX.charAt(hi)).append(HEX.charAt(lo));
+            }
+            i += 2;
         }
+        return sb.toString();
+    }
+
+    // 路径中的 + 不是空格, 只解码 %XX
+    static String decodePath(String raw) {
+        if (raw.indexOf('%') == -1) {
+            return raw;
+        }
+        return URLDecoder.decode(raw.replace("+", "%2B"), StandardCharsets.UTF_8);
     }
 
     public String getUrl() {
         return url;
     }
 
+    String getRawPath() {
+        return rawPath;
+    }
+
     public String getMethod() {
         return method;
     }
 
+    // 其他类型的请求体在第一次调用时才读入内存
     public String getBody() {
+        String contentType = getHeader("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            // 表单的 body 是整体 URL 解码后的内容
+            parseBody();
+        }
+        if (body == null && (bodyStream != null || rawBody != null) && multipart == null) {
+            try {
+                body = new String(readRawBody(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return body;
     }
 
+    // 请求体的原始字节流, 适合大文件上传等不希望整个读入内存的场景, 只能读取一次
+    public InputStream getBodyStream() {
+        if (rawBody != null) {
+            return new ByteArrayInputStream(rawBody);
+        }
+        InputStream stream = bodyStream;
+        bodyStream = null;
+        return stream == null ? InputStream.nullInputStream() : stream;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    // 逐个读取 multipart/form-data 的各个部分, 不是 multipart 请求时返回 null
+    public MultipartStream getMultipart() {
+        if (multipart == null) {
+            String contentType = getHeader("Content-Type");
+            if (contentType == null) {
+                return null;
+            }
+            int index = contentType.indexOf("boundary=");
+            if (!contentType.startsWith("multipart/form-data") || index == -1) {
+                return null;
+            }
+            String boundary = contentType.substring(index + 9).split(";")[0].trim().replace("\"", "");
+            multipart = new MultipartStream(getBodyStream(), boundary, fileSizeThreshold, tempFiles);
+        }
+        return multipart;
+    }
+
     public JSONObject getJsonBody() {
+        parseBody();
         return jsonBody;
     }
 
+    // 把 JSON 请求体直接从字节解析为指定类型 (POJO、List<T> 等), 不经过 String 和 JSONObject; 请求体为空时返回 null
+    @SuppressWarnings("unchecked")
+    public <T> T getJsonBody(Type type) {
+        try {
+            byte[] bytes = readRawBody();
+            if (bytes.length == 0) {
+                return null;
+            }
+            if (type instanceof Class<?> clazz && clazz.isRecord()) {
+                return (T) toRecord(JSON.parseObject(bytes), clazz);
+            }
+            return JSON.parseObject(bytes, type);
+        } catch (IOException e) {
+            malformedBody = true;
+            throw new UncheckedIOException(e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法创建 " + type.getTypeName(), e);
+        } catch (RuntimeException e) {
+            malformedBody = true;
+            throw e;
+        }
+    }
+
+    // 当前的 fastjson2 版本不能直接创建 record, 先解析成 JSONObject 再按组件调用规范构造器
+    private static Object toRecord(JSONObject json, Class<?> type) throws ReflectiveOperationException {
+        RecordComponent[] components = type.getRecordComponents();
+        Class<?>[] types = new Class<?>[components.length];
+        Object[] args = new Object[components.length];
+        for (int i = 0; i < components.length; i++) {
+            types[i] = components[i].getType();
+            Object value = json.get(components[i].getName());
+            if (types[i].isRecord() && value instanceof JSONObject nested) {
+                args[i] = toRecord(nested, types[i]);
+            } else {
+                args[i] = json.getObject(components[i].getName(), components[i].getGenericType());
+                if (args[i] == null && types[i].isPrimitive()) {
+                    args[i] = Array.get(Array.newInstance(types[i], 1), 0);
+                }
+            }
+        }
+        Constructor<?> constructor = type.getDeclaredConstructor(types);
+        constructor.setAccessible(true);
+        return constructor.newInstance(args);
+    }
+
     public Map<String, String> getFromBody() {
+        parseBody();
         return fromBody;
     }
 
+    // 一次性读取全部部分, 大文件仍然会写入临时文件
     public ArrayList<formData> getFormDataBody() {
+        if (formDataBody == null && getMultipart() != null) {
+            formDataBody = new ArrayList<>();
+            try {
+                formData part;
+                while ((part = multipart.next()) != null) {
+                    formDataBody.add(part);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return formDataBody;
     }
 
+    // 第一次调用时才生成全部请求头的 Map
     public Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            if (headerRanges == null) {
+                return headers;
+            }
+            // 重复的请求头保留第一个, 与 getHeader 一致
+            for (int i = 0; i < headerRanges.length; i += 4) {
+                headers.putIfAbsent(new String(head, headerRanges[i], headerRanges[i + 1] - headerRanges[i], StandardCharsets.ISO_8859_1),
+                        new String(head, headerRanges[i + 2], headerRanges[i + 3] - headerRanges[i + 2], StandardCharsets.UTF_8));
+            }
+        }
         return headers;
     }
 
+    // 按名称 (忽略大小写) 取单个请求头, 直接在原始字节上查找, 不生成 Map
+    public String getHeader(String name) {
+        if (headers != null) {
+            return headers.get(name);
+        }
+        if (headerRanges == null) {
+            return null;
+        }
+        int index = RequestParser.indexOfHeader(head, headerRanges, headerRanges.length / 4, name);
+        if (index == -1) {
+            return null;
+        }
+        int i = index * 4;
+        return new String(head, headerRanges[i + 2], headerRanges[i + 3] - headerRanges[i + 2], StandardCharsets.UTF_8);
+    }
+
+    void putPathParam(String name, String value) {
+        if (pathParams.isEmpty()) {
+            pathParams = new HashMap<>();
+        }
+        pathParams.put(name, value);
+    }
+
+    public Map<String, String> getPathParams() {
+        return pathParams;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    void setRoute(String route) {
+        this.route = route;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    void setRemoteAddress(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    public String getPathParam(String name) {
+        return pathParams.get(name);
+    }
+
     public Map<String, String> getParams() {
+        if (params == null) {
+            if (queryStart == -1) {
+                params = new HashMap<>();
+            } else {
+                parseUrlParams(head, queryStart, targetEnd);
+            }
+        }
         return params;
     }
 
@@ -213,7 +455,19 @@ public class Request {
     }
 
     public String getUrlParams() {
+        if (urlParams == null && head != null) {
+            urlParams = new String(head, targetStart, targetEnd - targetStart, StandardCharsets.UTF_8);
+        }
         return urlParams;
     }
 
+    // HTTP/1.1 默认长连接, HTTP/1.0 需要显式声明 keep-alive
+    public boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.0".equals(version)) {
+            return "keep-alive".equalsIgnoreCase(connection);
+        }
+        return !"close".equalsIgnoreCase(connection);
+    }
+
 }
@@ -0,0 +1,309 @@
+package org.gtio.jlask;
+
+import java.nio.charset.StandardCharsets;
+
+// 直接在字节数组上解析请求行和请求头, 只记录各部分的下标, 需要时才生成 String
+// 同一个实例可以反复用于解析同一连接上的后续请求
+class RequestParser {
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+    private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_BYTES[i] = METHODS[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private byte[] buf;
+    private int start;
+    private int methodEnd;
+    private int targetStart;
+    private int queryStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    // 每个请求头占 4 位: 名称起止, 值起止
+    private int[] headers = new int[64];
+    private int headerCount;
+    private int headEnd;
+
+    // 解析 buf[offset, limit), 返回请求头结束 (空行之后) 的下标, 数据不完整返回 -1
+    int parse(byte[] buf, int offset, int limit) {
+        this.buf = buf;
+        headerCount = 0;
+        int pos = offset;
+        // 流水线请求之间可能夹带多余的空行, 直接跳过
+        while (pos < limit && (buf[pos] == '\r' || buf[pos] == '\n')) {
+            pos++;
+        }
+        start = pos;
+
+        int lineEnd = indexOf(buf, pos, limit, (byte) '\n');
+        if (lineEnd == -1) {
+            return -1;
+        }
+        parseRequestLine(pos, trimCR(pos, lineEnd));
+        pos = lineEnd + 1;
+
+        while (true) {
+            lineEnd = indexOf(buf, pos, limit, (byte) '\n');
+            if (lineEnd == -1) {
+                return -1;
+            }
+            int end = trimCR(pos, lineEnd);
+            if (end == pos) {
+                headEnd = lineEnd + 1;
+                return headEnd;
+            }
+            parseHeaderLine(pos, end);
+            pos = lineEnd + 1;
+        }
+    }
+
+    private int trimCR(int from, int lineEnd) {
+        return lineEnd > from && buf[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    private void parseRequestLine(int from, int to) {
+        methodEnd = indexOf(buf, from, to, (byte) ' ');
+        if (methodEnd <= from) {
+            throw new IllegalArgumentException("请求行格式错误");
+        }
+        targetStart = methodEnd + 1;
+        targetEnd = indexOf(buf, targetStart, to, (byte) ' ');
+        if (targetEnd <= targetStart) {
+            throw new IllegalArgumentException("请求行格式错误");
+        }
+        queryStart = indexOf(buf, targetStart, targetEnd, (byte) '?');
+        versionStart = targetEnd + 1;
+        versionEnd = to;
+    }
+
+    private void parseHeaderLine(int from, int to) {
+        int colon = indexOf(buf, from, to, (byte) ':');
+        if (colon <= from) {
+            return;
+        }
+        int nameEnd = colon;
+        while (nameEnd > from && isSpace(buf[nameEnd - 1])) {
+            nameEnd--;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < to && isSpace(buf[valueStart])) {
+            valueStart++;
+        }
+        int valueEnd = to;
+        while (valueEnd > valueStart && isSpace(buf[valueEnd - 1])) {
+            valueEnd--;
+        }
+        if (headerCount * 4 == headers.length) {
+            int[] bigger = new int[headers.length * 2];
+            System.arraycopy(headers, 0, bigger, 0, headers.length);
+            headers = bigger;
+        }
+        int i = headerCount++ * 4;
+        headers[i] = from;
+        headers[i + 1] = nameEnd;
+        headers[i + 2] = valueStart;
+        headers[i + 3] = valueEnd;
+    }
+
+    String method() {
+        int length = methodEnd - start;
+        for (int i = 0; i < METHOD_BYTES.length; i++) {
+            if (regionEquals(start, length, METHOD_BYTES[i])) {
+                return METHODS[i];
+            }
+        }
+        return new String(buf, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    String version() {
+        int length = versionEnd - versionStart;
+        if (length == 8 && buf[versionStart + 5] == '1' && buf[versionStart + 6] == '.') {
+            if (buf[versionStart + 7] == '1') {
+                return "HTTP/1.1";
+            } else if (buf[versionStart + 7] == '0') {
+                return "HTTP/1.0";
+            }
+        }
+        return new String(buf, versionStart, length, StandardCharsets.ISO_8859_1);
+    }
+
+    // 原始的请求目标, 包含查询串
+    String target() {
+        return new String(buf, targetStart, targetEnd - targetStart, StandardCharsets.UTF_8);
+    }
+
+    int pathStart() {
+        return targetStart;
+    }
+
+    int pathEnd() {
+        return queryStart == -1 ? targetEnd : queryStart;
+    }
+
+    // 没有查询串时为 -1
+    int queryStart() {
+        return queryStart == -1 ? -1 : queryStart + 1;
+    }
+
+    int queryEnd() {
+        return targetEnd;
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    // 请求行和请求头所在的区间 [headStart, headEnd)
+    int headStart() {
+        return start;
+    }
+
+    int headEnd() {
+        return headEnd;
+    }
+
+    int targetStart() {
+        return targetStart;
+    }
+
+    int targetEnd() {
+        return targetEnd;
+    }
+
+    // 各请求头名称和值的下标, 减去 base 后复制出来, 配合复制出的请求头字节使用
+    int[] headerRanges(int base) {
+        int[] ranges = new int[headerCount * 4];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = headers[i] - base;
+        }
+        return ranges;
+    }
+
+    int headerCount() {
+        return headerCount;
+    }
+
+    String headerName(int index) {
+        int i = index * 4;
+        return new String(buf, headers[i], headers[i + 1] - headers[i], StandardCharsets.ISO_8859_1);
+    }
+
+    String headerValue(int index) {
+        int i = index * 4;
+        return new String(buf, headers[i + 2], headers[i + 3] - headers[i + 2], StandardCharsets.UTF_8);
+    }
+
+    // 按名称 (忽略大小写) 查找请求头的下标, 不存在返回 -1
+    int indexOfHeader(String name) {
+        return indexOfHeader(buf, headers, headerCount, name);
+    }
+
+    // ranges 为每个请求头 4 个下标 (名称起止, 值起止), Request 复制出请求头后也用它查找
+    static int indexOfHeader(byte[] buf, int[] ranges, int count, String name) {
+        for (int h = 0; h < count; h++) {
+            if (nameEquals(buf, ranges, h, name)) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean nameEquals(byte[] buf, int[] ranges, int h, String name) {
+        int i = h * 4;
+        int length = ranges[i + 1] - ranges[i];
+        if (length != name.length()) {
+            return false;
+        }
+        for (int j = 0; j < length; j++) {
+            if (toLower(buf[ranges[i] + j]) != toLower((byte) name.charAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String header(String name) {
+        int index = indexOfHeader(name);
+        return index == -1 ? null : headerValue(index);
+    }
+
+    // 没有 Content-Length 时为 0; 请求体的边界不可信时抛出异常, 调用方必须关闭连接, 否则请求体会被当作下一个请求解析:
+    // 格式错误或多个 Content-Length 取值不同抛出 IllegalArgumentException (400),
+    // 带 Transfer-Encoding 时不支持分块请求体, 抛出 UnsupportedOperationException (501), 同时带 Content-Length 按 400 处理
+    long contentLength() {
+        boolean hasLength = indexOfHeader("Content-Length") != -1;
+        if (indexOfHeader("Transfer-Encoding") != -1) {
+            if (hasLength) {
+                throw new IllegalArgumentException("Transfer-Encoding 和 Content-Length 不能同时出现");
+            }
+            throw new UnsupportedOperationException("不支持 Transfer-Encoding");
+        }
+        if (!hasLength) {
+            return 0;
+        }
+        long value = -1;
+        for (int h = 0; h < headerCount; h++) {
+            if (nameEquals(buf, headers, h, "Content-Length")) {
+                long length = parseLength(h);
+                if (value != -1 && length != value) {
+                    throw new IllegalArgumentException("Content-Length 不一致");
+                }
+                value = length;
+            }
+        }
+        return value;
+    }
+
+    private long parseLength(int index) {
+        int i = index * 4;
+        int from = headers[i + 2];
+        int to = headers[i + 3];
+        if (from == to) {
+            throw new IllegalArgumentException("Content-Length 格式错误");
+        }
+        long value = 0;
+        for (int k = from; k < to; k++) {
+            byte b = buf[k];
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("Content-Length 格式错误");
+            }
+            value = value * 10 + (b - '0');
+            if (value > Long.MAX_VALUE / 10) {
+                throw new IllegalArgumentException("Content-Length 过大");
+            }
+        }
+        return value;
+    }
+
+    private boolean regionEquals(int from, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[from + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int indexOf(byte[] buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+}
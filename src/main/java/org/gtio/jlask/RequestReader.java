@@ -0,0 +1,153 @@
+package org.gtio.jlask;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// 阻塞模式下按连接复用的读取缓冲, 一次从 socket 批量读取, 多读到的字节留给下一个 (流水线) 请求
+class RequestReader {
+    private final InputStream in;
+    private final Metrics metrics;
+    private final int maxHeaderSize;
+    // 读超时检查, 单独解析一个请求时为 null
+    private final Watchdog watchdog;
+    private final RequestParser parser = new RequestParser();
+    private byte[] buf = new byte[8192];
+    // 未消费的数据为 buf[start, end)
+    private int start;
+    private int end;
+    private long firstByteTime;
+
+    RequestReader(InputStream in, int maxHeaderSize, Metrics metrics) {
+        this(in, maxHeaderSize, metrics, null);
+    }
+
+    RequestReader(InputStream in, int maxHeaderSize, Metrics metrics, Watchdog watchdog) {
+        this.in = in;
+        this.metrics = metrics;
+        this.maxHeaderSize = maxHeaderSize;
+        this.watchdog = watchdog;
+    }
+
+    // 读取并解析下一个请求头, 连接在收到任何数据前关闭时返回 false
+    boolean readHead() throws IOException {
+        firstByteTime = start < end ? System.nanoTime() : 0;
+        while (true) {
+            int headEnd = start < end ? parser.parse(buf, start, end) : -1;
+            if (headEnd != -1) {
+                start = headEnd;
+                if (watchdog != null) {
+                    watchdog.pause();
+                }
+                return true;
+            }
+            if (end - start > maxHeaderSize) {
+                throw new IllegalArgumentException("请求头过大");
+            }
+            // 还没收到任何数据时处于空闲超时, 收到第一个字节后改为请求头超时
+            if (watchdog != null && start < end) {
+                watchdog.awaitHead();
+            }
+            if (fill() == -1) {
+                if (start == end) {
+                    return false;
+                }
+                throw new EOFException("请求头不完整");
+            }
+            if (firstByteTime == 0) {
+                firstByteTime = System.nanoTime();
+            }
+        }
+    }
+
+    RequestParser parser() {
+        return parser;
+    }
+
+    long firstByteTime() {
+        return firstByteTime;
+    }
+
+    // 以流的方式读取请求体, 先消费缓冲区中已有的字节, 再直接读 socket
+    BodyStream bodyStream(long contentLength) {
+        return new BodyStream() {
+            private long remaining = contentLength;
+
+            @Override
+            long remaining() {
+                return remaining;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining == 0) {
+                    return -1;
+                }
+                len = (int) Math.min(len, remaining);
+                int n;
+                if (start < end) {
+                    n = Math.min(len, end - start);
+                    System.arraycopy(buf, start, b, off, n);
+                    start += n;
+                } else {
+                    if (watchdog != null) {
+                        watchdog.awaitBody();
+                    }
+                    n = in.read(b, off, len);
+                    if (watchdog != null) {
+                        watchdog.progress(n);
+                        watchdog.pause();
+                    }
+                    if (n == -1) {
+                        throw new EOFException("请求体不完整");
+                    }
+                    metrics.bytesIn(n);
+                }
+                remaining -= n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(end - start, remaining);
+            }
+        };
+    }
+
+    // 取走缓冲区中剩余的字节, 连接升级为其他协议时使用
+    ByteBuffer takeBuffered() {
+        ByteBuffer rest = ByteBuffer.wrap(Arrays.copyOfRange(buf, start, end));
+        start = end;
+        return rest;
+    }
+
+    // 缓冲区里是否已经有下一个请求的数据
+    boolean hasBuffered() {
+        return start < end;
+    }
+
+    private int fill() throws IOException {
+        if (start > 0) {
+            // 已消费的部分前移, 保证未解析的数据连续
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, end);
+            buf = bigger;
+        }
+        int n = in.read(buf, end, buf.length - end);
+        if (n > 0) {
+            end += n;
+            metrics.bytesIn(n);
+            if (watchdog != null) {
+                watchdog.progress(n);
+            }
+        }
+        return n;
+    }
+}
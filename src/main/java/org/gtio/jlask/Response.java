@@ -1,31 +1,56 @@
 package org.gtio.jlask;
 
+import com.alibaba.fastjson2.JSON;
 import org.apache.tika.Tika;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class Response {
+    static final String SERVER = "Jlask/1.0 (Java)";
     private final Map<String, String> headers = new HashMap<>();
     public boolean isBinarybody = false;
-    private static final Tika tika = new Tika();
+    static final Tika tika = new Tika();
     protected int status = 200;
     private byte[] binaryBody;
     protected String body;
+    // 字符串响应体的 UTF-8 编码, 计算 Content-Length 时编码一次, 写出时直接使用
+    private byte[] encodedBody;
+    // 文件、流或缓存中的 ByteBuffer 形式的响应体, 写出时跳过 bodyOffset 字节, 共 bodyLength 字节
+    private Path file;
+    private InputStream stream;
+    private ByteBuffer buffer;
+    // 流式响应体, 处理器返回后才开始生成
+    private BodyWriter writer;
+    // SSE 订阅, 响应头发出后连接交给频道推送事件
+    private EventStream events;
+    private long lastEventId;
+    // 握手成功后接管连接的 WebSocket
+    private WebSocket webSocket;
+    // 升级后接管连接的 HTTP/2 会话
+    private Http2Connection http2;
+    // 异步处理器尚未完成的结果, 不为 null 时该响应只是占位, 由连接在结果就绪后发送最终的响应
+    private CompletableFuture<Response> pending;
+    private long bodyOffset;
+    private long bodyLength;
 
     public Response(byte[] body, String contentType, boolean isAttachmen, String filename) {
         this.binaryBody = body;
         this.isBinarybody = true;
         headers.put("Content-Length", body.length + "");
         headers.put("Content-Type", contentType);
-        headers.put("server", "Jlask/1.0 (Java)");
+        headers.put("server", SERVER);
         headers.put("Content-Disposition", "attachment; filename*=UTF-8''" + URLEncoder.encode(filename, StandardCharsets.UTF_8));
     }
 
@@ -34,31 +59,34 @@ public class Response {
         this.isBinarybody = true;
         headers.put("Content-Length", body.length + "");
         headers.put("Content-Type", contentType);
-        headers.put("server", "Jlask/1.0 (Java)");
+        headers.put("server", SERVER);
     }
 
     public Response(String body, Map<String, String> headers) {
         this.body = body;
-        headers.put("Content-Length", body.getBytes(StandardCharsets.UTF_8).length + "");
+        this.encodedBody = body.getBytes(StandardCharsets.UTF_8);
+        headers.put("Content-Length", encodedBody.length + "");
         if (!headers.containsKey("Content-Type")) {
             headers.put("Content-Type", "text/html; charset=UTF-8");
         }
-        headers.put("server", "Jlask/1.0 (Java)");
+        headers.put("server", SERVER);
         this.headers.putAll(headers);
     }
 
     public Response(String body, String contentType) {
         this.body = body;
-        headers.put("Content-Length", body.getBytes(StandardCharsets.UTF_8).length + "");
+        this.encodedBody = body.getBytes(StandardCharsets.UTF_8);
+        headers.put("Content-Length", encodedBody.length + "");
         headers.put("Content-Type", contentType);
-        headers.put("server", "Jlask/1.0 (Java)");
+        headers.put("server", SERVER);
     }
 
     public Response(String body) {
         this.body = body;
-        headers.put("Content-Length", body.getBytes(StandardCharsets.UTF_8).length + "");
+        this.encodedBody = body.getBytes(StandardCharsets.UTF_8);
+        headers.put("Content-Length", encodedBody.length + "");
         headers.put("Content-Type", "text/html; charset=UTF-8");
-        headers.put("server", "Jlask/1.0 (Java)");
+        headers.put("server", SERVER);
     }
 
     public static Response Redirect(String url) {
@@ -103,13 +131,61 @@ public class Response {
         return response;
     }
 
+    private static Response MethodNotAllowed() {
+        String body = "<html><head><title>405 Method Not Allowed</title></head><body><h1>Method Not Allowed</h1><p>The method is not allowed for the requested URL.</p></body></html>";
+        Response response = new Response(body);
+        response.status = 405;
+        return response;
+    }
+
+    static Response NotModified() {
+        Response response = new Response("");
+        response.status = 304;
+        response.headers.remove("Content-Length");
+        response.headers.remove("Content-Type");
+        return response;
+    }
+
+    static Response RangeNotSatisfiable(long length) {
+        String body = "<html><head><title>416 Range Not Satisfiable</title></head><body><h1>Range Not Satisfiable</h1><p>The requested range is not available for this resource.</p></body></html>";
+        Response response = new Response(body);
+        response.status = 416;
+        response.headers.put("Content-Range", "bytes */" + length);
+        return response;
+    }
+
+    private static Response PayloadTooLarge() {
+        String body = "<html><head><title>413 Payload Too Large</title></head><body><h1>Payload Too Large</h1><p>The data value transmitted exceeds the capacity limit.</p></body></html>";
+        Response response = new Response(body);
+        response.status = 413;
+        return response;
+    }
+
+    private static Response ServiceUnavailable() {
+        String body = "<html><head><title>503 Service Unavailable</title></head><body><h1>Service Unavailable</h1><p>The server is temporarily unable to handle the request. Please try again later.</p></body></html>";
+        Response response = new Response(body);
+        response.status = 503;
+        return response;
+    }
+
+    private static Response GatewayTimeout() {
+        String body = "<html><head><title>504 Gateway Timeout</title></head><body><h1>Gateway Timeout</h1><p>The server did not complete the request in time.</p></body></html>";
+        Response response = new Response(body);
+        response.status = 504;
+        return response;
+    }
+
     public static Response ErrorStatus(ErrorType status) {
         return switch (status) {
             case Err_400 -> BadRequest();
             case Err_403 -> Forbidden();
             case Err_404 -> NotFound();
+            case Err_405 -> MethodNotAllowed();
+            case Err_413 -> PayloadTooLarge();
             case Err_501 -> NotImplemented();
             case Err_500 -> InternalServerError();
+            case Err_503 -> ServiceUnavailable();
+            case Err_504 -> GatewayTimeout();
         };
     }
 
@@ -119,32 +195,124 @@ public class Response {
         return response;
     }
 
+    // classpath 资源按块流式写出, 不整个读进内存; 在目录中 (开发环境) 时按文件发送
     public static Response RenderTemplate(String template) throws IOException {
-        InputStream url = Response.class.getResourceAsStream(template);
-
+        URL url = Response.class.getResource(template);
         if (url == null) {
             return NotFound();
         }
+        if (url.getProtocol().equals("file")) {
+            try {
+                return SendFile(Path.of(url.toURI()));
+            } catch (URISyntaxException e) {
+                return NotFound();
+            }
+        }
 
-        String mineType = tika.detect(template);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(url, StandardCharsets.ISO_8859_1));
-
-        ArrayList<Byte> arrBytes = new ArrayList<>();
-
-        while (true) {
-            int c = reader.read();
-            if (c == -1) {
-                break;
+        URLConnection connection = url.openConnection();
+        long length = connection.getContentLengthLong();
+        InputStream in = connection.getInputStream();
+        if (length < 0) {
+            try (in) {
+                return new Response(in.readAllBytes(), tika.detect(template));
             }
-            arrBytes.add((byte) c);
         }
-        byte[] bytes = new byte[arrBytes.size()];
-        for (int i = 0; i < arrBytes.size(); i++) {
-            bytes[i] = arrBytes.get(i);
+        Response response = new Response(tika.detect(template), length);
+        response.stream = in;
+        return response;
+    }
+
+    // 文件内容由 FileChannel.transferTo 直接写入 socket, 不经过堆内存
+    public static Response SendFile(Path file) throws IOException {
+        if (!Files.isRegularFile(file) || !Files.isReadable(file)) {
+            return NotFound();
         }
-        reader.close();
+        Response response = new Response(tika.detect(file.getFileName().toString()), Files.size(file));
+        response.file = file;
+        return response;
+    }
+
+    // 对象由 fastjson2 直接序列化为 UTF-8 字节, 不生成中间的 String
+    public static Response Json(Object value) {
+        return new Response(JSON.toJSONBytes(value), "application/json");
+    }
+
+    // 长度事先未知的响应体, 按 chunked 编码边生成边发送, 内存占用和响应体大小无关
+    public static Response Stream(BodyWriter writer, String contentType) {
+        Response response = new Response(new byte[0], contentType);
+        response.headers.remove("Content-Length");
+        response.headers.put("Transfer-Encoding", "chunked");
+        response.writer = writer;
+        return response;
+    }
+
+    // 没有长度也不分块, 事件流一直持续到连接关闭
+    static Response Events(EventStream events, long lastEventId) {
+        Response response = new Response(new byte[0], "text/event-stream; charset=UTF-8");
+        response.headers.remove("Content-Length");
+        response.headers.put("Cache-Control", "no-cache");
+        // 告诉 nginx 等反向代理不要缓冲事件
+        response.headers.put("X-Accel-Buffering", "no");
+        response.events = events;
+        response.lastEventId = lastEventId;
+        return response;
+    }
+
+    static Response SwitchingProtocols(WebSocket webSocket, String accept) {
+        Response response = new Response(new byte[0], null);
+        response.status = 101;
+        response.headers.remove("Content-Length");
+        response.headers.remove("Content-Type");
+        response.headers.put("Upgrade", "websocket");
+        response.headers.put("Connection", "Upgrade");
+        response.headers.put("Sec-WebSocket-Accept", accept);
+        response.webSocket = webSocket;
+        return response;
+    }
+
+    // 异步处理器的返回值; 处理器所在的工作线程随即释放, stage 完成时再发送它的结果
+    static Response Deferred(CompletableFuture<Response> stage) {
+        Response response = new Response(new byte[0], null);
+        response.headers.remove("Content-Length");
+        response.headers.remove("Content-Type");
+        response.pending = stage;
+        return response;
+    }
+
+    // Upgrade: h2c 的应答, 发出后连接改用 HTTP/2
+    static Response SwitchingToHttp2(Http2Connection http2) {
+        Response response = new Response(new byte[0], null);
+        response.status = 101;
+        response.headers.remove("Content-Length");
+        response.headers.remove("Content-Type");
+        response.headers.put("Upgrade", "h2c");
+        response.headers.put("Connection", "Upgrade");
+        response.http2 = http2;
+        return response;
+    }
+
+    // 直接发送缓存中的内容, 多个响应共享同一块 buffer
+    Response(ByteBuffer buffer, String contentType) {
+        this(contentType, buffer.remaining());
+        this.buffer = buffer;
+    }
 
-        return new Response(bytes, mineType);
+    private Response(String contentType, long length) {
+        this.isBinarybody = true;
+        this.bodyLength = length;
+        headers.put("Content-Length", length + "");
+        headers.put("Content-Type", contentType);
+        headers.put("Accept-Ranges", "bytes");
+        headers.put("server", SERVER);
+    }
+
+    // 只发送 [start, end] 这一段, 状态码改为 206
+    void setRange(long start, long end) {
+        headers.put("Content-Range", "bytes " + start + "-" + end + "/" + bodyLength);
+        headers.put("Content-Length", end - start + 1 + "");
+        status = 206;
+        bodyOffset = start;
+        bodyLength = end - start + 1;
     }
 
     public String getVersion() {
@@ -167,6 +335,87 @@ public class Response {
         return binaryBody;
     }
 
+    // 压缩等处理替换响应体时同步更新 Content-Length
+    // 文件和流形式的响应体被替换后改为普通的字节数组
+    void setEncodedBody(byte[] bytes) {
+        if (isBinarybody) {
+            binaryBody = bytes;
+        } else {
+            encodedBody = bytes;
+        }
+        file = null;
+        stream = null;
+        bodyOffset = 0;
+        bodyLength = bytes.length;
+        headers.put("Content-Length", bytes.length + "");
+        headers.remove("Accept-Ranges");
+    }
+
+    byte[] encodedBody() {
+        if (isBinarybody) {
+            return binaryBody;
+        }
+        if (encodedBody == null && body != null) {
+            encodedBody = body.getBytes(StandardCharsets.UTF_8);
+        }
+        return encodedBody;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    InputStream getStream() {
+        return stream;
+    }
+
+    BodyWriter getWriter() {
+        return writer;
+    }
+
+    void setWriter(BodyWriter writer) {
+        this.writer = writer;
+    }
+
+    EventStream getEvents() {
+        return events;
+    }
+
+    long getLastEventId() {
+        return lastEventId;
+    }
+
+    WebSocket getWebSocket() {
+        return webSocket;
+    }
+
+    Http2Connection getHttp2() {
+        return http2;
+    }
+
+    CompletableFuture<Response> getPending() {
+        return pending;
+    }
+
+    // 按 Range 截取后的缓存内容
+    ByteBuffer getBuffer() {
+        if (buffer == null) {
+            return null;
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(slice.position() + (int) bodyOffset);
+        slice.limit(slice.position() + (int) bodyLength);
+        return slice;
+    }
+
+    long getBodyOffset() {
+        return bodyOffset;
+    }
+
+    long getBodyLength() {
+        return bodyLength;
+    }
+
     public void SetCookie(String key, String value) {
         headers.put("Set-Cookie", key + "=" + value);
     }
@@ -0,0 +1,200 @@
+package org.gtio.jlask;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 路由级响应缓存 (@Route(cacheTtl = ...)): 按路径、选定的查询参数和请求头保存处理器返回的响应头和编码好的响应体
+// 命中时直接用缓存的字节构造响应, 开启压缩时同时保存 gzip 版本; 同一个键同时未命中时只有一个请求执行处理器,
+// 其余的作为异步响应等待结果, 等待期间不占用工作线程
+class ResponseCache {
+    private final long ttl;
+    private final int maxEntries;
+    private final boolean allQuery;
+    private final String[] query;
+    private final String[] headers;
+    private final Compression compression;
+    private final Executor executor;
+    // accessOrder = true, 迭代顺序即最久未使用在前
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // 正在执行处理器的键, 结果为 null 表示响应不可缓存
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private static class Entry {
+        final ByteBuffer content;
+        // 压缩后没有变小或未开启压缩时为 null
+        final ByteBuffer gzip;
+        final String contentType;
+        final Map<String, String> headers;
+        final long createdAt;
+        final long expiresAt;
+
+        Entry(ByteBuffer content, ByteBuffer gzip, String contentType, Map<String, String> headers, long createdAt, long expiresAt) {
+            this.content = content;
+            this.gzip = gzip;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    ResponseCache(Route route, Compression compression, Executor executor) {
+        this.compression = compression;
+        this.executor = executor;
+        ttl = TimeUnit.MILLISECONDS.toNanos(route.cacheTtl());
+        maxEntries = Math.max(1, route.cacheMaxEntries());
+        allQuery = route.cacheQuery().length == 1 && route.cacheQuery()[0].equals("*");
+        query = route.cacheQuery();
+        headers = route.cacheHeaders();
+    }
+
+    Handler wrap(Handler handler) {
+        return req -> {
+            if (!"GET".equals(req.getMethod())) {
+                return handler.handle(req);
+            }
+            String key = key(req);
+            Entry entry = get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return respond(req, entry);
+            }
+            misses.incrementAndGet();
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            CompletableFuture<Entry> other = loading.putIfAbsent(key, mine);
+            if (other != null) {
+                // 等待正在执行的同一个键的请求; 结果不可缓存时在线程池中自己执行处理器
+                coalesced.incrementAndGet();
+                return Response.Deferred(other.thenComposeAsync(result -> result != null
+                        ? CompletableFuture.completedFuture(respond(req, result)) : run(handler, req), executor));
+            }
+            try {
+                Response res = handler.handle(req);
+                entry = store(res);
+                if (entry != null) {
+                    put(key, entry);
+                }
+                return res;
+            } finally {
+                loading.remove(key);
+                mine.complete(entry);
+            }
+        };
+    }
+
+    private static CompletableFuture<Response> run(Handler handler, Request req) {
+        try {
+            Response res = handler.handle(req);
+            return res.getPending() != null ? res.getPending() : CompletableFuture.completedFuture(res);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private String key(Request req) {
+        if (allQuery && headers.length == 0) {
+            return req.getUrlParams();
+        }
+        StringBuilder sb = new StringBuilder(allQuery ? req.getUrlParams() : req.getUrl());
+        if (!allQuery) {
+            for (String name : query) {
+                String value = req.getParams().get(name);
+                // 参数不存在和值为空字符串是不同的键
+                sb.append('\n').append(value == null ? "\0" : value);
+            }
+        }
+        for (String name : headers) {
+            String value = req.getHeader(name);
+            sb.append('\n').append(value == null ? "\0" : value);
+        }
+        return sb.toString();
+    }
+
+    private Entry get(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        synchronized (this) {
+            entries.put(key, entry);
+            if (entries.size() > maxEntries) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    // 只缓存字节数组形式的 200 响应; 文件、流、事件流、异步处理器和设置了 Cookie 的响应不缓存
+    private Entry store(Response res) {
+        if (res.getStatus() != 200 || res.getPending() != null || res.getFile() != null || res.getStream() != null || res.getBuffer() != null
+                || res.getWriter() != null || res.getEvents() != null || res.getWebSocket() != null
+                || res.getHeaders().containsKey("Set-Cookie")) {
+            return null;
+        }
+        byte[] body = res.encodedBody();
+        if (body == null) {
+            return null;
+        }
+        Map<String, String> copy = new HashMap<>(res.getHeaders());
+        copy.remove("Content-Length");
+        ByteBuffer gzip = null;
+        if (compression != null && compression.isCompressible(res, body.length)) {
+            byte[] compressed = compression.compress(body, true);
+            if (compressed.length < body.length) {
+                gzip = ByteBuffer.wrap(compressed).asReadOnlyBuffer();
+            }
+            Compression.addVary(res);
+            copy.put("Vary", res.getHeaders().get("Vary"));
+        }
+        long now = System.nanoTime();
+        return new Entry(ByteBuffer.wrap(body).asReadOnlyBuffer(), gzip, res.getHeaders().get("Content-Type"), copy, now, now + ttl);
+    }
+
+    // 缓存的字节由多个响应共享, 每个响应使用各自的 duplicate
+    private static Response respond(Request req, Entry entry) {
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        boolean gzip = entry.gzip != null && acceptEncoding != null && Compression.accepts(acceptEncoding, "gzip");
+        Response res = new Response((gzip ? entry.gzip : entry.content).duplicate(), entry.contentType);
+        res.getHeaders().remove("Accept-Ranges");
+        for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+            res.getHeaders().put(header.getKey(), header.getValue());
+        }
+        if (gzip) {
+            Compression.markEncoded(res, "gzip");
+        }
+        res.getHeaders().put("Age", String.valueOf(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - entry.createdAt)));
+        return res;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    synchronized long size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,152 @@
+package org.gtio.jlask;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 响应序列化: 状态行和响应头直接编码进池化的堆外 ByteBuffer, 常用状态行和固定响应头启动时编码一次
+// 响应头用完后必须 release 归还
+class ResponseEncoder {
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int HEAD_SIZE = 4096;
+    private static final int MAX_POOLED = 512;
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final byte[] COLON = {':', ' '};
+    private static final byte[] CRLF = {'\r', '\n'};
+    // 值固定的响应头, 按引用比较, 命中时整行直接复制
+    private static final String[][] CONSTANT_HEADERS = {
+            {"server", Response.SERVER},
+            {"Connection", "keep-alive"},
+            {"Connection", "close"},
+            {"Content-Type", "text/html; charset=UTF-8"},
+            {"Content-Type", "application/json"},
+            {"Accept-Ranges", "bytes"},
+            {"Transfer-Encoding", "chunked"},
+            {"Connection", "Upgrade"},
+            {"Upgrade", "websocket"},
+            {"Upgrade", "h2c"},
+    };
+    private static final byte[][] CONSTANT_LINES = new byte[CONSTANT_HEADERS.length][];
+
+    static {
+        String[] reasons = {
+                "101 Switching Protocols", "200 OK", "201 Created", "204 No Content", "206 Partial Content",
+                "301 Moved Permanently", "302 Found", "304 Not Modified",
+                "400 Bad Request", "403 Forbidden", "404 Not Found", "405 Method Not Allowed",
+                "413 Payload Too Large", "416 Range Not Satisfiable",
+                "500 Internal Server Error", "501 Not Implemented", "503 Service Unavailable",
+        };
+        for (String reason : reasons) {
+            STATUS_LINES[Integer.parseInt(reason.substring(0, 3))] = ("HTTP/1.1 " + reason + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        }
+        for (int i = 0; i < CONSTANT_HEADERS.length; i++) {
+            CONSTANT_LINES[i] = (CONSTANT_HEADERS[i][0] + ": " + CONSTANT_HEADERS[i][1] + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private ResponseEncoder() {
+    }
+
+    static ByteBuffer encodeHead(Response res) {
+        ByteBuffer buf = acquire();
+        try {
+            putHead(buf, res);
+        } catch (BufferOverflowException e) {
+            // 响应头超过池化缓冲的大小 (例如很长的 Set-Cookie), 改用一次性的大缓冲
+            release(buf);
+            int size = HEAD_SIZE * 2;
+            while (true) {
+                buf = ByteBuffer.allocate(size);
+                try {
+                    putHead(buf, res);
+                    break;
+                } catch (BufferOverflowException again) {
+                    size *= 2;
+                }
+            }
+        }
+        return buf.flip();
+    }
+
+    // 字符串响应体在构造 Response 时已经编码, 这里不再重复编码
+    static ByteBuffer encodeBody(Response res) {
+        if (res.getBuffer() != null) {
+            return res.getBuffer();
+        }
+        byte[] body = res.encodedBody();
+        return ByteBuffer.wrap(body == null ? new byte[0] : body);
+    }
+
+    private static void putHead(ByteBuffer buf, Response res) {
+        int status = res.getStatus();
+        byte[] statusLine = status >= 0 && status < STATUS_LINES.length ? STATUS_LINES[status] : null;
+        if (statusLine != null) {
+            buf.put(statusLine);
+        } else {
+            putString(buf, "HTTP/1.1 " + status + " ");
+            buf.put(CRLF);
+        }
+        for (Map.Entry<String, String> entry : res.getHeaders().entrySet()) {
+            putHeader(buf, entry.getKey(), entry.getValue());
+        }
+        buf.put(CRLF);
+    }
+
+    private static void putHeader(ByteBuffer buf, String name, String value) {
+        for (int i = 0; i < CONSTANT_HEADERS.length; i++) {
+            if (CONSTANT_HEADERS[i][1] == value && CONSTANT_HEADERS[i][0] == name) {
+                buf.put(CONSTANT_LINES[i]);
+                return;
+            }
+        }
+        putString(buf, name);
+        buf.put(COLON);
+        putString(buf, value);
+        buf.put(CRLF);
+    }
+
+    // ASCII 逐字符写入, 含其他字符时按 UTF-8 编码
+    private static void putString(ByteBuffer buf, String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) >= 0x80) {
+                buf.put(s.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        if (buf.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        for (int i = 0; i < length; i++) {
+            buf.put((byte) s.charAt(i));
+        }
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer buf = pool.poll();
+        if (buf == null) {
+            return ByteBuffer.allocateDirect(HEAD_SIZE);
+        }
+        pooled.decrementAndGet();
+        return buf.clear();
+    }
+
+    // 只回收池中分配的缓冲, 超大的一次性缓冲交给 GC
+    static void release(ByteBuffer head) {
+        if (head == null || !head.isDirect() || head.capacity() != HEAD_SIZE) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.offer(head);
+    }
+}
@@ -0,0 +1,194 @@
+package org.gtio.jlask;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// BIO 连接的响应写出: 多个响应的头和体先攒在一起, flush 时用一次 gathering write 写入阻塞的 SocketChannel
+class ResponseWriter {
+    // 慢连接积压的事件超过该条数时断开
+    private static final int MAX_QUEUED_EVENTS = 1024;
+    private static final ByteBuffer END_OF_EVENTS = ByteBuffer.allocate(0);
+    private final SocketChannel channel;
+    private final Metrics metrics;
+    private final Watchdog watchdog;
+    private final List<ByteBuffer> pending = new ArrayList<>();
+    // pending 中来自池的响应头, 写完后归还
+    private final List<ByteBuffer> heads = new ArrayList<>();
+    private ByteBuffer chunk;
+
+    ResponseWriter(SocketChannel channel, Metrics metrics, Watchdog watchdog) {
+        this.channel = channel;
+        this.metrics = metrics;
+        this.watchdog = watchdog;
+    }
+
+    // 文件和流形式的响应体会先 flush 已攒下的数据, 再直接写出
+    void write(Response res) throws IOException {
+        if (res.getFile() != null) {
+            try (FileChannel file = FileChannel.open(res.getFile())) {
+                addHead(res);
+                flush();
+                transferFile(file, res.getBodyOffset(), res.getBodyLength());
+            }
+        } else if (res.getStream() != null) {
+            try (InputStream in = res.getStream()) {
+                addHead(res);
+                flush();
+                in.skipNBytes(res.getBodyOffset());
+                copyStream(in, res.getBodyLength());
+            }
+        } else if (res.getEvents() != null) {
+            addHead(res);
+            flush();
+            pushEvents(res);
+        } else if (res.getWriter() != null) {
+            addHead(res);
+            flush();
+            writeStream(res);
+        } else {
+            addHead(res);
+            pending.add(ResponseEncoder.encodeBody(res));
+        }
+    }
+
+    // 由连接自己的线程 (固定线程池模式下是单独的虚拟线程, 见 Jlask.detach) 从队列取出事件写出, 发布方只入队不等待
+    private void pushEvents(Response res) throws IOException {
+        BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(MAX_QUEUED_EVENTS);
+        Sink sink = new Sink() {
+            @Override
+            public boolean offer(ByteBuffer data) {
+                return queue.offer(data);
+            }
+
+            @Override
+            public void close() {
+                queue.clear();
+                queue.offer(END_OF_EVENTS);
+            }
+        };
+        EventStream events = res.getEvents();
+        events.attach(sink, res.getLastEventId());
+        try {
+            while (true) {
+                ByteBuffer data = queue.take();
+                if (data == END_OF_EVENTS) {
+                    return;
+                }
+                writeFully(data);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            events.detach(sink);
+        }
+    }
+
+    // 阻塞写, 客户端读得慢时处理器的 write 随之阻塞; 生成失败时不发送结束块, 由调用方关闭连接
+    private void writeStream(Response res) throws IOException {
+        ChunkedOutputStream body = new ChunkedOutputStream(res.getHeaders().containsKey("Transfer-Encoding")) {
+            @Override
+            void emit(ByteBuffer data) throws IOException {
+                writeFully(data);
+            }
+        };
+        try {
+            res.getWriter().writeTo(body);
+        } catch (RuntimeException e) {
+            throw new IOException("流式响应体生成失败", e);
+        }
+        body.close();
+    }
+
+    void write(byte[] bytes) {
+        pending.add(ByteBuffer.wrap(bytes));
+    }
+
+    private void addHead(Response res) {
+        ByteBuffer head = ResponseEncoder.encodeHead(res);
+        heads.add(head);
+        pending.add(head);
+    }
+
+    void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            ByteBuffer[] buffers = pending.toArray(new ByteBuffer[0]);
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                watchdog.awaitWrite(remaining);
+                long n = channel.write(buffers);
+                watchdog.progress(n);
+                remaining -= n;
+                metrics.bytesOut(n);
+            }
+        } finally {
+            watchdog.pause();
+            pending.clear();
+            for (ByteBuffer head : heads) {
+                ResponseEncoder.release(head);
+            }
+            heads.clear();
+        }
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        try {
+            while (data.hasRemaining()) {
+                watchdog.awaitWrite(data.remaining());
+                long n = channel.write(data);
+                watchdog.progress(n);
+                metrics.bytesOut(n);
+            }
+        } finally {
+            watchdog.pause();
+        }
+    }
+
+    private void transferFile(FileChannel file, long position, long count) throws IOException {
+        long end = position + count;
+        try {
+            while (position < end) {
+                watchdog.awaitWrite(end - position);
+                long n = file.transferTo(position, end - position, channel);
+                if (n <= 0) {
+                    // 文件在发送过程中被截短
+                    throw new EOFException("文件长度不足");
+                }
+                watchdog.progress(n);
+                position += n;
+                metrics.bytesOut(n);
+            }
+        } finally {
+            watchdog.pause();
+        }
+    }
+
+    // 按块复制, 每次只占用一个块大小的内存
+    private void copyStream(InputStream in, long count) throws IOException {
+        if (chunk == null) {
+            chunk = ByteBuffer.allocate(16 * 1024);
+        }
+        while (count > 0) {
+            int n = in.read(chunk.array(), 0, (int) Math.min(chunk.capacity(), count));
+            if (n == -1) {
+                throw new EOFException("资源长度不足");
+            }
+            chunk.clear().limit(n);
+            writeFully(chunk);
+            count -= n;
+        }
+    }
+}
@@ -11,4 +11,22 @@ public @interface Route {
     String url();
 
     String[] method() default {"GET"};
+
+    // 该路由同时执行的请求数上限, 超出时直接返回 503, 0 为不限制
+    int maxConcurrency() default 0;
+
+    // 返回 CompletableFuture / CompletionStage 的处理器 (以及缓存路由上合并等待的请求) 的超时 (毫秒), 超时返回 504; 0 为使用 Config.asyncTimeout
+    long timeout() default 0;
+
+    // 响应缓存的有效期 (毫秒), 0 为不缓存; 只缓存 GET 请求的 200 响应, 命中时不执行处理器
+    long cacheTtl() default 0;
+
+    // 缓存的最大条目数, 超出时淘汰最久未使用的
+    int cacheMaxEntries() default 1024;
+
+    // 参与缓存键的查询参数, 默认 "*" 为整个查询串; 空数组表示只按路径缓存
+    String[] cacheQuery() default {"*"};
+
+    // 参与缓存键的请求头, 例如 Accept-Language
+    String[] cacheHeaders() default {};
 }
\ No newline at end of file
@@ -0,0 +1,263 @@
+package org.gtio.jlask;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// 基数树路由: 静态部分按公共前缀合并成节点, 支持 {name} 匹配一段路径, 末尾的 * 或 {name*} 匹配剩余部分
+// 匹配时按 静态 > 参数 > 通配 的优先级回溯, 只在命中参数时才生成字符串
+// 按未解码的路径匹配, 参数值匹配后再解码: 参数中的 %2F 不会切开路径段; 路由的静态部分注册时按 UTF-8 编码
+class Router {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private final Node root = new Node("");
+
+    void add(String pattern, String method, Handler handler) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("路由必须以 / 开头: " + pattern);
+        }
+        Node node = root;
+        int pos = 0;
+        while (pos < pattern.length()) {
+            int brace = pattern.indexOf('{', pos);
+            int star = pattern.indexOf('*', pos);
+            int next = brace == -1 ? star : star == -1 ? brace : Math.min(brace, star);
+            if (next == -1) {
+                node = insertStatic(node, encode(pattern.substring(pos)));
+                break;
+            }
+            if (next > pos) {
+                node = insertStatic(node, encode(pattern.substring(pos, next)));
+            }
+            String name;
+            boolean wildcard;
+            if (next == star) {
+                name = "*";
+                wildcard = true;
+                pos = next + 1;
+            } else {
+                int close = pattern.indexOf('}', next);
+                if (close == -1) {
+                    throw new IllegalArgumentException("路由参数缺少 }: " + pattern);
+                }
+                name = pattern.substring(next + 1, close);
+                wildcard = name.endsWith("*");
+                if (wildcard) {
+                    name = name.substring(0, name.length() - 1);
+                }
+                if (name.isEmpty() || name.indexOf('/') != -1) {
+                    throw new IllegalArgumentException("路由参数名无效: " + pattern);
+                }
+                pos = close + 1;
+            }
+            if (wildcard) {
+                if (pos != pattern.length()) {
+                    throw new IllegalArgumentException("通配符只能出现在路由末尾: " + pattern);
+                }
+                node.wildcard = child(node.wildcard, name, pattern);
+                node = node.wildcard;
+            } else {
+                node.param = child(node.param, name, pattern);
+                node = node.param;
+            }
+        }
+        node.put(method, handler, pattern);
+    }
+
+    private static Node child(Node existing, String name, String pattern) {
+        if (existing == null) {
+            Node node = new Node("");
+            node.name = name;
+            return node;
+        }
+        if (!existing.name.equals(name)) {
+            throw new IllegalStateException("路由参数名冲突: " + pattern + " 中的 " + name + " 与已有的 " + existing.name);
+        }
+        return existing;
+    }
+
+    // 路径中可以直接出现的字符保持不变, 其余按 UTF-8 编码为 %XX, 与浏览器发出的原始路径一致
+    private static String encode(String path) {
+        StringBuilder sb = null;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c < 0x80 && (Character.isLetterOrDigit(c) || "/-._~!$&'()*+,;=:@".indexOf(c) != -1)) {
+                if (sb != null) {
+                    sb.append(c);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(path.length() * 3).append(path, 0, i);
+            }
+            int end = Character.isHighSurrogate(c) && i + 1 < path.length() ? i + 2 : i + 1;
+            for (byte b : path.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                sb.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+            }
+            i = end - 1;
+        }
+        return sb == null ? path : sb.toString();
+    }
+
+    // 在 node 下插入静态路径, 与已有子节点有公共前缀时拆分子节点
+    private static Node insertStatic(Node node, String path) {
+        while (!path.isEmpty()) {
+            Node child = node.staticChild(path.charAt(0));
+            if (child == null) {
+                child = new Node(path);
+                node.addChild(child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(child.prefix.length(), path.length());
+            while (common < max && child.prefix.charAt(common) == path.charAt(common)) {
+                common++;
+            }
+            if (common < child.prefix.length()) {
+                child.split(common);
+            }
+            node = child;
+            path = path.substring(common);
+        }
+        return node;
+    }
+
+    // 找到未解码的路径对应的节点, 解码后的路径参数写入 req (可以为 null); 没有匹配的路由返回 null
+    Node find(String path, Request req) {
+        return match(root, path, 0, req);
+    }
+
+    private static Node match(Node node, String path, int pos, Request req) {
+        int length = path.length();
+        while (true) {
+            if (pos == length && node.methods != null) {
+                return node;
+            }
+            Node child = pos < length ? node.staticChild(path.charAt(pos)) : null;
+            if (child != null && path.startsWith(child.prefix, pos)) {
+                // 没有参数和通配分支时不需要回溯, 直接沿静态节点往下走
+                if (node.param == null && node.wildcard == null) {
+                    node = child;
+                    pos += child.prefix.length();
+                    continue;
+                }
+                Node found = match(child, path, pos + child.prefix.length(), req);
+                if (found != null) {
+                    return found;
+                }
+            }
+            if (node.param != null && pos < length) {
+                int end = path.indexOf('/', pos);
+                if (end == -1) {
+                    end = length;
+                }
+                if (end > pos) {
+                    Node found = match(node.param, path, end, req);
+                    if (found != null) {
+                        // 回溯结束后才记录参数, 失败的分支不会留下痕迹
+                        if (req != null) {
+                            req.putPathParam(node.param.name, Request.decodePath(path.substring(pos, end)));
+                        }
+                        return found;
+                    }
+                }
+            }
+            if (node.wildcard != null && node.wildcard.methods != null) {
+                if (req != null) {
+                    req.putPathParam(node.wildcard.name, Request.decodePath(path.substring(pos)));
+                }
+                return node.wildcard;
+            }
+            return null;
+        }
+    }
+
+    static class Node {
+        private String prefix;
+        // 静态子节点按首字符索引
+        private char[] indices = new char[0];
+        private Node[] children = new Node[0];
+        private Node param;
+        private Node wildcard;
+        // 参数和通配节点的参数名
+        private String name;
+        private String[] methods;
+        private Handler[] handlers;
+        private String pattern;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        private Node staticChild(char c) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private void addChild(Node child) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            indices[indices.length - 1] = child.prefix.charAt(0);
+            children[children.length - 1] = child;
+        }
+
+        // 把 prefix 在 at 处拆开, 后半段连同原有的子节点和处理器移到新的子节点
+        private void split(int at) {
+            Node tail = new Node(prefix.substring(at));
+            tail.indices = indices;
+            tail.children = children;
+            tail.param = param;
+            tail.wildcard = wildcard;
+            tail.methods = methods;
+            tail.handlers = handlers;
+            tail.pattern = pattern;
+            prefix = prefix.substring(0, at);
+            indices = new char[0];
+            children = new Node[0];
+            param = null;
+            wildcard = null;
+            methods = null;
+            handlers = null;
+            pattern = null;
+            addChild(tail);
+        }
+
+        private void put(String method, Handler handler, String pattern) {
+            if (methods == null) {
+                methods = new String[0];
+                handlers = new Handler[0];
+                this.pattern = pattern;
+            }
+            for (String m : methods) {
+                if (m.equals(method)) {
+                    throw new IllegalStateException("路由重复: " + method + " " + pattern + " 与 " + this.pattern);
+                }
+            }
+            methods = Arrays.copyOf(methods, methods.length + 1);
+            handlers = Arrays.copyOf(handlers, handlers.length + 1);
+            methods[methods.length - 1] = method;
+            handlers[handlers.length - 1] = handler;
+        }
+
+        // 该路由不支持此方法时返回 null
+        Handler handler(String method) {
+            for (int i = 0; i < methods.length; i++) {
+                if (methods[i].equals(method)) {
+                    return handlers[i];
+                }
+            }
+            return null;
+        }
+
+        String pattern() {
+            return pattern;
+        }
+
+        // 405 响应的 Allow 头
+        String allow() {
+            return String.join(", ", methods);
+        }
+    }
+}
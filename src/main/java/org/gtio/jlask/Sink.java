@@ -0,0 +1,11 @@
+package org.gtio.jlask;
+
+import java.nio.ByteBuffer;
+
+// 由应用线程主动推送数据的连接发送端 (SSE、WebSocket), 由 BIO/NIO 引擎实现
+// offer 返回 false 表示连接已关闭或积压过多; close 在已入队的数据写完后关闭连接
+interface Sink {
+    boolean offer(ByteBuffer data);
+
+    void close();
+}
@@ -0,0 +1,274 @@
+package org.gtio.jlask;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+// @AssetsPath 下的静态资源: 配置了 staticDir 时从该目录发送文件 (零拷贝), 否则从 classpath 流式读取
+// 两种方式都支持单个区间的 Range 请求
+// 不超过 assetCacheMaxFileSize 的资源放进 AssetCache, 之后的请求直接用缓存的内容和校验信息应答
+class StaticFiles {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private final Path root;
+    private final AssetCache cache;
+    private final int maxFileSize;
+    private final Compression compression;
+
+    StaticFiles(Config config, Compression compression) {
+        this.compression = compression;
+        root = config.staticDir == null ? null : Path.of(config.staticDir).toAbsolutePath().normalize();
+        cache = config.assetCacheSize > 0 ? new AssetCache(config.assetCacheSize, config.assetCacheOffHeap) : null;
+        maxFileSize = config.assetCacheMaxFileSize;
+    }
+
+    AssetCache cache() {
+        return cache;
+    }
+
+    Response serve(Request req) throws IOException {
+        if (cache != null) {
+            AssetCache.Asset asset = cached(req.getUrl());
+            if (asset != null) {
+                return respond(req, asset);
+            }
+        }
+
+        Response res;
+        if (root == null) {
+            res = Response.RenderTemplate(req.getUrl());
+        } else {
+            Path file = resolve(req.getUrl());
+            if (file == null) {
+                return Response.ErrorStatus(ErrorType.Err_404);
+            }
+            res = Response.SendFile(file);
+        }
+        String range = req.getHeader("Range");
+        if (range == null || res.getStatus() != 200 || (res.getFile() == null && res.getStream() == null)) {
+            return res;
+        }
+        return applyRange(res, range);
+    }
+
+    // 不允许通过 ../ 访问目录之外的文件
+    private Path resolve(String url) {
+        Path file = root.resolve(url.substring(1)).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    private AssetCache.Asset cached(String url) throws IOException {
+        AssetCache.Asset asset = cache.get(url);
+        if (asset != null && !isStale(asset)) {
+            return asset;
+        }
+        if (asset != null) {
+            cache.remove(url);
+        }
+        asset = load(url, null);
+        if (asset == null) {
+            return null;
+        }
+        asset.brotli = load(url + ".br", asset.contentType);
+        asset.gzip = load(url + ".gz", asset.contentType);
+        if (asset.gzip == null && compression != null && compression.isCompressibleType(asset.contentType) && asset.content.capacity() >= compression.minSize()) {
+            // 没有预压缩文件时压缩一次, 和原始内容一起缓存
+            asset.gzip = gzipped(asset);
+        }
+        if (asset.weight() <= cache.capacity()) {
+            cache.put(url, asset);
+        }
+        return asset;
+    }
+
+    // 压缩后没有变小时返回 null
+    private AssetCache.Asset gzipped(AssetCache.Asset asset) {
+        byte[] content = new byte[asset.content.capacity()];
+        asset.content.duplicate().clear().get(content);
+        byte[] compressed = compression.compress(content, true);
+        if (compressed.length >= content.length) {
+            return null;
+        }
+        return new AssetCache.Asset(cache.store(compressed), asset.contentType, etag(compressed), asset.lastModified, asset.lastModifiedHeader, null);
+    }
+
+    // 文件系统中的资源每秒最多检查一次是否被修改
+    private static boolean isStale(AssetCache.Asset asset) {
+        long now = System.currentTimeMillis();
+        if (asset.source == null || now - asset.checkedAt < 1000) {
+            return false;
+        }
+        try {
+            if (Files.getLastModifiedTime(asset.source).toMillis() != asset.lastModified || Files.size(asset.source) != asset.content.capacity()) {
+                return true;
+            }
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+        asset.checkedAt = now;
+        return false;
+    }
+
+    // 资源不存在或超过 maxFileSize 时返回 null, 交给不缓存的流程处理
+    private AssetCache.Asset load(String url, String contentType) throws IOException {
+        Path file = null;
+        if (root != null) {
+            file = resolve(url);
+        } else {
+            URL resource = Response.class.getResource(url);
+            if (resource == null) {
+                return null;
+            }
+            if (resource.getProtocol().equals("file")) {
+                try {
+                    file = Path.of(resource.toURI());
+                } catch (URISyntaxException e) {
+                    return null;
+                }
+            } else {
+                URLConnection connection = resource.openConnection();
+                long length = connection.getContentLengthLong();
+                if (length < 0 || length > maxFileSize) {
+                    return null;
+                }
+                byte[] content;
+                try (InputStream in = connection.getInputStream()) {
+                    content = in.readAllBytes();
+                }
+                return newAsset(url, content, contentType, connection.getLastModified(), null);
+            }
+        }
+        if (file == null || !Files.isRegularFile(file) || Files.size(file) > maxFileSize) {
+            return null;
+        }
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        return newAsset(url, Files.readAllBytes(file), contentType, lastModified, file);
+    }
+
+    private AssetCache.Asset newAsset(String url, byte[] content, String contentType, long lastModified, Path source) {
+        if (contentType == null) {
+            contentType = Response.tika.detect(url);
+        }
+        return new AssetCache.Asset(cache.store(content), contentType, etag(content), lastModified, HTTP_DATE.format(Instant.ofEpochMilli(lastModified)), source);
+    }
+
+    private static String etag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 8) + "-" + Long.toHexString(content.length) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Response respond(Request req, AssetCache.Asset asset) throws IOException {
+        AssetCache.Asset variant = asset;
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        if (acceptEncoding != null) {
+            if (asset.brotli != null && Compression.accepts(acceptEncoding, "br")) {
+                variant = asset.brotli;
+            } else if (asset.gzip != null && Compression.accepts(acceptEncoding, "gzip")) {
+                variant = asset.gzip;
+            }
+        }
+
+        Response res = notModified(req, variant) ? Response.NotModified() : new Response(variant.content.duplicate(), asset.contentType);
+        res.getHeaders().put("ETag", variant.etag);
+        res.getHeaders().put("Last-Modified", variant.lastModifiedHeader);
+        if (asset.brotli != null || asset.gzip != null) {
+            res.getHeaders().put("Vary", "Accept-Encoding");
+        }
+        if (variant != asset) {
+            res.getHeaders().put("Content-Encoding", variant == asset.brotli ? "br" : "gzip");
+        }
+        String range = req.getHeader("Range");
+        if (range == null || res.getStatus() != 200) {
+            return res;
+        }
+        return applyRange(res, range);
+    }
+
+    // If-None-Match 优先, 没有时才看 If-Modified-Since
+    private static boolean notModified(Request req, AssetCache.Asset asset) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(asset.etag) || tag.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = req.getHeader("If-Modified-Since");
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return asset.lastModified / 1000 <= since;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    // 只处理 bytes=start-end / start- / -suffix 形式的单个区间, 其余情况忽略 Range 返回完整内容
+    private static Response applyRange(Response res, String range) throws IOException {
+        long length = res.getBodyLength();
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return res;
+        }
+        int dash = range.indexOf('-', 6);
+        if (dash == -1) {
+            return res;
+        }
+        long start;
+        long end;
+        try {
+            String first = range.substring(6, dash).trim();
+            String last = range.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+                if (suffix == 0) {
+                    start = length;
+                }
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start < length && end < start) {
+                    return res;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return res;
+        }
+        if (start >= length) {
+            if (res.getStream() != null) {
+                res.getStream().close();
+            }
+            return Response.RangeNotSatisfiable(length);
+        }
+        res.setRange(start, end);
+        return res;
+    }
+}
@@ -0,0 +1,107 @@
+package org.gtio.jlask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// 哈希时间轮: 所有连接的超时共用一个线程, 每个 tick 只检查当前格子里的任务, 添加和到期都是 O(1)
+// 精度为一个 tick, 到期的任务在计时线程中执行, 必须很快返回
+class TimerWheel {
+    private final long tickNanos;
+    private final int mask;
+    private final List<Entry>[] buckets;
+    // 其他线程添加的任务先进入队列, 由计时线程放进格子, 格子本身不需要加锁
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.nanoTime();
+    private long tick;
+
+    private static class Entry {
+        final Runnable task;
+        final long deadline;
+        long rounds;
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    TimerWheel(long tickMillis, int wheelSize, String name) {
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        mask = size - 1;
+        // 泛型数组只能这样创建, 只在这一处忽略 unchecked
+        @SuppressWarnings("unchecked")
+        List<Entry>[] lists = (List<Entry>[]) new List<?>[size];
+        buckets = lists;
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // delayNanos 之后 (向上取整到 tick) 执行 task
+    void schedule(Runnable task, long delayNanos) {
+        pending.add(new Entry(task, System.nanoTime() + Math.max(0, delayNanos)));
+    }
+
+    private void run() {
+        while (true) {
+            long next = startTime + (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(sleep);
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            // 已经过期的任务放进当前格子, 本轮就执行
+            long ticks = Math.max(tick, (entry.deadline - startTime + tickNanos - 1) / tickNanos);
+            entry.rounds = (ticks - tick) / buckets.length;
+            buckets[(int) (ticks & mask)].add(entry);
+        }
+    }
+
+    private void expire(List<Entry> bucket) {
+        List<Entry> due = null;
+        int i = 0;
+        while (i < bucket.size()) {
+            Entry entry = bucket.get(i);
+            if (entry.rounds > 0) {
+                entry.rounds--;
+                i++;
+                continue;
+            }
+            // 用最后一个元素填补空位, 删除不需要移动数组
+            Entry last = bucket.remove(bucket.size() - 1);
+            if (i < bucket.size()) {
+                bucket.set(i, last);
+            }
+            if (due == null) {
+                due = new ArrayList<>();
+            }
+            due.add(entry);
+        }
+        if (due == null) {
+            return;
+        }
+        for (Entry entry : due) {
+            try {
+                entry.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.gtio.jlask;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 连接的超时检查, 截止时间由共用的 TimerWheel 检查, 不为每个连接创建计时线程
+// 空闲阶段是固定的超时; 读写阶段按额度计算: 进入阶段时额度为该阶段的超时时间, 等待对端的时间从额度中扣除,
+// 每收到或发出一个字节补充 1/minDataRate 秒 (最多补满), 额度用完即超时, 所以慢速发送 (slowloris) 也会被断开
+// idle / await / progress / pause / cancel 只由连接所属的线程调用
+class Watchdog {
+    private static final int IDLE = 1;
+    private static final int HEAD = 2;
+    private static final int BODY = 3;
+    private static final int WRITE = 4;
+    private final TimerWheel wheel;
+    private final Runnable onExpire;
+    private final long nanosPerByte;
+    private final long idleTimeout;
+    private final long headerTimeout;
+    private final long bodyTimeout;
+    private final long writeTimeout;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 0 表示当前没有在计时
+    private volatile long deadline;
+    private volatile boolean expired;
+    // 时间轮中最早的一次检查, 由 lock 保护
+    private long scheduledAt;
+    private int phase;
+    private long grace;
+    private long budget;
+    private long waitStart;
+
+    // onExpire 在计时线程中调用, 应当只关闭连接或把关闭交给连接所属的线程
+    Watchdog(TimerWheel wheel, Config config, Runnable onExpire) {
+        this.wheel = wheel;
+        this.onExpire = onExpire;
+        nanosPerByte = config.minDataRate > 0 ? TimeUnit.SECONDS.toNanos(1) / config.minDataRate : 0;
+        idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.keepAliveTimeout);
+        headerTimeout = TimeUnit.MILLISECONDS.toNanos(config.headerTimeout);
+        bodyTimeout = TimeUnit.MILLISECONDS.toNanos(config.bodyTimeout);
+        writeTimeout = TimeUnit.MILLISECONDS.toNanos(config.writeTimeout);
+    }
+
+    // 等待下一个请求的第一个字节 (keepAliveTimeout), 已经在空闲阶段时不重新计时
+    void idle() {
+        if (phase == IDLE) {
+            return;
+        }
+        phase = IDLE;
+        waitStart = 0;
+        arm(System.nanoTime() + idleTimeout);
+    }
+
+    // 已收到请求的第一个字节, 等待请求头的其余部分
+    void awaitHead() {
+        await(HEAD, headerTimeout, 0);
+    }
+
+    void awaitBody() {
+        await(BODY, bodyTimeout, 0);
+    }
+
+    // expectedBytes 为一次阻塞写要发出的字节数, 按最低速率预先计入额度
+    void awaitWrite(long expectedBytes) {
+        await(WRITE, writeTimeout, expectedBytes);
+    }
+
+    // 开始等待对端读写; 换了阶段时额度重置为该阶段的超时时间, 已经在等待时不重复计时
+    private void await(int phase, long timeout, long expectedBytes) {
+        long now = System.nanoTime();
+        if (this.phase != phase) {
+            this.phase = phase;
+            grace = timeout;
+            budget = grace;
+            waitStart = 0;
+        }
+        if (waitStart != 0) {
+            return;
+        }
+        waitStart = now;
+        arm(now + budget + credit(expectedBytes));
+    }
+
+    // 收到或发出了 bytes 字节, 仍在等待时顺延截止时间
+    void progress(long bytes) {
+        if (phase == IDLE || bytes <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (waitStart != 0) {
+            budget -= now - waitStart;
+            waitStart = now;
+        }
+        budget = Math.min(grace, budget + credit(bytes));
+        if (waitStart != 0) {
+            arm(now + budget);
+        }
+    }
+
+    // 轮到本端处理 (执行处理器等), 暂停计时, 同一阶段再次 await 时继续使用剩余额度
+    void pause() {
+        if (waitStart != 0) {
+            budget -= System.nanoTime() - waitStart;
+            waitStart = 0;
+        }
+        if (phase == IDLE) {
+            phase = 0;
+        }
+        deadline = 0;
+    }
+
+    // 连接关闭或升级为其他协议后不再计时
+    void cancel() {
+        phase = 0;
+        waitStart = 0;
+        deadline = 0;
+    }
+
+    boolean isOverdue() {
+        long d = deadline;
+        return d != 0 && System.nanoTime() - d >= 0;
+    }
+
+    // 连接是否因超时被关闭, 用于区分超时和其他 IO 错误
+    boolean isExpired() {
+        return expired;
+    }
+
+    // minDataRate 为 0 时只要有数据就补满额度
+    private long credit(long bytes) {
+        if (bytes <= 0) {
+            return 0;
+        }
+        return nanosPerByte == 0 ? grace : bytes * nanosPerByte;
+    }
+
+    private void arm(long at) {
+        deadline = at;
+        lock.lock();
+        try {
+            if (scheduledAt == 0 || at - scheduledAt < 0) {
+                scheduledAt = at;
+                wheel.schedule(() -> fire(at), at - System.nanoTime());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 计时线程调用; 截止时间被顺延过就按新的时间再检查一次, 过期的 (已被更早的检查取代的) 检查直接忽略
+    private void fire(long at) {
+        lock.lock();
+        try {
+            if (at != scheduledAt) {
+                return;
+            }
+            scheduledAt = 0;
+            long d = deadline;
+            if (d == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - d < 0) {
+                scheduledAt = d;
+                wheel.schedule(() -> fire(d), d - now);
+                return;
+            }
+            expired = true;
+        } finally {
+            lock.unlock();
+        }
+        onExpire.run();
+    }
+}
@@ -0,0 +1,439 @@
+package org.gtio.jlask;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// RFC 6455 WebSocket 连接: 握手由 @WebSocketRoute 生成的处理器完成, 之后连接上的字节交给 feed 解析成帧
+// 解析在读数据的线程 (NIO 事件循环或 BIO 连接线程) 中完成, 回调交给线程池按顺序执行; 发送可以在任意线程调用
+public class WebSocket {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    // 握手时调用 @WebSocketRoute 方法, 返回该连接的监听器
+    interface Endpoint {
+        WebSocketListener open(Request req) throws Exception;
+    }
+
+    private final Request request;
+    private final WebSocketListener listener;
+    private final int maxMessageSize;
+    private Sink sink;
+    private Executor executor;
+    // 回调队列, 保证同一连接上的回调不并发且按到达顺序执行
+    private final ArrayDeque<Runnable> callbacks = new ArrayDeque<>();
+    private final ReentrantLock callbackLock = new ReentrantLock();
+    private boolean running;
+    private final AtomicBoolean closeSent = new AtomicBoolean();
+    private final AtomicBoolean closeFired = new AtomicBoolean();
+
+    // 以下只在读数据的线程中访问
+    // 还没凑够一帧的字节, 处于写模式
+    private ByteBuffer partial;
+    // 分片消息的类型和已收到的内容, 没有进行中的分片消息时 messageType 为 -1
+    private int messageType = -1;
+    private byte[] message;
+    private int messageLength;
+    private boolean inputClosed;
+
+    WebSocket(Request request, WebSocketListener listener, int maxMessageSize) {
+        this.request = request;
+        this.listener = listener;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    // 校验握手请求, 通过后调用端点方法, 返回 101 响应, 引擎发出响应头后把连接交给 WebSocket
+    static Handler handshake(Endpoint endpoint, int maxMessageSize) {
+        return req -> {
+            String key = req.getHeader("Sec-WebSocket-Key");
+            String connection = req.getHeader("Connection");
+            if (key == null || !"websocket".equalsIgnoreCase(req.getHeader("Upgrade"))
+                    || connection == null || !connection.toLowerCase().contains("upgrade")) {
+                return Response.ErrorStatus(ErrorType.Err_400);
+            }
+            if (!"13".equals(req.getHeader("Sec-WebSocket-Version"))) {
+                Response res = Response.ErrorStatus(ErrorType.Err_400);
+                res.getHeaders().put("Sec-WebSocket-Version", "13");
+                return res;
+            }
+            WebSocketListener listener = endpoint.open(req);
+            if (listener == null) {
+                return Response.ErrorStatus(ErrorType.Err_403);
+            }
+            return Response.SwitchingProtocols(new WebSocket(req, listener, maxMessageSize), accept(key.trim()));
+        };
+    }
+
+    static String accept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 同一条消息发给多个连接, 帧只编码一次
+    public static void broadcast(Collection<WebSocket> sockets, String text) {
+        byte[] frame = frame(OP_TEXT, text.getBytes(StandardCharsets.UTF_8));
+        for (WebSocket socket : sockets) {
+            socket.sendFrame(ByteBuffer.wrap(frame));
+        }
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    public boolean isOpen() {
+        return !closeSent.get() && !closeFired.get();
+    }
+
+    public void send(String text) {
+        sendFrame(ByteBuffer.wrap(frame(OP_TEXT, text.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    public void send(byte[] data) {
+        sendFrame(ByteBuffer.wrap(frame(OP_BINARY, data)));
+    }
+
+    public void ping(byte[] data) {
+        if (data.length > 125) {
+            throw new IllegalArgumentException("控制帧的负载不能超过 125 字节");
+        }
+        sendFrame(ByteBuffer.wrap(frame(OP_PING, data)));
+    }
+
+    public void close() {
+        close(1000, "");
+    }
+
+    // 发送关闭帧, 已排队的数据写完后关闭连接
+    public void close(int code, String reason) {
+        if (!closeSent.compareAndSet(false, true)) {
+            return;
+        }
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        // 控制帧最多 125 字节, 原因超长时在字符边界截断, 不能把多字节字符切开 (对端会按 1007 断开)
+        int length = Math.min(text.length, 123);
+        while (length < text.length && (text[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        byte[] payload = new byte[2 + length];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, length);
+        fireClose(code, reason);
+        if (sink != null) {
+            sink.offer(ByteBuffer.wrap(frame(OP_CLOSE, payload)));
+            sink.close();
+        }
+    }
+
+    // 响应头发出后由引擎调用; executor 为 null 时回调直接在读数据的线程中执行 (BIO)
+    void open(Sink sink, Executor executor) {
+        this.sink = sink;
+        this.executor = executor;
+        dispatch(() -> listener.onOpen(this));
+    }
+
+    // 连接断开时由引擎调用, 没有经过关闭握手的按 1006 通知监听器
+    void closed() {
+        inputClosed = true;
+        fireClose(1006, "");
+    }
+
+    boolean isInputClosed() {
+        return inputClosed;
+    }
+
+    // 解析连接上新到的字节, 不完整的帧留到下次
+    void feed(ByteBuffer data) {
+        if (inputClosed) {
+            return;
+        }
+        ByteBuffer buf = data;
+        if (partial != null) {
+            if (partial.remaining() < data.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(partial.capacity() * 2, partial.position() + data.remaining()));
+                partial.flip();
+                bigger.put(partial);
+                partial = bigger;
+            }
+            partial.put(data);
+            buf = partial.flip();
+        }
+        while (!inputClosed && readFrame(buf)) {
+        }
+        if (inputClosed || !buf.hasRemaining()) {
+            partial = null;
+        } else if (buf == partial) {
+            partial.compact();
+        } else {
+            partial = ByteBuffer.allocate(Math.max(buf.remaining() * 2, 256));
+            partial.put(buf);
+        }
+    }
+
+    // 读出一个完整的帧并处理, 数据不够时不移动 position 并返回 false
+    private boolean readFrame(ByteBuffer buf) {
+        int start = buf.position();
+        int available = buf.remaining();
+        if (available < 2) {
+            return false;
+        }
+        int b0 = buf.get(start) & 0xff;
+        int b1 = buf.get(start + 1) & 0xff;
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0f;
+        long length = b1 & 0x7f;
+        int headerLength = 2;
+        if (length == 126) {
+            if (available < 4) {
+                return false;
+            }
+            length = buf.getShort(start + 2) & 0xffff;
+            headerLength = 4;
+        } else if (length == 127) {
+            if (available < 10) {
+                return false;
+            }
+            length = buf.getLong(start + 2);
+            headerLength = 10;
+        }
+
+        if ((b0 & 0x70) != 0) {
+            return fail(1002, "不支持扩展");
+        }
+        if ((b1 & 0x80) == 0) {
+            return fail(1002, "客户端帧必须掩码");
+        }
+        boolean control = (opcode & 0x08) != 0;
+        if (control && (length > 125 || !fin)) {
+            return fail(1002, "控制帧不合法");
+        }
+        // 在等待负载之前检查长度, 超大的帧不会被缓冲
+        if (length < 0 || length > maxMessageSize || !control && messageLength + length > maxMessageSize) {
+            return fail(1009, "消息过大");
+        }
+        headerLength += 4;
+        if (available < headerLength + length) {
+            return false;
+        }
+
+        int maskAt = start + headerLength - 4;
+        byte[] payload = new byte[(int) length];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (buf.get(start + headerLength + i) ^ buf.get(maskAt + (i & 3)));
+        }
+        buf.position(start + headerLength + payload.length);
+
+        switch (opcode) {
+            case OP_TEXT, OP_BINARY -> {
+                if (messageType != -1) {
+                    return fail(1002, "上一条分片消息还没有结束");
+                }
+                if (fin) {
+                    deliver(opcode, payload);
+                } else {
+                    messageType = opcode;
+                    appendMessage(payload);
+                }
+            }
+            case OP_CONTINUATION -> {
+                if (messageType == -1) {
+                    return fail(1002, "没有进行中的分片消息");
+                }
+                appendMessage(payload);
+                if (fin) {
+                    int type = messageType;
+                    byte[] whole = Arrays.copyOf(message, messageLength);
+                    messageType = -1;
+                    message = null;
+                    messageLength = 0;
+                    deliver(type, whole);
+                }
+            }
+            case OP_PING -> sendFrame(ByteBuffer.wrap(frame(OP_PONG, payload)));
+            case OP_PONG -> {
+            }
+            case OP_CLOSE -> {
+                if (payload.length == 0) {
+                    inputClosed = true;
+                    close(1000, "");
+                    return true;
+                }
+                if (payload.length == 1) {
+                    return fail(1002, "关闭帧不合法");
+                }
+                int code = (payload[0] & 0xff) << 8 | payload[1] & 0xff;
+                if (!isValidCloseCode(code)) {
+                    return fail(1002, "关闭码不合法");
+                }
+                String reason = decodeUtf8(payload, 2);
+                if (reason == null) {
+                    return fail(1007, "关闭原因不是合法的 UTF-8");
+                }
+                inputClosed = true;
+                // 回复同样的关闭码
+                close(code, reason);
+            }
+            default -> {
+                return fail(1002, "未知的操作码 " + opcode);
+            }
+        }
+        return true;
+    }
+
+    private void appendMessage(byte[] payload) {
+        if (message == null) {
+            message = new byte[Math.max(payload.length * 2, 1024)];
+        } else if (message.length - messageLength < payload.length) {
+            message = Arrays.copyOf(message, Math.max(message.length * 2, messageLength + payload.length));
+        }
+        System.arraycopy(payload, 0, message, messageLength, payload.length);
+        messageLength += payload.length;
+    }
+
+    private void deliver(int type, byte[] payload) {
+        if (type == OP_BINARY) {
+            dispatch(() -> listener.onBinary(this, payload));
+            return;
+        }
+        String text = decodeUtf8(payload, 0);
+        if (text == null) {
+            fail(1007, "文本消息不是合法的 UTF-8");
+            return;
+        }
+        dispatch(() -> listener.onText(this, text));
+    }
+
+    // 严格解码, 不合法时返回 null
+    private static String decodeUtf8(byte[] bytes, int offset) {
+        try {
+            CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, bytes.length - offset));
+            return chars.toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    // RFC 6455 7.4: 1005 / 1006 / 1015 只用于本地表示, 不能出现在线路上; 其余为已登记的 1000-1014 和应用使用的 3000-4999
+    private static boolean isValidCloseCode(int code) {
+        if (code >= 3000 && code <= 4999) {
+            return true;
+        }
+        return code >= 1000 && code <= 1014 && code != 1004 && code != 1005 && code != 1006;
+    }
+
+    // 协议错误: 发送对应的关闭码并停止解析
+    private boolean fail(int code, String reason) {
+        inputClosed = true;
+        close(code, reason);
+        return false;
+    }
+
+    // 积压过多或连接已断开时放弃该连接
+    private void sendFrame(ByteBuffer frame) {
+        if (sink == null || closeSent.get()) {
+            return;
+        }
+        if (!sink.offer(frame)) {
+            closeSent.set(true);
+            sink.close();
+            fireClose(1006, "");
+        }
+    }
+
+    private void fireClose(int code, String reason) {
+        if (closeFired.compareAndSet(false, true)) {
+            dispatch(() -> listener.onClose(this, code, reason));
+        }
+    }
+
+    private void dispatch(Runnable callback) {
+        if (executor == null) {
+            run(callback);
+            return;
+        }
+        callbackLock.lock();
+        try {
+            callbacks.add(callback);
+            if (running) {
+                return;
+            }
+            running = true;
+        } finally {
+            callbackLock.unlock();
+        }
+        executor.execute(this::drainCallbacks);
+    }
+
+    private void drainCallbacks() {
+        while (true) {
+            Runnable callback;
+            callbackLock.lock();
+            try {
+                callback = callbacks.poll();
+                if (callback == null) {
+                    running = false;
+                    return;
+                }
+            } finally {
+                callbackLock.unlock();
+            }
+            run(callback);
+        }
+    }
+
+    private void run(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            close(1011, "服务器内部错误");
+        }
+    }
+
+    // 服务端发出的帧不掩码
+    static byte[] frame(int opcode, byte[] payload) {
+        int length = payload.length;
+        int headerLength = length < 126 ? 2 : length <= 0xffff ? 4 : 10;
+        byte[] frame = new byte[headerLength + length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (length < 126) {
+            frame[1] = (byte) length;
+        } else if (length <= 0xffff) {
+            frame[1] = 126;
+            frame[2] = (byte) (length >> 8);
+            frame[3] = (byte) length;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) length >> (56 - 8 * i));
+            }
+        }
+        System.arraycopy(payload, 0, frame, headerLength, length);
+        return frame;
+    }
+}
@@ -0,0 +1,17 @@
+package org.gtio.jlask;
+
+// WebSocket 连接上的事件回调, 同一连接上的回调按顺序在线程池中执行, 不会并发
+public interface WebSocketListener {
+    default void onOpen(WebSocket socket) {
+    }
+
+    default void onText(WebSocket socket, String text) {
+    }
+
+    default void onBinary(WebSocket socket, byte[] data) {
+    }
+
+    // 正常关闭时 code 为对方或本端发送的关闭码, 连接异常断开时为 1006
+    default void onClose(WebSocket socket, int code, String reason) {
+    }
+}
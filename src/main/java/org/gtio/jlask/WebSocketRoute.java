@@ -0,0 +1,13 @@
+package org.gtio.jlask;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// WebSocket 端点, 方法签名为 WebSocketListener xxx(Request), 握手时调用, 返回 null 表示拒绝连接 (403)
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface WebSocketRoute {
+    String url();
+}
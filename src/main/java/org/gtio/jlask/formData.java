@@ -1,5 +1,13 @@
 package org.gtio.jlask;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
 public class formData {
 
     public String name;
@@ -8,5 +16,19 @@ public class formData {
     public String filename;
     public String contentType;
     public String contentTransferEncoding;
-}
+    // 超过 Config.fileSizeThreshold 的部分写入临时文件, 此时 value 和 binaryValue 都为 null, 请求结束后文件会被删除
+    public Path file;
+    public long size;
 
+    // 读取内容, 不管它在内存里还是临时文件里
+    public InputStream open() throws IOException {
+        if (file != null) {
+            InputStream in = Files.newInputStream(file);
+            return "base64".equals(contentTransferEncoding) ? Base64.getMimeDecoder().wrap(in) : in;
+        }
+        if (binaryValue != null) {
+            return new ByteArrayInputStream(binaryValue);
+        }
+        return new ByteArrayInputStream(value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+    }
+}
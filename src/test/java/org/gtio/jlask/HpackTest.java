@@ -0,0 +1,179 @@
+package org.gtio.jlask;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// RFC 7541 附录 C 的示例
+class HpackTest {
+    private static final String DATE_1 = "Mon, 21 Oct 2013 20:13:21 GMT";
+    private static final String DATE_2 = "Mon, 21 Oct 2013 20:13:22 GMT";
+    private static final String LOCATION = "https://www.example.com";
+    private static final String COOKIE = "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1";
+
+    private static final String[][] REQUEST_1 = {{":method", "GET"}, {":scheme", "http"}, {":path", "/"},
+            {":authority", "www.example.com"}};
+    private static final String[][] REQUEST_2 = {{":method", "GET"}, {":scheme", "http"}, {":path", "/"},
+            {":authority", "www.example.com"}, {"cache-control", "no-cache"}};
+    private static final String[][] REQUEST_3 = {{":method", "GET"}, {":scheme", "https"}, {":path", "/index.html"},
+            {":authority", "www.example.com"}, {"custom-key", "custom-value"}};
+    private static final String[][] RESPONSE_1 = {{":status", "302"}, {"cache-control", "private"}, {"date", DATE_1},
+            {"location", LOCATION}};
+    private static final String[][] RESPONSE_2 = {{":status", "307"}, {"cache-control", "private"}, {"date", DATE_1},
+            {"location", LOCATION}};
+    private static final String[][] RESPONSE_3 = {{":status", "200"}, {"cache-control", "private"}, {"date", DATE_2},
+            {"location", LOCATION}, {"content-encoding", "gzip"}, {"set-cookie", COOKIE}};
+
+    private static byte[] hex(String s) {
+        return HexFormat.of().parseHex(s.replace(" ", ""));
+    }
+
+    private static String[][] decode(Hpack.Decoder decoder, String block) {
+        List<String[]> headers = new ArrayList<>();
+        decoder.decode(ByteBuffer.wrap(hex(block)), (name, value) -> headers.add(new String[]{name, value}));
+        return headers.toArray(new String[0][]);
+    }
+
+    private static byte[] encode(Hpack.Encoder encoder, String[][] headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.begin(out);
+        for (String[] header : headers) {
+            encoder.encode(out, header[0], header[1]);
+        }
+        return out.toByteArray();
+    }
+
+    // C.1
+    @Test
+    void integerRepresentation() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hpack.writeInt(out, 0, 5, 10);
+        assertArrayEquals(hex("0a"), out.toByteArray());
+
+        out.reset();
+        Hpack.writeInt(out, 0, 5, 1337);
+        assertArrayEquals(hex("1f 9a 0a"), out.toByteArray());
+
+        out.reset();
+        Hpack.writeInt(out, 0, 8, 42);
+        assertArrayEquals(hex("2a"), out.toByteArray());
+
+        assertEquals(10, Hpack.readInt(ByteBuffer.wrap(hex("ea")), 5));
+        assertEquals(1337, Hpack.readInt(ByteBuffer.wrap(hex("1f 9a 0a")), 5));
+        assertEquals(42, Hpack.readInt(ByteBuffer.wrap(hex("2a")), 8));
+    }
+
+    // C.2
+    @Test
+    void headerFieldRepresentations() {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 64 * 1024);
+        assertArrayEquals(new String[][]{{"custom-key", "custom-header"}},
+                decode(decoder, "400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572"));
+        // C.2.1 加入动态表的条目可以用索引 62 引用
+        assertArrayEquals(new String[][]{{"custom-key", "custom-header"}}, decode(decoder, "be"));
+
+        Hpack.Decoder literals = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 64 * 1024);
+        assertArrayEquals(new String[][]{{":path", "/sample/path"}},
+                decode(literals, "040c 2f73 616d 706c 652f 7061 7468"));
+        assertArrayEquals(new String[][]{{"password", "secret"}},
+                decode(literals, "1008 7061 7373 776f 7264 0673 6563 7265 74"));
+        assertArrayEquals(new String[][]{{":method", "GET"}}, decode(literals, "82"));
+        // 不加入动态表的两种表示之后动态表仍为空
+        assertThrows(IllegalArgumentException.class, () -> decode(literals, "be"));
+    }
+
+    // C.3
+    @Test
+    void requestsWithoutHuffman() {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 64 * 1024);
+        assertArrayEquals(REQUEST_1, decode(decoder, "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d"));
+        assertArrayEquals(REQUEST_2, decode(decoder, "8286 84be 5808 6e6f 2d63 6163 6865"));
+        assertArrayEquals(REQUEST_3, decode(decoder,
+                "8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65"));
+    }
+
+    // C.4
+    private static final String C4_1 = "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff";
+    private static final String C4_2 = "8286 84be 5886 a8eb 1064 9cbf";
+    private static final String C4_3 = "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf";
+
+    @Test
+    void requestsWithHuffman() {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 64 * 1024);
+        assertArrayEquals(REQUEST_1, decode(decoder, C4_1));
+        assertArrayEquals(REQUEST_2, decode(decoder, C4_2));
+        assertArrayEquals(REQUEST_3, decode(decoder, C4_3));
+    }
+
+    // 编码器在 Huffman 更短时使用 Huffman, 并把条目加入动态表, 与 C.4 的输出逐字节相同
+    @Test
+    void encoderReproducesHuffmanRequests() {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        assertArrayEquals(hex(C4_1), encode(encoder, REQUEST_1));
+        assertArrayEquals(hex(C4_2), encode(encoder, REQUEST_2));
+        assertArrayEquals(hex(C4_3), encode(encoder, REQUEST_3));
+    }
+
+    // C.5: 动态表只有 256 字节, 后续的块依赖正确的淘汰顺序
+    @Test
+    void responsesWithoutHuffman() {
+        Hpack.Decoder decoder = new Hpack.Decoder(256, 64 * 1024);
+        assertArrayEquals(RESPONSE_1, decode(decoder, """
+                4803 3330 3258 0770 7269 7661 7465 611d
+                4d6f 6e2c 2032 3120 4f63 7420 3230 3133
+                2032 303a 3133 3a32 3120 474d 546e 1768
+                7474 7073 3a2f 2f77 7777 2e65 7861 6d70
+                6c65 2e63 6f6d""".replace("\n", "")));
+        assertArrayEquals(RESPONSE_2, decode(decoder, "4803 3330 37c1 c0bf"));
+        assertArrayEquals(RESPONSE_3, decode(decoder, """
+                88c1 611d 4d6f 6e2c 2032 3120 4f63 7420
+                3230 3133 2032 303a 3133 3a32 3220 474d
+                54c0 5a04 677a 6970 7738 666f 6f3d 4153
+                444a 4b48 514b 425a 584f 5157 454f 5049
+                5541 5851 5745 4f49 553b 206d 6178 2d61
+                6765 3d33 3630 303b 2076 6572 7369 6f6e
+                3d31""".replace("\n", "")));
+    }
+
+    // C.6
+    @Test
+    void responsesWithHuffman() {
+        Hpack.Decoder decoder = new Hpack.Decoder(256, 64 * 1024);
+        assertArrayEquals(RESPONSE_1, decode(decoder, """
+                4882 6402 5885 aec3 771a 4b61 96d0 7abe
+                9410 54d4 44a8 2005 9504 0b81 66e0 82a6
+                2d1b ff6e 919d 29ad 1718 63c7 8f0b 97c8
+                e9ae 82ae 43d3""".replace("\n", "")));
+        assertArrayEquals(RESPONSE_2, decode(decoder, "4883 640e ffc1 c0bf"));
+        assertArrayEquals(RESPONSE_3, decode(decoder, """
+                88c1 6196 d07a be94 1054 d444 a820 0595
+                040b 8166 e084 a62d 1bff c05a 839b d9ab
+                77ad 94e7 821d d7f2 e6c7 b335 dfdf cd5b
+                3960 d5af 2708 7f36 72c1 ab27 0fb5 291f
+                9587 3160 65c0 03ed 4ee5 b106 3d50 07""".replace("\n", "")));
+    }
+
+    @Test
+    void rejectsInvalidBlocks() {
+        // 动态表大小更新超过本端声明的上限
+        assertThrows(IllegalArgumentException.class,
+                () -> decode(new Hpack.Decoder(256, 64 * 1024), "3fe1 1f"));
+        // 大小更新不在块的开头
+        assertThrows(IllegalArgumentException.class,
+                () -> decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 64 * 1024), "8220"));
+        // Huffman 填充不是全 1 的 EOS 前缀
+        assertThrows(IllegalArgumentException.class,
+                () -> decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 64 * 1024), "0481 00"));
+        // 请求头列表超过上限
+        assertThrows(IllegalArgumentException.class,
+                () -> decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 40), "8286 84"));
+    }
+}
@@ -0,0 +1,106 @@
+package org.gtio.jlask;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RequestParserTest {
+    private final RequestParser parser = new RequestParser();
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private RequestParser parse(String head) {
+        byte[] buf = bytes(head);
+        assertEquals(buf.length, parser.parse(buf, 0, buf.length));
+        return parser;
+    }
+
+    @Test
+    void parsesRequestLineAndHeaders() {
+        parse("GET /a/b?x=1 HTTP/1.1\r\nHost: example.com\r\ncontent-length: 0\r\n\r\n");
+        assertEquals("GET", parser.method());
+        assertEquals("HTTP/1.1", parser.version());
+        assertEquals("/a/b?x=1", parser.target());
+        // 请求头名称不区分大小写
+        assertEquals("example.com", parser.header("host"));
+        assertEquals("0", parser.header("Content-Length"));
+        assertNull(parser.header("Cookie"));
+        assertEquals(0, parser.contentLength());
+    }
+
+    @Test
+    void incompleteHeadReturnsMinusOne() {
+        byte[] buf = bytes("GET / HTTP/1.1\r\nHost: a\r\n");
+        assertEquals(-1, parser.parse(buf, 0, buf.length));
+        assertEquals(-1, parser.parse(buf, 0, 5));
+    }
+
+    // 同一缓冲区中的多个请求依次从上一个请求结束的位置开始解析, 中间多余的空行被跳过
+    @Test
+    void parsesPipelinedRequests() {
+        String first = "POST /upload HTTP/1.1\r\nContent-Length: 5\r\n\r\n";
+        String second = "GET /next HTTP/1.1\r\nHost: a\r\n\r\n";
+        byte[] buf = bytes(first + "hello" + "\r\n" + second + "GET /partial HTTP/1.1\r\n");
+
+        int end = parser.parse(buf, 0, buf.length);
+        assertEquals(first.length(), end);
+        assertEquals("POST", parser.method());
+        assertEquals(5, parser.contentLength());
+
+        int next = parser.parse(buf, end + 5, buf.length);
+        assertEquals(first.length() + 7 + second.length(), next);
+        assertEquals("GET", parser.method());
+        assertEquals("/next", parser.target());
+        assertEquals(0, parser.contentLength());
+        assertNull(parser.header("Content-Length"));
+
+        assertEquals(-1, parser.parse(buf, next, buf.length));
+    }
+
+    @Test
+    void acceptsIdenticalDuplicateContentLength() {
+        parse("POST / HTTP/1.1\r\nContent-Length: 12\r\nContent-Length: 12\r\n\r\n");
+        assertEquals(12, parser.contentLength());
+    }
+
+    @Test
+    void rejectsConflictingContentLength() {
+        parse("POST / HTTP/1.1\r\nContent-Length: 4\r\ncontent-length: 5\r\n\r\n");
+        assertThrows(IllegalArgumentException.class, parser::contentLength);
+    }
+
+    @Test
+    void rejectsMalformedContentLength() {
+        for (String value : new String[]{"4, 4", "-1", "+4", "0x10", "", "99999999999999999999"}) {
+            parse("POST / HTTP/1.1\r\nContent-Length: " + value + "\r\n\r\n");
+            assertThrows(IllegalArgumentException.class, parser::contentLength, value);
+        }
+    }
+
+    @Test
+    void rejectsTransferEncoding() {
+        parse("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+        assertThrows(UnsupportedOperationException.class, parser::contentLength);
+
+        // 两者同时出现是典型的请求走私, 按错误请求处理而不是不支持
+        parse("POST / HTTP/1.1\r\nContent-Length: 3\r\ntransfer-encoding: chunked\r\n\r\n");
+        assertThrows(IllegalArgumentException.class, parser::contentLength);
+    }
+
+    @Test
+    void rejectHeadMapsToStatusAndClosesConnection() {
+        Response notImplemented = Jlask.rejectHead(new UnsupportedOperationException());
+        assertEquals(501, notImplemented.getStatus());
+        assertEquals("close", notImplemented.getHeaders().get("Connection"));
+
+        Response badRequest = Jlask.rejectHead(new IllegalArgumentException());
+        assertEquals(400, badRequest.getStatus());
+        assertEquals("close", badRequest.getHeaders().get("Connection"));
+    }
+}
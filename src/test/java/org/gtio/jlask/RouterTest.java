@@ -0,0 +1,133 @@
+package org.gtio.jlask;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RouterTest {
+    private static final Handler HANDLER = req -> null;
+
+    private static Router router(String... patterns) {
+        Router router = new Router();
+        for (String pattern : patterns) {
+            router.add(pattern, "GET", HANDLER);
+        }
+        return router;
+    }
+
+    // 只用来接收路径参数
+    private static Request request() throws IOException {
+        return new Request(new ByteArrayInputStream("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static String pattern(Router router, String path) {
+        Router.Node node = router.find(path, null);
+        return node == null ? null : node.pattern();
+    }
+
+    @Test
+    void matchesStaticRoutesSharingPrefixes() {
+        Router router = router("/", "/user", "/users", "/user/list", "/us");
+        assertEquals("/", pattern(router, "/"));
+        assertEquals("/user", pattern(router, "/user"));
+        assertEquals("/users", pattern(router, "/users"));
+        assertEquals("/user/list", pattern(router, "/user/list"));
+        assertEquals("/us", pattern(router, "/us"));
+        assertNull(pattern(router, "/u"));
+        assertNull(pattern(router, "/user/"));
+        assertNull(pattern(router, "/userx"));
+    }
+
+    @Test
+    void staticBeatsParamBeatsWildcard() {
+        Router router = router("/files/*", "/files/{name}", "/files/index");
+        assertEquals("/files/index", pattern(router, "/files/index"));
+        assertEquals("/files/{name}", pattern(router, "/files/other"));
+        assertEquals("/files/*", pattern(router, "/files/a/b"));
+        assertEquals("/files/*", pattern(router, "/files/"));
+    }
+
+    // 静态分支走不通时回到参数分支
+    @Test
+    void backtracksFromStaticToParam() throws IOException {
+        Router router = router("/user/new/edit", "/user/{id}/profile");
+        Request req = request();
+        assertEquals("/user/{id}/profile", router.find("/user/new/profile", req).pattern());
+        assertEquals("new", req.getPathParam("id"));
+        assertNull(pattern(router, "/user/new"));
+    }
+
+    @Test
+    void capturesParamsAndWildcard() throws IOException {
+        Router router = router("/user/{id}/post/{post}", "/static/{path*}");
+        Request req = request();
+        assertNotNull(router.find("/user/42/post/7", req));
+        assertEquals("42", req.getPathParam("id"));
+        assertEquals("7", req.getPathParam("post"));
+
+        req = request();
+        assertNotNull(router.find("/static/css/app.css", req));
+        assertEquals("css/app.css", req.getPathParam("path"));
+
+        // 参数不匹配空段
+        assertNull(pattern(router, "/user//post/7"));
+    }
+
+    // 按原始路径匹配: %2F 不切开参数, 解码在匹配之后; + 保持原样
+    @Test
+    void decodesCapturedValuesOnly() throws IOException {
+        Router router = router("/user/{name}");
+        Request req = request();
+        assertNotNull(router.find("/user/a%2Fb", req));
+        assertEquals("a/b", req.getPathParam("name"));
+
+        req = request();
+        assertNotNull(router.find("/user/a+b", req));
+        assertEquals("a+b", req.getPathParam("name"));
+
+        req = request();
+        assertNotNull(router.find("/user/%E4%B8%AD", req));
+        assertEquals("中", req.getPathParam("name"));
+
+        assertNull(pattern(router, "/user/a/b"));
+    }
+
+    // 静态部分注册时按 UTF-8 编码, 与浏览器发出的原始路径一致
+    @Test
+    void matchesNonAsciiStaticRoutes() {
+        Router router = router("/文档/{id}", "/a b");
+        assertEquals("/文档/{id}", pattern(router, "/%E6%96%87%E6%A1%A3/1"));
+        assertEquals("/a b", pattern(router, "/a%20b"));
+    }
+
+    @Test
+    void reportsAllowedMethods() {
+        Router router = new Router();
+        router.add("/item", "GET", HANDLER);
+        Handler post = req -> null;
+        router.add("/item", "POST", post);
+        Router.Node node = router.find("/item", null);
+        assertSame(post, node.handler("POST"));
+        assertNull(node.handler("DELETE"));
+        assertEquals("GET, POST", node.allow());
+    }
+
+    @Test
+    void rejectsInvalidRoutes() {
+        Router router = router("/user/{id}");
+        assertThrows(IllegalStateException.class, () -> router.add("/user/{id}", "GET", HANDLER));
+        assertThrows(IllegalStateException.class, () -> router.add("/user/{name}/x", "GET", HANDLER));
+        assertThrows(IllegalArgumentException.class, () -> router.add("user", "GET", HANDLER));
+        assertThrows(IllegalArgumentException.class, () -> router.add("/a/{id", "GET", HANDLER));
+        assertThrows(IllegalArgumentException.class, () -> router.add("/a/*/b", "GET", HANDLER));
+        assertThrows(IllegalArgumentException.class, () -> router.add("/a/{}", "GET", HANDLER));
+    }
+}
@@ -0,0 +1,110 @@
+package org.gtio.jlask;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Range 请求头的解析, 直接发送文件和从缓存应答两条路径都要覆盖
+class StaticFilesTest {
+    @TempDir
+    Path dir;
+
+    private StaticFiles staticFiles(boolean cached) throws IOException {
+        Files.writeString(dir.resolve("a.txt"), "0123456789");
+        Config config = new Config();
+        config.staticDir = dir.toString();
+        config.assetCacheSize = cached ? 1024 * 1024 : 0;
+        return new StaticFiles(config, new Compression(config));
+    }
+
+    private static Request request(String path, String... headers) throws IOException {
+        StringBuilder head = new StringBuilder("GET " + path + " HTTP/1.1\r\n");
+        for (String header : headers) {
+            head.append(header).append("\r\n");
+        }
+        head.append("\r\n");
+        return new Request(new ByteArrayInputStream(head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static Response get(StaticFiles files, String range) throws IOException {
+        return files.serve(request("/a.txt", "Range: " + range));
+    }
+
+    private static void assertRange(Response res, long start, long end) {
+        assertEquals(206, res.getStatus());
+        assertEquals("bytes " + start + "-" + end + "/10", res.getHeaders().get("Content-Range"));
+        assertEquals(String.valueOf(end - start + 1), res.getHeaders().get("Content-Length"));
+        assertEquals(start, res.getBodyOffset());
+        assertEquals(end - start + 1, res.getBodyLength());
+    }
+
+    // 忽略 Range, 返回完整内容
+    private static void assertWhole(Response res) {
+        assertEquals(200, res.getStatus());
+        assertNull(res.getHeaders().get("Content-Range"));
+        assertEquals(0, res.getBodyOffset());
+        assertEquals(10, res.getBodyLength());
+    }
+
+    private static void assertUnsatisfiable(Response res) {
+        assertEquals(416, res.getStatus());
+        assertEquals("bytes */10", res.getHeaders().get("Content-Range"));
+    }
+
+    private void checkRanges(boolean cached) throws IOException {
+        StaticFiles files = staticFiles(cached);
+        assertRange(get(files, "bytes=0-4"), 0, 4);
+        assertRange(get(files, "bytes=3-3"), 3, 3);
+        assertRange(get(files, "bytes= 2 - 5"), 2, 5);
+        // 结束位置超出文件时截到末尾
+        assertRange(get(files, "bytes=5-100"), 5, 9);
+        assertRange(get(files, "bytes=5-"), 5, 9);
+        // 后缀区间: 最后 n 个字节, 超过文件长度时为整个文件
+        assertRange(get(files, "bytes=-3"), 7, 9);
+        assertRange(get(files, "bytes=-20"), 0, 9);
+
+        assertUnsatisfiable(get(files, "bytes=10-"));
+        assertUnsatisfiable(get(files, "bytes=10-12"));
+        assertUnsatisfiable(get(files, "bytes=-0"));
+
+        // 多个区间, 其他单位和格式错误的 Range 都按没有 Range 处理
+        assertWhole(get(files, "bytes=0-1,3-4"));
+        assertWhole(get(files, "items=0-4"));
+        assertWhole(get(files, "bytes=4"));
+        assertWhole(get(files, "bytes=a-b"));
+        assertWhole(get(files, "bytes=-"));
+        assertWhole(get(files, "bytes=5-2"));
+        assertWhole(files.serve(request("/a.txt")));
+    }
+
+    @Test
+    void parsesRangesForFiles() throws IOException {
+        checkRanges(false);
+    }
+
+    @Test
+    void parsesRangesForCachedAssets() throws IOException {
+        checkRanges(true);
+    }
+
+    // 只对 200 的响应应用 Range
+    @Test
+    void ignoresRangeOnOtherStatuses() throws IOException {
+        StaticFiles files = staticFiles(false);
+        assertEquals(404, files.serve(request("/missing.txt", "Range: bytes=0-4")).getStatus());
+
+        files = staticFiles(true);
+        String etag = files.serve(request("/a.txt")).getHeaders().get("ETag");
+        Response res = files.serve(request("/a.txt", "If-None-Match: " + etag, "Range: bytes=0-4"));
+        assertEquals(304, res.getStatus());
+        assertNull(res.getHeaders().get("Content-Range"));
+    }
+}
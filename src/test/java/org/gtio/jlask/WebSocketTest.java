@@ -0,0 +1,249 @@
+package org.gtio.jlask;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebSocketTest {
+    private static final byte[] MASK = {0x37, (byte) 0xfa, 0x21, 0x3d};
+
+    // 监听器收到的事件和发给客户端的帧
+    private final List<String> events = new ArrayList<>();
+    private final List<byte[]> sent = new ArrayList<>();
+    private boolean sinkClosed;
+    private WebSocket socket;
+
+    @BeforeEach
+    void open() {
+        socket = open(1024);
+    }
+
+    private WebSocket open(int maxMessageSize) {
+        sinkClosed = false;
+        WebSocket ws = new WebSocket(null, new WebSocketListener() {
+            @Override
+            public void onText(WebSocket socket, String text) {
+                events.add("text:" + text);
+            }
+
+            @Override
+            public void onBinary(WebSocket socket, byte[] data) {
+                events.add("binary:" + data.length);
+            }
+
+            @Override
+            public void onClose(WebSocket socket, int code, String reason) {
+                events.add("close:" + code);
+            }
+        }, maxMessageSize);
+        ws.open(new Sink() {
+            @Override
+            public boolean offer(ByteBuffer data) {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                sent.add(bytes);
+                return true;
+            }
+
+            @Override
+            public void close() {
+                sinkClosed = true;
+            }
+        }, Runnable::run);
+        return ws;
+    }
+
+    // 客户端发出的帧: 负载按 MASK 掩码
+    private static byte[] masked(int b0, byte[] payload) {
+        byte[] header = WebSocket.frame(0, payload);
+        int headerLength = header.length - payload.length;
+        byte[] frame = new byte[headerLength + 4 + payload.length];
+        System.arraycopy(header, 0, frame, 0, headerLength);
+        frame[0] = (byte) b0;
+        frame[1] |= (byte) 0x80;
+        System.arraycopy(MASK, 0, frame, headerLength, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[headerLength + 4 + i] = (byte) (payload[i] ^ MASK[i & 3]);
+        }
+        return frame;
+    }
+
+    private static byte[] closePayload(int code, byte[] reason) {
+        byte[] payload = new byte[2 + reason.length];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(reason, 0, payload, 2, reason.length);
+        return payload;
+    }
+
+    private void feed(byte[]... frames) {
+        for (byte[] frame : frames) {
+            socket.feed(ByteBuffer.wrap(frame));
+        }
+    }
+
+    // 最后发出的帧应当是带 code 的关闭帧, 之后连接关闭
+    private void assertClosedWith(int code) {
+        byte[] last = sent.get(sent.size() - 1);
+        assertEquals((byte) 0x88, last[0]);
+        assertEquals(code, (last[2] & 0xff) << 8 | last[3] & 0xff);
+        assertTrue(sinkClosed);
+        assertTrue(socket.isInputClosed());
+        assertEquals("close:" + code, events.get(events.size() - 1));
+    }
+
+    // RFC 6455 5.7 的示例
+    @Test
+    void unmasksClientFrames() {
+        feed(HexFormat.of().parseHex("818537fa213d7f9f4d5158"));
+        assertEquals(List.of("text:Hello"), events);
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    void frameSplitAcrossReads() {
+        byte[] frame = masked(0x82, new byte[300]);
+        for (byte b : frame) {
+            feed(new byte[]{b});
+        }
+        assertEquals(List.of("binary:300"), events);
+    }
+
+    @Test
+    void rejectsUnmaskedFrames() {
+        feed(WebSocket.frame(0x1, "Hello".getBytes(StandardCharsets.UTF_8)));
+        assertClosedWith(1002);
+    }
+
+    @Test
+    void rejectsReservedBits() {
+        feed(masked(0xc1, "Hello".getBytes(StandardCharsets.UTF_8)));
+        assertClosedWith(1002);
+    }
+
+    @Test
+    void rejectsInvalidUtf8Text() {
+        feed(masked(0x81, new byte[]{(byte) 0xc3, 0x28}));
+        assertClosedWith(1007);
+    }
+
+    @Test
+    void reassemblesFragmentsAroundControlFrames() {
+        feed(masked(0x01, "Hel".getBytes(StandardCharsets.UTF_8)),
+                masked(0x89, "p".getBytes(StandardCharsets.UTF_8)),
+                masked(0x80, "lo".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(List.of("text:Hello"), events);
+        // 分片之间的 ping 立即回复 pong
+        assertEquals(1, sent.size());
+        assertArrayEquals(new byte[]{(byte) 0x8a, 1, 'p'}, sent.get(0));
+    }
+
+    @Test
+    void rejectsContinuationWithoutMessage() {
+        feed(masked(0x80, "lo".getBytes(StandardCharsets.UTF_8)));
+        assertClosedWith(1002);
+    }
+
+    @Test
+    void rejectsOversizedMessage() {
+        socket = open(8);
+        feed(masked(0x01, new byte[5]), masked(0x80, new byte[5]));
+        assertClosedWith(1009);
+        assertEquals(List.of("close:1009"), events);
+    }
+
+    @Test
+    void echoesEmptyCloseAsNormal() {
+        feed(masked(0x88, new byte[0]));
+        assertArrayEquals(new byte[]{(byte) 0x88, 2, 0x03, (byte) 0xe8}, sent.get(0));
+        assertClosedWith(1000);
+    }
+
+    @Test
+    void echoesValidCloseCodes() {
+        for (int code : new int[]{1000, 1001, 1011, 3000, 4999}) {
+            events.clear();
+            sent.clear();
+            socket = open(1024);
+            feed(masked(0x88, closePayload(code, "bye".getBytes(StandardCharsets.UTF_8))));
+            assertEquals(1, sent.size(), "code " + code);
+            assertClosedWith(code);
+            // 关闭后到达的帧被忽略
+            feed(masked(0x81, "late".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(1, sent.size());
+        }
+    }
+
+    @Test
+    void rejectsInvalidCloseFrames() {
+        List<byte[]> payloads = new ArrayList<>();
+        payloads.add(new byte[]{0x03});
+        for (int code : new int[]{999, 1004, 1005, 1006, 1015, 2999, 5000}) {
+            payloads.add(closePayload(code, new byte[0]));
+        }
+        for (byte[] payload : payloads) {
+            events.clear();
+            sent.clear();
+            socket = open(1024);
+            feed(masked(0x88, payload));
+            assertClosedWith(1002);
+        }
+
+        events.clear();
+        sent.clear();
+        socket = open(1024);
+        feed(masked(0x88, closePayload(1000, new byte[]{(byte) 0xff})));
+        assertClosedWith(1007);
+
+        // 控制帧不能分片
+        events.clear();
+        sent.clear();
+        socket = open(1024);
+        feed(masked(0x08, closePayload(1000, new byte[0])));
+        assertClosedWith(1002);
+    }
+
+    // 超长的关闭原因截断到 123 字节以内, 不切开多字节字符
+    @Test
+    void truncatesCloseReasonOnCharacterBoundary() {
+        socket.close(1000, "中".repeat(60));
+        byte[] frame = sent.get(0);
+        assertEquals(2 + 2 + 123, frame.length);
+        byte[] reason = Arrays.copyOfRange(frame, 4, frame.length);
+        assertEquals("中".repeat(41), new String(reason, StandardCharsets.UTF_8));
+
+        sent.clear();
+        socket = open(1024);
+        socket.close(1000, "a" + "中".repeat(60));
+        frame = sent.get(0);
+        assertEquals(2 + 2 + 121, frame.length);
+        assertEquals("a" + "中".repeat(40), new String(frame, 4, frame.length - 4, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void frameHeaderLengths() {
+        assertArrayEquals(new byte[]{(byte) 0x81, 0}, WebSocket.frame(0x1, new byte[0]));
+        byte[] medium = WebSocket.frame(0x2, new byte[126]);
+        assertEquals(4 + 126, medium.length);
+        assertArrayEquals(new byte[]{(byte) 0x82, 126, 0, 126}, Arrays.copyOf(medium, 4));
+        byte[] large = WebSocket.frame(0x2, new byte[65536]);
+        assertEquals(10 + 65536, large.length);
+        assertArrayEquals(new byte[]{(byte) 0x82, 127, 0, 0, 0, 0, 0, 1, 0, 0}, Arrays.copyOf(large, 10));
+    }
+
+    // RFC 6455 1.3 的示例
+    @Test
+    void acceptKey() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocket.accept("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+}